@@ -0,0 +1,270 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.LatencyHistogram;
+import com.example.library.OperationStats;
+import com.example.library.SchemaMigrator;
+import com.example.library.bench.ZipfSampler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local load test for LibraryApiServer. Starts the server in-process on an
+// ephemeral port and runs N HTTP clients, each on its own virtual thread,
+// against it for a fixed time. The mix is kiosk-shaped: mostly single-book
+// lookups and catalogue pages, a share of conditional GETs that revalidate a
+// page fetched earlier (and should come back 304), searches, loan histories
+// and a few checkout-then-return round trips. Books and borrowers are picked
+// with LibraryDataGenerator's skew.
+//
+// Reports requests per second and latency percentiles per request type, and
+// how many responses were 2xx, 304, 4xx and 5xx or failed outright. The
+// first WARMUP_SECONDS are run but not recorded, so the JIT has settled.
+//
+// Usage: ApiLoadTest <database> [clients] [seconds] [mix] [seed]
+//        mix defaults to book=35,page=15,revalidate=20,search=15,history=10,circulate=5
+// e.g.   LibraryDataGenerator load.db 1000000 && ApiLoadTest load.db 64 30
+public class ApiLoadTest {
+    private static final String DEFAULT_MIX = "book=35,page=15,revalidate=20,search=15,history=10,circulate=5";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+    private static final int PAGE_SIZE = 20;
+    private static final int WARMUP_SECONDS = 5;
+
+    enum Request {
+        BOOK, PAGE, REVALIDATE, SEARCH, HISTORY, CIRCULATE
+    }
+
+    enum Status {
+        OK, NOT_MODIFIED, CLIENT_ERROR, SERVER_ERROR, FAILED
+    }
+
+    private static final Map<Request, LatencyHistogram> latency = new EnumMap<>(Request.class);
+    private static final Map<Request, LongAdder[]> statuses = new EnumMap<>(Request.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ApiLoadTest <database> [clients] [seconds] [mix] [seed]");
+            System.exit(2);
+        }
+        String file = args[0];
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Map<Request, Integer> mix = parseMix(args.length > 3 ? args[3] : DEFAULT_MIX);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        for (Request request : Request.values()) {
+            latency.put(request, new LatencyHistogram());
+            LongAdder[] counts = new LongAdder[Status.values().length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+            statuses.put(request, counts);
+        }
+
+        try (DatabaseUtil db = new DatabaseUtil(file);
+             LibraryService service = new LibraryService(db)) {
+            SchemaMigrator.migrate(db);
+            service.loadAvailability().get();
+            int books = count(db, "SELECT MAX(id) FROM books");
+            int borrowers = count(db, "SELECT MAX(id) FROM borrowers");
+            if (books == 0 || borrowers == 0) {
+                System.err.println(file + " has no books or borrowers; run LibraryDataGenerator first");
+                System.exit(1);
+            }
+
+            try (LibraryApiServer server = new LibraryApiServer(service, new InetSocketAddress("127.0.0.1", 0));
+                 ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                String base = "http://127.0.0.1:" + server.getPort();
+                HttpClient http = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofSeconds(10))
+                        .build();
+                System.out.printf("%d clients for %d s (after %d s warm-up) against %s (%,d books, %,d borrowers), mix %s%n",
+                        clients, seconds, WARMUP_SECONDS, base, books, borrowers, mix);
+
+                ZipfSampler bookRank = new ZipfSampler(books, 1.05);
+                ZipfSampler borrowerRank = new ZipfSampler(borrowers, 0.6);
+                long start = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+                long deadline = start + seconds * 1_000_000_000L;
+                List<Future<?>> running = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    Random random = new Random(seed + i);
+                    running.add(executor.submit(() -> runClient(http, base, random, mix, bookRank, borrowerRank,
+                            books, borrowers, start, deadline)));
+                }
+                for (Future<?> client : running) {
+                    client.get();
+                }
+                report(seconds);
+                System.out.printf("%nServer-side data access, heaviest first (includes warm-up)%n");
+                for (OperationStats stats : db.getMetrics().getOperations()) {
+                    System.out.println("  " + stats);
+                }
+            }
+        }
+    }
+
+    private static Void runClient(HttpClient http, String base, Random random, Map<Request, Integer> mix,
+                                  ZipfSampler bookRank, ZipfSampler borrowerRank, int books, int borrowers,
+                                  long measureFrom, long deadline) {
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        BookSort[] sorts = BookSort.values();
+        // Pages this client has seen, with their ETags, for revalidation
+        Map<String, String> etags = new HashMap<>();
+        List<String> seen = new ArrayList<>();
+
+        while (System.nanoTime() < deadline) {
+            Request request = pick(mix, totalWeight, random);
+            int bookId = LibraryDataGenerator.bookForRank(bookRank.sample(random), books);
+            int borrowerId = LibraryDataGenerator.borrowerForRank(borrowerRank.sample(random), borrowers);
+            long t0 = System.nanoTime();
+            Status status;
+            try {
+                switch (request) {
+                    case BOOK -> status = get(http, base + "/books/" + bookId, null, null);
+                    case PAGE, REVALIDATE -> {
+                        String url;
+                        if (request == Request.REVALIDATE && !seen.isEmpty()) {
+                            url = seen.get(random.nextInt(seen.size()));
+                        } else {
+                            url = base + "/books?limit=" + PAGE_SIZE + "&sort="
+                                    + sorts[random.nextInt(sorts.length)].name().toLowerCase(Locale.ROOT)
+                                    + "&order=" + (random.nextBoolean() ? "asc" : "desc");
+                        }
+                        status = get(http, url, etags.get(url), etags);
+                        if (etags.containsKey(url) && !seen.contains(url)) {
+                            seen.add(url);
+                        }
+                    }
+                    case SEARCH -> {
+                        String word = LibraryDataGenerator.TITLE_WORDS[random.nextInt(LibraryDataGenerator.TITLE_WORDS.length)];
+                        String prefix = word.substring(0, Math.min(word.length(), 3 + random.nextInt(4)));
+                        status = get(http, base + "/books/search?limit=20&q=" + prefix, null, null);
+                    }
+                    case HISTORY -> status = get(http, base + "/borrowers/" + borrowerId + "/loans?limit=20", null, null);
+                    default -> {
+                        String body = "{\"borrowerId\":" + borrowerId + ",\"bookId\":" + bookId + "}";
+                        int code = post(http, base + "/checkout", body);
+                        if (code == 200) {
+                            code = post(http, base + "/return", body);
+                        }
+                        // A book someone else holds is a refusal, not a failure
+                        status = code == 200 || code == 409 ? Status.OK : statusOf(code);
+                    }
+                }
+            } catch (Exception e) {
+                status = Status.FAILED;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            long t1 = System.nanoTime();
+            if (t0 >= measureFrom && t1 <= deadline) {
+                latency.get(request).record(t1 - t0);
+                statuses.get(request)[status.ordinal()].increment();
+            }
+        }
+        return null;
+    }
+
+    private static Status get(HttpClient http, String url, String etag, Map<String, String> etags) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        HttpResponse<byte[]> response = http.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (etags != null) {
+            response.headers().firstValue("ETag").ifPresent(tag -> etags.put(url, tag));
+        }
+        return statusOf(response.statusCode());
+    }
+
+    private static int post(HttpClient http, String url, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static Status statusOf(int code) {
+        if (code == 304) {
+            return Status.NOT_MODIFIED;
+        }
+        if (code >= 200 && code < 300) {
+            return Status.OK;
+        }
+        return code < 500 ? Status.CLIENT_ERROR : Status.SERVER_ERROR;
+    }
+
+    private static Request pick(Map<Request, Integer> mix, int totalWeight, Random random) {
+        int roll = random.nextInt(totalWeight);
+        for (Map.Entry<Request, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("empty mix");
+    }
+
+    private static Map<Request, Integer> parseMix(String text) {
+        Map<Request, Integer> mix = new EnumMap<>(Request.class);
+        for (String part : text.split(",")) {
+            String[] kv = part.split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) {
+                mix.put(Request.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("mix must give at least one request type a positive weight");
+        }
+        return mix;
+    }
+
+    private static void report(double elapsed) {
+        System.out.printf("%n%-10s %10s %10s %9s %9s %9s %9s %9s %9s %6s %6s %6s %6s%n", "request", "count", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "2xx", "304", "4xx", "5xx", "failed");
+        long all = 0;
+        for (Request request : Request.values()) {
+            LatencyHistogram histogram = latency.get(request);
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+            all += count;
+            System.out.printf("%-10s %,10d %,10.0f", request.name().toLowerCase(Locale.ROOT), count, count / elapsed);
+            for (double p : PERCENTILES) {
+                System.out.printf(" %9.2f", histogram.percentile(p) / 1e6);
+            }
+            LongAdder[] counts = statuses.get(request);
+            System.out.printf(" %,9d %,6d %,6d %,6d %,6d%n", counts[0].sum(), counts[1].sum(), counts[2].sum(),
+                    counts[3].sum(), counts[4].sum());
+        }
+        System.out.printf("%-10s %,10d %,10.0f%n", "total", all, all / elapsed);
+    }
+
+    private static int count(DatabaseUtil db, String sql) throws SQLException {
+        return db.read(c -> {
+            try (ResultSet rs = c.prepare(sql).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+}
@@ -0,0 +1,171 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+// "Which of these IDs are available" for a batch of book IDs, answered by
+// loading the Book rows and by the AvailabilityIndex. Then desks check books
+// out and in while the index is reloaded underneath them, and the index is
+// compared with the books table.
+//
+// Usage: AvailabilityBenchmark [books] [batchSize] [iterations] [desks]
+public class AvailabilityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int desks = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        File file = File.createTempFile("availability-benchmark", ".db");
+        file.deleteOnExit();
+        try (DatabaseUtil db = new DatabaseUtil(file.getPath())) {
+            SchemaMigrator.migrate(db);
+            seed(db, books);
+
+            AvailabilityIndex availability = new AvailabilityIndex(db);
+            long start = System.nanoTime();
+            availability.reload();
+            System.out.printf("%,d books loaded into the index in %.1f ms, %,d available%n",
+                    availability.size(), (System.nanoTime() - start) / 1e6, availability.availableCount());
+
+            Random random = new Random(7);
+            double[] rows = new double[iterations];
+            double[] index = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                int[] ids = random.ints(batchSize, 1, books + 1).toArray();
+                long t = System.nanoTime();
+                int fromRows = availableFromRows(db, ids);
+                rows[i] = (System.nanoTime() - t) / 1e3;
+                t = System.nanoTime();
+                int fromIndex = availability.filterAvailable(ids).length;
+                index[i] = (System.nanoTime() - t) / 1e3;
+                if (fromRows != fromIndex) {
+                    throw new IllegalStateException("Index disagrees with the books table");
+                }
+            }
+            Arrays.sort(rows);
+            Arrays.sort(index);
+            System.out.printf("%,d-ID availability check: rows p50 %,.0f us, index p50 %,.1f us%n",
+                    batchSize, rows[iterations / 2], index[iterations / 2]);
+
+            int mismatches = churn(db, availability, books, desks);
+            System.out.println("index mismatches after concurrent circulation and reload: " + mismatches);
+            System.out.println(mismatches == 0 ? "PASS" : "FAIL");
+            if (mismatches != 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    // The old way: read every Book and look at its flag
+    private static int availableFromRows(DatabaseUtil db, int[] ids) throws SQLException {
+        int available = 0;
+        for (int from = 0; from < ids.length; from += 500) {
+            int to = Math.min(ids.length, from + 500);
+            StringBuilder sql = new StringBuilder("SELECT id, title, author, genre, is_borrowed FROM books WHERE id IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+            }
+            sql.append(')');
+            int first = from;
+            List<Book> found = db.read(c -> {
+                PreparedStatement ps = c.getConnection().prepareStatement(sql.toString());
+                try (ps) {
+                    for (int i = first; i < to; i++) {
+                        ps.setInt(i - first + 1, ids[i]);
+                    }
+                    List<Book> result = new ArrayList<>();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            result.add(BookRepository.mapBook(rs));
+                        }
+                    }
+                    return result;
+                }
+            });
+            // IN () collapses duplicate IDs, so count per requested ID
+            BitSet free = new BitSet();
+            for (Book book : found) {
+                if (!book.isBorrowed()) {
+                    free.set(book.getId());
+                }
+            }
+            for (int i = from; i < to; i++) {
+                if (free.get(ids[i])) {
+                    available++;
+                }
+            }
+        }
+        return available;
+    }
+
+    private static int churn(DatabaseUtil db, AvailabilityIndex availability, int books, int desks) throws Exception {
+        db.write(c -> c.prepare("INSERT INTO borrowers (name, email) VALUES ('Desk', 'desk@example.com')").executeUpdate());
+        CirculationService circulation = new CirculationService(db, new BookCache(0, false), availability);
+        int hot = 2_000;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int d = 0; d < desks; d++) {
+                executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 500; i++) {
+                        int bookId = 1 + random.nextInt(hot);
+                        if (availability.isAvailable(bookId)) {
+                            circulation.checkout(1, bookId);
+                        } else {
+                            circulation.returnBook(bookId, 1);
+                        }
+                    }
+                    return null;
+                });
+            }
+            executor.submit(() -> {
+                for (int i = 0; i < 3; i++) {
+                    availability.reload();
+                }
+                return null;
+            });
+        }
+        return db.read(c -> {
+            int mismatches = 0;
+            try (ResultSet rs = c.prepare("SELECT id, is_borrowed FROM books").executeQuery()) {
+                while (rs.next()) {
+                    if (!Boolean.valueOf(rs.getBoolean(2)).equals(availability.isBorrowed(rs.getInt(1)))) {
+                        mismatches++;
+                    }
+                }
+            }
+            return mismatches;
+        });
+    }
+
+    private static void seed(DatabaseUtil db, int books) throws SQLException {
+        Random random = new Random(42);
+        db.transaction(c -> {
+            PreparedStatement ps = c.prepare("INSERT INTO books (title, author, genre, is_borrowed) VALUES (?, ?, ?, ?)");
+            for (int i = 1; i <= books; i++) {
+                ps.setString(1, "Title " + i);
+                ps.setString(2, "Author " + random.nextInt(Math.max(1, books / 10)));
+                ps.setString(3, "Genre " + random.nextInt(20));
+                ps.setBoolean(4, random.nextInt(4) == 0);
+                ps.addBatch();
+                if (i % 10_000 == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            return null;
+        });
+    }
+}
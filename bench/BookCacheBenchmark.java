@@ -0,0 +1,131 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Book lookups by ID mixed with checkouts and returns, run once with the
+// BookCache on and once with it off. Lookups are skewed: most go to a small
+// set of popular titles, as at a real circulation desk. Each run checks that
+// every book served from the cache agrees with the database afterwards.
+//
+// Usage: BookCacheBenchmark [books] [borrowers] [threads] [operationsPerThread] [cacheSize]
+public class BookCacheBenchmark {
+    private static final int HOT_PERCENT = 90;
+
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int borrowers = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int operations = args.length > 3 ? Integer.parseInt(args[3]) : 50_000;
+        int cacheSize = args.length > 4 ? Integer.parseInt(args[4]) : BookCache.DEFAULT_SIZE;
+
+        File file = File.createTempFile("book-cache-benchmark", ".db");
+        file.deleteOnExit();
+        try (DatabaseUtil db = new DatabaseUtil(file.getPath())) {
+            SchemaMigrator.migrate(db);
+            seed(db, books, borrowers);
+            boolean consistent = true;
+            for (boolean enabled : new boolean[]{false, true}) {
+                consistent &= run(db, new BookCache(cacheSize, enabled), books, borrowers, threads, operations);
+            }
+            System.out.println(consistent ? "PASS" : "FAIL");
+            if (!consistent) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static boolean run(DatabaseUtil db, BookCache cache, int books, int borrowers, int threads, int operations)
+            throws Exception {
+        AvailabilityIndex availability = new AvailabilityIndex(db);
+        BookRepository bookRepository = new BookRepository(db, cache, availability);
+        CirculationService circulation = new CirculationService(db, cache, availability);
+        int hotBooks = Math.max(1, books / 100);
+        AtomicInteger writes = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < operations; i++) {
+                        int bookId = 1 + (random.nextInt(100) < HOT_PERCENT ? random.nextInt(hotBooks) : random.nextInt(books));
+                        int borrowerId = 1 + random.nextInt(borrowers);
+                        // One operation in twenty changes a borrowed flag
+                        if (random.nextInt(20) == 0) {
+                            Book book = bookRepository.findById(bookId);
+                            if (book.isBorrowed()) {
+                                Integer current = db.read(c -> {
+                                    PreparedStatement ps = c.prepare(
+                                            "SELECT borrower_id FROM borrow_records WHERE book_id = ? AND return_date IS NULL");
+                                    ps.setInt(1, bookId);
+                                    try (var rs = ps.executeQuery()) {
+                                        return rs.next() ? rs.getInt(1) : null;
+                                    }
+                                });
+                                if (current != null) {
+                                    circulation.returnBook(bookId, current);
+                                }
+                            } else {
+                                circulation.checkout(borrowerId, bookId);
+                            }
+                            writes.incrementAndGet();
+                        } else {
+                            bookRepository.findById(bookId);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        BookCache.Stats stats = cache.stats();
+
+        int stale = 0;
+        for (int id = 1; id <= books; id++) {
+            Book cached = cache.get(id);
+            if (cached != null) {
+                Book stored = new BookRepository(db).findById(id);
+                if (stored == null || stored.isBorrowed() != cached.isBorrowed()) {
+                    stale++;
+                }
+            }
+        }
+        long total = (long) threads * operations;
+        System.out.printf("cache %-3s: %,d operations (%,d writes) in %,d ms, %,.0f ops/s, stale entries=%d%n",
+                cache.isEnabled() ? "on" : "off", total, writes.get(), millis, total * 1000.0 / millis, stale);
+        System.out.println("  " + stats);
+        return stale == 0;
+    }
+
+    private static void seed(DatabaseUtil db, int books, int borrowers) throws SQLException {
+        Random random = new Random(42);
+        db.transaction(c -> {
+            PreparedStatement ps = c.prepare("INSERT INTO books (title, author, genre, is_borrowed) VALUES (?, ?, ?, 0)");
+            for (int i = 1; i <= books; i++) {
+                ps.setString(1, "Title " + i);
+                ps.setString(2, "Author " + random.nextInt(Math.max(1, books / 10)));
+                ps.setString(3, "Genre " + random.nextInt(20));
+                ps.addBatch();
+                if (i % 10_000 == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            ps = c.prepare("INSERT INTO borrowers (name, email) VALUES (?, ?)");
+            for (int i = 1; i <= borrowers; i++) {
+                ps.setString(1, "Borrower " + i);
+                ps.setString(2, "borrower" + i + "@example.com");
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,291 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.LatencyHistogram;
+import com.example.library.bench.ZipfSampler;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Headless load driver: N circulation desks, each on its own virtual thread,
+// replay a weighted mix of checkouts, returns, catalogue searches, catalogue
+// pages and loan-history listings against the data layer for a fixed time.
+// Books and borrowers are picked with the same skew LibraryDataGenerator
+// used, so popular titles are fought over. Desks can be spread over several
+// connection pools on the same file to act like separate desk processes.
+//
+// Reports per-operation throughput, latency percentiles and a latency
+// histogram, refusals (book already out, nothing to return), contention
+// errors (SQLITE_BUSY after retries, pool timeouts) and other errors, then
+// checks the loan tables for double loans and stale is_borrowed flags.
+//
+// Usage: CirculationLoadTest <database> [desks] [seconds] [pools] [mix] [seed]
+//        mix defaults to checkout=25,return=25,search=20,page=15,history=15
+// e.g.   LibraryDataGenerator load.db 1000000 && CirculationLoadTest load.db 128 60 4
+public class CirculationLoadTest {
+    private static final String DEFAULT_MIX = "checkout=25,return=25,search=20,page=15,history=15";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+    enum Operation {
+        CHECKOUT, RETURN, SEARCH, PAGE, HISTORY
+    }
+
+    enum Outcome {
+        OK, REFUSED, BUSY, TIMEOUT, ERROR
+    }
+
+    // What one desk saw; merged once the run is over
+    private static final class DeskStats {
+        final Map<Operation, LatencyHistogram> latency = new EnumMap<>(Operation.class);
+        final Map<Operation, long[]> outcomes = new EnumMap<>(Operation.class);
+
+        DeskStats() {
+            for (Operation operation : Operation.values()) {
+                latency.put(operation, new LatencyHistogram());
+                outcomes.put(operation, new long[Outcome.values().length]);
+            }
+        }
+
+        void add(DeskStats other) {
+            for (Operation operation : Operation.values()) {
+                latency.get(operation).add(other.latency.get(operation));
+                long[] counts = outcomes.get(operation);
+                long[] otherCounts = other.outcomes.get(operation);
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += otherCounts[i];
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CirculationLoadTest <database> [desks] [seconds] [pools] [mix] [seed]");
+            System.exit(2);
+        }
+        String file = args[0];
+        int desks = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int poolCount = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        Map<Operation, Integer> mix = parseMix(args.length > 4 ? args[4] : DEFAULT_MIX);
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+
+        List<DatabaseUtil> pools = new ArrayList<>();
+        try {
+            for (int i = 0; i < poolCount; i++) {
+                pools.add(new DatabaseUtil(file));
+            }
+            int books = count(pools.get(0), "SELECT IFNULL(MAX(id), 0) FROM books");
+            int borrowers = count(pools.get(0), "SELECT IFNULL(MAX(id), 0) FROM borrowers");
+            if (books == 0 || borrowers == 0) {
+                System.err.println(file + " has no books or borrowers; fill it with LibraryDataGenerator first");
+                System.exit(2);
+            }
+            System.out.printf("%d desks on %d pool(s) for %d s against %,d books and %,d borrowers, mix %s%n",
+                    desks, poolCount, seconds, books, borrowers, mix);
+
+            ZipfSampler bookRank = new ZipfSampler(books, LibraryDataGenerator.BOOK_SKEW);
+            ZipfSampler borrowerRank = new ZipfSampler(borrowers, LibraryDataGenerator.BORROWER_SKEW);
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            DeskStats total = new DeskStats();
+            long start = System.nanoTime();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<DeskStats>> results = new ArrayList<>();
+                for (int d = 0; d < desks; d++) {
+                    DatabaseUtil db = pools.get(d % poolCount);
+                    Random random = new Random(seed + d);
+                    results.add(executor.submit(() -> runDesk(db, random, mix, bookRank, borrowerRank,
+                            books, borrowers, deadline)));
+                }
+                for (Future<DeskStats> result : results) {
+                    total.add(result.get());
+                }
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            report(total, elapsed);
+
+            int doubleLoans = count(pools.get(0), "SELECT COUNT(*) FROM (SELECT book_id FROM borrow_records"
+                    + " WHERE return_date IS NULL GROUP BY book_id HAVING COUNT(*) > 1)");
+            int flagMismatches = count(pools.get(0), "SELECT COUNT(*) FROM books b WHERE b.is_borrowed <>"
+                    + " EXISTS (SELECT 1 FROM borrow_records r WHERE r.book_id = b.id AND r.return_date IS NULL)");
+            System.out.printf("double loans=%d is_borrowed mismatches=%d%n", doubleLoans, flagMismatches);
+            boolean consistent = doubleLoans == 0 && flagMismatches == 0;
+            System.out.println(consistent ? "PASS" : "FAIL");
+            if (!consistent) {
+                System.exit(1);
+            }
+        } finally {
+            for (DatabaseUtil pool : pools) {
+                pool.close();
+            }
+        }
+    }
+
+    private static DeskStats runDesk(DatabaseUtil db, Random random, Map<Operation, Integer> mix,
+                                     ZipfSampler bookRank, ZipfSampler borrowerRank, int books, int borrowers,
+                                     long deadline) {
+        DeskStats stats = new DeskStats();
+        CirculationService circulation = new CirculationService(db);
+        BookRepository bookRepository = new BookRepository(db);
+        BorrowRecordRepository borrowRecordRepository = new BorrowRecordRepository(db);
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        BookSort[] sorts = BookSort.values();
+
+        while (System.nanoTime() < deadline) {
+            Operation operation = pick(mix, totalWeight, random);
+            int bookId = LibraryDataGenerator.bookForRank(bookRank.sample(random), books);
+            int borrowerId = LibraryDataGenerator.borrowerForRank(borrowerRank.sample(random), borrowers);
+            Outcome outcome;
+            long t0 = 0;
+            try {
+                switch (operation) {
+                    case CHECKOUT -> {
+                        t0 = System.nanoTime();
+                        outcome = circulation.checkout(borrowerId, bookId).isSuccess() ? Outcome.OK : Outcome.REFUSED;
+                    }
+                    case RETURN -> {
+                        // The desk scans a returned book: find one that is out, untimed.
+                        // Starting from a popular title keeps the popular copies circulating.
+                        int[] loan = openLoanFrom(db, bookId);
+                        t0 = System.nanoTime();
+                        outcome = loan != null && circulation.returnBook(loan[0], loan[1]).isSuccess()
+                                ? Outcome.OK : Outcome.REFUSED;
+                    }
+                    case SEARCH -> {
+                        String word = LibraryDataGenerator.TITLE_WORDS[random.nextInt(LibraryDataGenerator.TITLE_WORDS.length)];
+                        String prefix = word.substring(0, Math.min(word.length(), 3 + random.nextInt(4)));
+                        t0 = System.nanoTime();
+                        bookRepository.search(prefix, 20);
+                        outcome = Outcome.OK;
+                    }
+                    case PAGE -> {
+                        BookSort sort = sorts[random.nextInt(sorts.length)];
+                        int offset = random.nextInt(50) * BookTableModel.PAGE_SIZE;
+                        t0 = System.nanoTime();
+                        bookRepository.findPage(sort, random.nextBoolean(), null, null, offset, BookTableModel.PAGE_SIZE);
+                        outcome = Outcome.OK;
+                    }
+                    default -> {
+                        t0 = System.nanoTime();
+                        borrowRecordRepository.findLoanHistory(borrowerId, Integer.MAX_VALUE, 50);
+                        outcome = Outcome.OK;
+                    }
+                }
+            } catch (SQLException e) {
+                if (DatabaseUtil.isBusy(e)) {
+                    outcome = Outcome.BUSY;
+                } else if (e.getMessage() != null && e.getMessage().startsWith("Timed out waiting")) {
+                    outcome = Outcome.TIMEOUT;
+                } else {
+                    outcome = Outcome.ERROR;
+                    e.printStackTrace();
+                }
+            }
+            if (t0 != 0) {
+                stats.latency.get(operation).record(System.nanoTime() - t0);
+            }
+            stats.outcomes.get(operation)[outcome.ordinal()]++;
+        }
+        return stats;
+    }
+
+    // First open loan on a book with ID >= fromId (wrapping around), as {bookId, borrowerId}
+    private static int[] openLoanFrom(DatabaseUtil db, int fromId) throws SQLException {
+        return db.read(c -> {
+            for (int start : new int[]{fromId, 1}) {
+                PreparedStatement ps = c.prepare("SELECT book_id, borrower_id FROM borrow_records"
+                        + " WHERE return_date IS NULL AND book_id >= ? ORDER BY book_id LIMIT 1");
+                ps.setInt(1, start);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        return new int[]{rs.getInt(1), rs.getInt(2)};
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private static Operation pick(Map<Operation, Integer> mix, int totalWeight, Random random) {
+        int roll = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private static Map<Operation, Integer> parseMix(String text) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : text.split(",")) {
+            String[] pair = part.split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix needs at least one positive weight");
+        }
+        return mix;
+    }
+
+    private static void report(DeskStats stats, double elapsed) {
+        System.out.printf("%n%-9s %10s %10s %9s %9s %9s %9s %9s %8s %6s %8s %6s%n", "operation", "count", "ops/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "refused", "busy", "timeout", "error");
+        long all = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = stats.latency.get(operation);
+            long[] outcomes = stats.outcomes.get(operation);
+            long count = 0;
+            for (long n : outcomes) {
+                count += n;
+            }
+            if (count == 0) {
+                continue;
+            }
+            all += count;
+            System.out.printf("%-9s %,10d %,10.0f", operation.name().toLowerCase(), count, count / elapsed);
+            for (double p : PERCENTILES) {
+                System.out.printf(" %9.2f", latency.percentile(p) / 1e6);
+            }
+            System.out.printf(" %,8d %,6d %,8d %,6d%n", outcomes[Outcome.REFUSED.ordinal()],
+                    outcomes[Outcome.BUSY.ordinal()], outcomes[Outcome.TIMEOUT.ordinal()], outcomes[Outcome.ERROR.ordinal()]);
+        }
+        System.out.printf("%-9s %,10d %,10.0f%n", "total", all, all / elapsed);
+
+        System.out.printf("%nLatency histogram (all operations)%n");
+        LatencyHistogram merged = new LatencyHistogram();
+        stats.latency.values().forEach(merged::add);
+        long previous = 0;
+        for (long bound = 100_000; ; bound *= 2) {
+            long upTo = merged.countAtOrBelow(bound);
+            long inBucket = upTo - previous;
+            if (inBucket > 0) {
+                int bar = (int) Math.round(60.0 * inBucket / Math.max(1, merged.getCount()));
+                System.out.printf("  <= %9.1f ms %,10d %s%n", bound / 1e6, inBucket, "#".repeat(bar));
+            }
+            previous = upTo;
+            if (upTo >= merged.getCount()) {
+                break;
+            }
+        }
+    }
+
+    private static int count(DatabaseUtil db, String sql) throws SQLException {
+        return db.read(c -> {
+            try (ResultSet rs = c.prepare(sql).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+}
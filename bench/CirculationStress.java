@@ -0,0 +1,164 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many desks checking out and returning a small set of books at once, one
+// at a time and in small stacks (checkoutBatch / returnBatch).
+// Desks are spread over several independent connection pools on the same
+// file, so they also contend on SQLite's own write lock, as separate desk
+// processes would. Afterwards the loan tables are checked for double loans,
+// for books whose is_borrowed flag disagrees with borrow_records, and for
+// circulation statistics that disagree with a recount.
+//
+// Usage: CirculationStress [desks] [pools] [books] [borrowers] [operationsPerDesk]
+public class CirculationStress {
+
+    public static void main(String[] args) throws Exception {
+        int desks = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int poolCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int books = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int borrowers = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int operations = args.length > 4 ? Integer.parseInt(args[4]) : 300;
+
+        File file = File.createTempFile("circulation-stress", ".db");
+        file.deleteOnExit();
+        List<DatabaseUtil> pools = new ArrayList<>();
+        try {
+            for (int i = 0; i < poolCount; i++) {
+                pools.add(new DatabaseUtil(file.getPath(), 2));
+            }
+            DatabaseUtil first = pools.get(0);
+            SchemaMigrator.migrate(first);
+            seed(first, books, borrowers);
+
+            AtomicInteger checkouts = new AtomicInteger();
+            AtomicInteger returns = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            long start = System.nanoTime();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int d = 0; d < desks; d++) {
+                    DatabaseUtil db = pools.get(d % poolCount);
+                    CirculationService circulation = new CirculationService(db);
+                    executor.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < operations; i++) {
+                            int bookId = 1 + random.nextInt(books);
+                            int roll = random.nextInt(10);
+                            try {
+                                List<CirculationResult> results = new ArrayList<>();
+                                if (roll < 4) {
+                                    results.add(circulation.checkout(1 + random.nextInt(borrowers), bookId));
+                                } else if (roll < 8) {
+                                    Integer borrowerId = currentBorrower(db, bookId);
+                                    results.add(borrowerId == null
+                                            ? CirculationResult.NOT_ON_LOAN
+                                            : circulation.returnBook(bookId, borrowerId));
+                                } else {
+                                    List<Integer> stack = new ArrayList<>();
+                                    for (int n = 1 + random.nextInt(5); n > 0; n--) {
+                                        stack.add(1 + random.nextInt(books));
+                                    }
+                                    results.addAll((roll == 8
+                                            ? circulation.checkoutBatch(1 + random.nextInt(borrowers), stack)
+                                            : circulation.returnBatch(stack)).values());
+                                }
+                                for (CirculationResult result : results) {
+                                    switch (result) {
+                                        case CHECKED_OUT -> checkouts.incrementAndGet();
+                                        case RETURNED -> returns.incrementAndGet();
+                                        default -> refused.incrementAndGet();
+                                    }
+                                }
+                            } catch (SQLException e) {
+                                errors.incrementAndGet();
+                                e.printStackTrace();
+                            }
+                        }
+                    });
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            int doubleLoans = count(first, "SELECT COUNT(*) FROM (SELECT book_id FROM borrow_records"
+                    + " WHERE return_date IS NULL GROUP BY book_id HAVING COUNT(*) > 1)");
+            int flagMismatches = count(first, "SELECT COUNT(*) FROM books b WHERE b.is_borrowed <>"
+                    + " EXISTS (SELECT 1 FROM borrow_records r WHERE r.book_id = b.id AND r.return_date IS NULL)");
+            int openLoans = count(first, "SELECT COUNT(*) FROM borrow_records WHERE return_date IS NULL");
+            // The running totals must match a full recount
+            int statsMismatches = count(first, "SELECT COUNT(*) FROM (SELECT book_id, COUNT(*) AS n,"
+                    + " SUM(return_date IS NULL) AS a FROM borrow_records GROUP BY book_id) r"
+                    + " LEFT JOIN book_loan_stats s ON s.book_id = r.book_id"
+                    + " WHERE s.loan_count IS NOT r.n OR s.active IS NOT r.a")
+                    + count(first, "SELECT COUNT(*) FROM (SELECT borrower_id, COUNT(*) AS n,"
+                    + " SUM(return_date IS NULL) AS a FROM borrow_records GROUP BY borrower_id) r"
+                    + " LEFT JOIN borrower_loan_stats s ON s.borrower_id = r.borrower_id"
+                    + " WHERE s.loan_count IS NOT r.n OR s.active IS NOT r.a")
+                    + count(first, "SELECT COUNT(*) FROM (SELECT SUM(loan_count) AS n, SUM(active) AS a"
+                    + " FROM genre_loan_stats) g WHERE g.n IS NOT (SELECT COUNT(*) FROM borrow_records)"
+                    + " OR g.a IS NOT " + openLoans);
+
+            System.out.printf("%d desks on %d pools, %d operations in %d ms (%.0f ops/s)%n",
+                    desks, poolCount, desks * operations, millis, desks * operations * 1000.0 / Math.max(1, millis));
+            System.out.printf("checkouts=%d returns=%d refused=%d errors=%d open loans=%d%n",
+                    checkouts.get(), returns.get(), refused.get(), errors.get(), openLoans);
+            System.out.printf("double loans=%d is_borrowed mismatches=%d statistics mismatches=%d%n",
+                    doubleLoans, flagMismatches, statsMismatches);
+
+            boolean consistent = doubleLoans == 0 && flagMismatches == 0 && statsMismatches == 0 && errors.get() == 0
+                    && checkouts.get() - returns.get() == openLoans;
+            System.out.println(consistent ? "PASS" : "FAIL");
+            if (!consistent) {
+                System.exit(1);
+            }
+        } finally {
+            for (DatabaseUtil pool : pools) {
+                pool.close();
+            }
+        }
+    }
+
+    private static void seed(DatabaseUtil db, int books, int borrowers) throws SQLException {
+        BookRepository bookRepository = new BookRepository(db);
+        for (int i = 1; i <= books; i++) {
+            bookRepository.insert("Book " + i, "Author " + (i % 5), "Genre");
+        }
+        db.transaction(c -> {
+            PreparedStatement ps = c.prepare("INSERT INTO borrowers (name, email) VALUES (?, ?)");
+            for (int i = 1; i <= borrowers; i++) {
+                ps.setString(1, "Borrower " + i);
+                ps.setString(2, "borrower" + i + "@example.com");
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    private static Integer currentBorrower(DatabaseUtil db, int bookId) throws SQLException {
+        return db.read(c -> {
+            PreparedStatement ps = c.prepare("SELECT borrower_id FROM borrow_records WHERE book_id = ? AND return_date IS NULL");
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        });
+    }
+
+    private static int count(DatabaseUtil db, String sql) throws SQLException {
+        return db.read(c -> {
+            try (ResultSet rs = c.prepare(sql).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+}
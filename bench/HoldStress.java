@@ -0,0 +1,250 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many desks checking out, returning, placing, cancelling, collecting and
+// expiring holds on a small set of books at once, over several independent
+// connection pools on the same file as in CirculationStress. While they run,
+// a checker reads snapshots and verifies the hold invariants at each one, so
+// a queue served out of order is caught even if it is fixed up later:
+//   - no book is on loan twice, or both on loan and set aside for a hold
+//   - is_borrowed is set exactly when a book is on loan or set aside
+//   - a book on the shelf has nobody waiting for it
+//   - at most one hold per book is READY, and it is older than every
+//     hold still waiting (holds are served in the order they were placed)
+//   - nobody holds a book they already have out
+//
+// Usage: HoldStress [desks] [pools] [books] [borrowers] [operationsPerDesk]
+public class HoldStress {
+    private static final int CHECK_INTERVAL_MILLIS = 5;
+    private static final Map<String, String> INVARIANTS = new LinkedHashMap<>();
+
+    static {
+        INVARIANTS.put("double loans", "SELECT COUNT(*) FROM (SELECT book_id FROM borrow_records"
+                + " WHERE return_date IS NULL GROUP BY book_id HAVING COUNT(*) > 1)");
+        INVARIANTS.put("loaned and set aside", "SELECT COUNT(*) FROM holds h JOIN borrow_records r"
+                + " ON r.book_id = h.book_id AND r.return_date IS NULL WHERE h.status = 'READY'");
+        INVARIANTS.put("is_borrowed mismatches", "SELECT COUNT(*) FROM books b WHERE b.is_borrowed <>"
+                + " (EXISTS (SELECT 1 FROM borrow_records r WHERE r.book_id = b.id AND r.return_date IS NULL)"
+                + " OR EXISTS (SELECT 1 FROM holds h WHERE h.book_id = b.id AND h.status = 'READY'))");
+        INVARIANTS.put("waiting on shelved books", "SELECT COUNT(*) FROM holds h JOIN books b ON b.id = h.book_id"
+                + " WHERE h.status = 'WAITING' AND b.is_borrowed = 0");
+        INVARIANTS.put("books with several ready holds", "SELECT COUNT(*) FROM (SELECT book_id FROM holds"
+                + " WHERE status = 'READY' GROUP BY book_id HAVING COUNT(*) > 1)");
+        INVARIANTS.put("holds served out of order", "SELECT COUNT(*) FROM holds r JOIN holds w"
+                + " ON w.book_id = r.book_id AND w.status = 'WAITING' AND w.id < r.id WHERE r.status = 'READY'");
+        INVARIANTS.put("holds on books already out to the holder", "SELECT COUNT(*) FROM holds h JOIN borrow_records r"
+                + " ON r.book_id = h.book_id AND r.borrower_id = h.borrower_id AND r.return_date IS NULL"
+                + " WHERE h.status IN ('WAITING', 'READY')");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int desks = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int poolCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int books = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int borrowers = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int operations = args.length > 4 ? Integer.parseInt(args[4]) : 300;
+
+        File file = File.createTempFile("hold-stress", ".db");
+        file.deleteOnExit();
+        List<DatabaseUtil> pools = new ArrayList<>();
+        try {
+            for (int i = 0; i < poolCount; i++) {
+                pools.add(new DatabaseUtil(file.getPath(), 2));
+            }
+            DatabaseUtil first = pools.get(0);
+            SchemaMigrator.migrate(first);
+            seed(first, books, borrowers);
+
+            AtomicInteger checkouts = new AtomicInteger();
+            AtomicInteger returns = new AtomicInteger();
+            AtomicInteger setAside = new AtomicInteger();
+            AtomicInteger placed = new AtomicInteger();
+            AtomicInteger cancelled = new AtomicInteger();
+            AtomicInteger expired = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            AtomicInteger snapshots = new AtomicInteger();
+            Map<String, Integer> violations = new LinkedHashMap<>();
+            AtomicBoolean running = new AtomicBoolean(true);
+            // Expiring as of this date clears every READY hold placed today
+            LocalDate expiryDay = LocalDate.now().plusDays(CirculationService.DEFAULT_HOLD_DAYS + 1);
+
+            // A platform thread: virtual threads are not time-sliced, so a
+            // checker that never blocks could starve the desks of carriers
+            Thread checker = Thread.ofPlatform().name("hold-checker").start(() -> {
+                try {
+                    while (running.get()) {
+                        check(first, violations);
+                        snapshots.incrementAndGet();
+                        Thread.sleep(CHECK_INTERVAL_MILLIS);
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    errors.incrementAndGet();
+                    e.printStackTrace();
+                }
+            });
+
+            long start = System.nanoTime();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> deskTasks = new ArrayList<>();
+                for (int d = 0; d < desks; d++) {
+                    DatabaseUtil db = pools.get(d % poolCount);
+                    CirculationService circulation = new CirculationService(db);
+                    deskTasks.add(executor.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < operations; i++) {
+                            int bookId = 1 + random.nextInt(books);
+                            int roll = random.nextInt(100);
+                            try {
+                                if (roll < 25) {
+                                    count(circulation.checkout(1 + random.nextInt(borrowers), bookId),
+                                            checkouts, returns, setAside, refused);
+                                } else if (roll < 50) {
+                                    Integer borrowerId = queryId(db, "SELECT borrower_id FROM borrow_records"
+                                            + " WHERE book_id = ? AND return_date IS NULL", bookId);
+                                    if (borrowerId == null) {
+                                        refused.incrementAndGet();
+                                    } else {
+                                        count(circulation.returnBook(bookId, borrowerId), checkouts, returns, setAside, refused);
+                                    }
+                                } else if (roll < 75) {
+                                    HoldResult result = circulation.placeHold(1 + random.nextInt(borrowers), bookId);
+                                    (result == HoldResult.PLACED ? placed : refused).incrementAndGet();
+                                } else if (roll < 83) {
+                                    Integer borrowerId = queryId(db, "SELECT borrower_id FROM holds"
+                                            + " WHERE book_id = ? AND status IN ('WAITING', 'READY') ORDER BY random() LIMIT 1", bookId);
+                                    HoldResult result = borrowerId == null
+                                            ? HoldResult.NOT_HELD : circulation.cancelHold(borrowerId, bookId);
+                                    (result == HoldResult.CANCELLED ? cancelled : refused).incrementAndGet();
+                                } else if (roll < 98) {
+                                    // The borrower the copy was set aside for comes to collect it
+                                    Integer borrowerId = queryId(db, "SELECT borrower_id FROM holds"
+                                            + " WHERE book_id = ? AND status = 'READY'", bookId);
+                                    if (borrowerId == null) {
+                                        refused.incrementAndGet();
+                                    } else {
+                                        count(circulation.checkout(borrowerId, bookId), checkouts, returns, setAside, refused);
+                                    }
+                                } else {
+                                    expired.addAndGet(circulation.expireHolds(expiryDay));
+                                }
+                            } catch (SQLException e) {
+                                errors.incrementAndGet();
+                                e.printStackTrace();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> task : deskTasks) {
+                    task.get();
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            running.set(false);
+            checker.join();
+            check(first, violations);
+
+            int openLoans = count(first, "SELECT COUNT(*) FROM borrow_records WHERE return_date IS NULL");
+            int openHolds = count(first, "SELECT COUNT(*) FROM holds WHERE status IN ('WAITING', 'READY')");
+            System.out.printf("%d desks on %d pools, %d operations in %d ms (%.0f ops/s), %d snapshots checked%n",
+                    desks, poolCount, desks * operations, millis, desks * operations * 1000.0 / Math.max(1, millis),
+                    snapshots.get());
+            System.out.printf("checkouts=%d returns=%d (set aside for a hold=%d) holds placed=%d cancelled=%d expired=%d"
+                            + " refused=%d errors=%d%n", checkouts.get(), returns.get(), setAside.get(), placed.get(),
+                    cancelled.get(), expired.get(), refused.get(), errors.get());
+            System.out.printf("open loans=%d open holds=%d%n", openLoans, openHolds);
+            violations.forEach((name, worst) -> System.out.printf("%s: %d%n", name, worst));
+
+            boolean consistent = violations.values().stream().allMatch(worst -> worst == 0) && errors.get() == 0
+                    && checkouts.get() - returns.get() == openLoans;
+            System.out.println(consistent ? "PASS" : "FAIL");
+            if (!consistent) {
+                System.exit(1);
+            }
+        } finally {
+            for (DatabaseUtil pool : pools) {
+                pool.close();
+            }
+        }
+    }
+
+    private static void count(CirculationResult result, AtomicInteger checkouts, AtomicInteger returns,
+                              AtomicInteger setAside, AtomicInteger refused) {
+        switch (result) {
+            case CHECKED_OUT -> checkouts.incrementAndGet();
+            case RETURNED -> returns.incrementAndGet();
+            case RETURNED_FOR_HOLD -> {
+                returns.incrementAndGet();
+                setAside.incrementAndGet();
+            }
+            default -> refused.incrementAndGet();
+        }
+    }
+
+    // Each invariant is a single statement, so it sees one consistent snapshot; keep the worst count seen
+    private static void check(DatabaseUtil db, Map<String, Integer> violations) throws SQLException {
+        Map<String, Integer> counts = db.read(c -> {
+            Map<String, Integer> found = new LinkedHashMap<>();
+            for (Map.Entry<String, String> invariant : INVARIANTS.entrySet()) {
+                try (ResultSet rs = c.prepare(invariant.getValue()).executeQuery()) {
+                    found.put(invariant.getKey(), rs.next() ? rs.getInt(1) : 0);
+                }
+            }
+            return found;
+        });
+        synchronized (violations) {
+            counts.forEach((name, found) -> violations.merge(name, found, Math::max));
+        }
+    }
+
+    private static void seed(DatabaseUtil db, int books, int borrowers) throws SQLException {
+        BookRepository bookRepository = new BookRepository(db);
+        for (int i = 1; i <= books; i++) {
+            bookRepository.insert("Book " + i, "Author " + (i % 5), "Genre");
+        }
+        db.transaction(c -> {
+            PreparedStatement ps = c.prepare("INSERT INTO borrowers (name, email) VALUES (?, ?)");
+            for (int i = 1; i <= borrowers; i++) {
+                ps.setString(1, "Borrower " + i);
+                ps.setString(2, "borrower" + i + "@example.com");
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    private static Integer queryId(DatabaseUtil db, String sql, int bookId) throws SQLException {
+        return db.read(c -> {
+            PreparedStatement ps = c.prepare(sql);
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        });
+    }
+
+    private static int count(DatabaseUtil db, String sql) throws SQLException {
+        return db.read(c -> {
+            try (ResultSet rs = c.prepare(sql).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+}
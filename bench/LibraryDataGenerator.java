@@ -0,0 +1,247 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+import com.example.library.bench.ZipfSampler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Random;
+
+// Fills a new library database with production-sized, skewed data. The same
+// seed always produces the same database.
+//  - authors: a few prolific authors write many books (Zipf)
+//  - books: popularity follows Zipf, so a few titles account for most loans;
+//    popular titles are spread over the ID range, not clustered at the start
+//  - borrowers: a few heavy borrowers account for many loans (Zipf)
+//  - borrow_records: three years of loans in date order, 1-28 days long;
+//    a book is never lent twice at once, loans not yet due are still open
+//    and books.is_borrowed matches them
+// Rows are written at schema version 5; the remaining migrations then build
+// the authors table and the search index in bulk.
+//
+// Usage: LibraryDataGenerator <new database file> [books] [borrowers] [loans] [seed]
+public class LibraryDataGenerator {
+    static final double BOOK_SKEW = 1.05;
+    static final double BORROWER_SKEW = 0.6;
+    private static final double AUTHOR_SKEW = 0.8;
+    private static final double GENRE_SKEW = 1.0;
+    private static final int HISTORY_DAYS = 3 * 365;
+    private static final int MAX_LOAN_DAYS = 28;
+    private static final int BATCH_SIZE = 10_000;
+    // Prime larger than any table size; multiplying by it permutes 0..n-1
+    private static final long SCATTER = 1_000_000_007L;
+
+    private static final String[] FIRST_NAMES = {
+            "Ada", "Alan", "Amara", "Anya", "Arjun", "Beatriz", "Boris", "Chen", "Chloe", "Dmitri",
+            "Elena", "Emeka", "Farah", "Felix", "Grace", "Hana", "Hugo", "Ines", "Isaac", "Jonas",
+            "Julia", "Kenji", "Leila", "Liam", "Lucia", "Mateo", "Maya", "Nadia", "Nikolai", "Noor",
+            "Olga", "Omar", "Priya", "Rafael", "Rosa", "Samir", "Sofia", "Tariq", "Thea", "Tomas",
+            "Uma", "Viktor", "Wei", "Yara", "Yusuf", "Zara", "Zoltan", "Aiko", "Bruno", "Camila"};
+    private static final String[] LAST_NAMES = {
+            "Abbott", "Bauer", "Castillo", "Dubois", "Eriksen", "Fischer", "Garcia", "Haddad", "Ivanova", "Jensen",
+            "Kowalski", "Larsen", "Moreau", "Nakamura", "Okafor", "Petrov", "Quinn", "Rossi", "Santos", "Tanaka",
+            "Usman", "Varga", "Weber", "Xu", "Yilmaz", "Zhang", "Almeida", "Brennan", "Costa", "Dalton",
+            "Esposito", "Ferreira", "Gruber", "Horvat", "Iqbal", "Jovanovic", "Kim", "Lindqvist", "Mensah", "Novak",
+            "Ortega", "Park", "Reyes", "Schmidt", "Torres", "Ueda", "Vogel", "Walsh", "Young", "Ziegler"};
+    static final String[] TITLE_WORDS = {
+            "River", "Shadow", "Garden", "Winter", "Empire", "Silence", "Harbor", "Mirror", "Lantern", "Orchard",
+            "Storm", "Kingdom", "Journey", "Secret", "Island", "Memory", "Forest", "Night", "Summer", "Glass",
+            "Mountain", "Letter", "Station", "Crown", "Voyage", "Library", "Machine", "Ocean", "Fire", "Stone"};
+    private static final String[] ADJECTIVES = {
+            "Silent", "Hidden", "Last", "Broken", "Golden", "Distant", "Forgotten", "Burning", "Quiet", "Endless",
+            "Northern", "Crimson", "Lost", "Secret", "Wild", "Hollow", "Bright", "Little", "Dark", "Second"};
+    private static final String[] GENRES = {
+            "Fiction", "Mystery", "Science Fiction", "Fantasy", "Biography", "History", "Romance", "Thriller",
+            "Children", "Poetry", "Science", "Travel", "Cooking", "Philosophy", "Art", "Religion", "Business",
+            "Health", "Horror", "Reference"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LibraryDataGenerator <new database file> [books] [borrowers] [loans] [seed]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        int books = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int borrowers = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(10, books / 10);
+        int loans = args.length > 3 ? Integer.parseInt(args[3]) : books * 3;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        generate(file, books, borrowers, loans, seed);
+    }
+
+    public static void generate(Path file, int books, int borrowers, int loans, long seed)
+            throws SQLException, IOException {
+        if (Files.exists(file)) {
+            throw new IOException(file + " already exists; the generator only writes new databases");
+        }
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+        try (DatabaseUtil db = new DatabaseUtil(file.toString(), 1)) {
+            SchemaMigrator.migrate(db, 5);
+            writeBooks(db, random, books);
+            writeBorrowers(db, random, borrowers);
+            int open = writeLoans(db, random, books, borrowers, loans);
+            System.out.printf("Wrote %,d books, %,d borrowers, %,d loans (%,d open); building indexes...%n",
+                    books, borrowers, loans, open);
+            SchemaMigrator.migrate(db);
+        }
+        System.out.printf("Generated %s in %.1f s%n", file, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Book ID of the rank-th most popular title (rank starts at 1)
+    static int bookForRank(int rank, int books) {
+        return scatter(rank, books);
+    }
+
+    // Borrower ID of the rank-th heaviest borrower (rank starts at 1)
+    static int borrowerForRank(int rank, int borrowers) {
+        return scatter(rank, borrowers);
+    }
+
+    private static int scatter(int rank, int n) {
+        return 1 + (int) ((rank - 1) * SCATTER % n);
+    }
+
+    private static void writeBooks(DatabaseUtil db, Random random, int books) throws SQLException {
+        int authors = Math.max(1, books / 8);
+        ZipfSampler authorRank = new ZipfSampler(authors, AUTHOR_SKEW);
+        ZipfSampler genreRank = new ZipfSampler(GENRES.length, GENRE_SKEW);
+        for (int from = 1; from <= books; from += BATCH_SIZE * 10) {
+            int first = from;
+            int last = Math.min(books, from + BATCH_SIZE * 10 - 1);
+            db.transaction(c -> {
+                PreparedStatement ps = c.prepare("INSERT INTO books (id, title, author, genre, is_borrowed) VALUES (?, ?, ?, ?, 0)");
+                for (int id = first; id <= last; id++) {
+                    ps.setInt(1, id);
+                    ps.setString(2, title(random));
+                    ps.setString(3, personName(scatter(authorRank.sample(random), authors)));
+                    ps.setString(4, GENRES[genreRank.sample(random) - 1]);
+                    ps.addBatch();
+                    if (id % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+                return null;
+            });
+        }
+    }
+
+    private static void writeBorrowers(DatabaseUtil db, Random random, int borrowers) throws SQLException {
+        db.transaction(c -> {
+            PreparedStatement ps = c.prepare("INSERT INTO borrowers (id, name, email) VALUES (?, ?, ?)");
+            for (int id = 1; id <= borrowers; id++) {
+                String name = personName(random.nextInt(FIRST_NAMES.length * LAST_NAMES.length));
+                ps.setInt(1, id);
+                ps.setString(2, name);
+                ps.setString(3, name.toLowerCase(Locale.ROOT).replace(' ', '.') + id + "@example.org");
+                ps.addBatch();
+                if (id % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            return null;
+        });
+    }
+
+    // Loans are generated day by day, so a book that is out is skipped until
+    // it comes back. Returns the number of loans still open today.
+    private static int writeLoans(DatabaseUtil db, Random random, int books, int borrowers, int loans)
+            throws SQLException {
+        ZipfSampler bookRank = new ZipfSampler(books, BOOK_SKEW);
+        ZipfSampler borrowerRank = new ZipfSampler(borrowers, BORROWER_SKEW);
+        long today = LocalDate.now().toEpochDay();
+        long firstDay = today - HISTORY_DAYS;
+        // Day each book comes back, relative to firstDay
+        int[] outUntil = new int[books + 1];
+        int[] open = {0};
+        int[] written = {0};
+        int[] skipped = {0};
+        while (written[0] < loans) {
+            db.transaction(c -> {
+                PreparedStatement ps = c.prepare(
+                        "INSERT INTO borrow_records (book_id, borrower_id, borrow_date, return_date) VALUES (?, ?, ?, ?)");
+                int batchEnd = Math.min(loans, written[0] + BATCH_SIZE * 10);
+                while (written[0] < batchEnd) {
+                    int i = written[0];
+                    // Spread loans evenly over the history, in date order
+                    int day = (int) ((long) i * HISTORY_DAYS / loans);
+                    int bookId = bookForRank(bookRank.sample(random), books);
+                    for (int tries = 0; outUntil[bookId] > day && tries < 8; tries++) {
+                        bookId = bookForRank(bookRank.sample(random), books);
+                    }
+                    // Everything popular is out; fall back to any copy on the shelf
+                    for (int tries = 0; outUntil[bookId] > day && tries < 32; tries++) {
+                        bookId = 1 + random.nextInt(books);
+                    }
+                    if (outUntil[bookId] > day) {
+                        written[0]++;
+                        skipped[0]++;
+                        continue;
+                    }
+                    int length = 1 + random.nextInt(MAX_LOAN_DAYS);
+                    outUntil[bookId] = day + length;
+                    ps.setInt(1, bookId);
+                    ps.setInt(2, borrowerForRank(borrowerRank.sample(random), borrowers));
+                    ps.setLong(3, firstDay + day);
+                    if (firstDay + day + length > today) {
+                        ps.setNull(4, Types.INTEGER);
+                        outUntil[bookId] = Integer.MAX_VALUE;
+                        open[0]++;
+                    } else {
+                        ps.setLong(4, firstDay + day + length);
+                    }
+                    ps.addBatch();
+                    written[0]++;
+                    if (written[0] % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+                return null;
+            });
+        }
+        db.write(c -> c.prepare("UPDATE books SET is_borrowed = 1 WHERE id IN "
+                + "(SELECT book_id FROM borrow_records WHERE return_date IS NULL)").executeUpdate());
+        if (skipped[0] > 0) {
+            System.out.printf("Skipped %,d loans: no copy was on the shelf%n", skipped[0]);
+        }
+        return open[0];
+    }
+
+    private static String title(Random random) {
+        String noun = TITLE_WORDS[random.nextInt(TITLE_WORDS.length)];
+        String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                return "The " + adjective + " " + noun;
+            case 1:
+                return noun + " of " + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)];
+            case 2:
+                return "A " + adjective + " " + noun + " " + (1 + random.nextInt(9));
+            default:
+                return adjective + " " + noun;
+        }
+    }
+
+    // A distinct name for every index: first and last name, then a middle
+    // initial, then a numeric suffix once those run out
+    private static String personName(int index) {
+        int combinations = FIRST_NAMES.length * LAST_NAMES.length;
+        String first = FIRST_NAMES[index % FIRST_NAMES.length];
+        String last = LAST_NAMES[index / FIRST_NAMES.length % LAST_NAMES.length];
+        int variant = index / combinations;
+        if (variant == 0) {
+            return first + " " + last;
+        }
+        char initial = (char) ('A' + (variant - 1) % 26);
+        int suffix = (variant - 1) / 26;
+        return first + " " + initial + ". " + last + (suffix == 0 ? "" : " " + (suffix + 1));
+    }
+}
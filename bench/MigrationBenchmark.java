@@ -0,0 +1,142 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+// Measures the borrower/author/loan lookups on a legacy (version 1) database,
+// then runs the schema migrations and measures the same lookups again.
+//
+// Usage: MigrationBenchmark [books] [borrowers] [borrowRecords] [iterations]
+public class MigrationBenchmark {
+    private static final String[] LOOKUPS = {
+            "SELECT id FROM borrowers WHERE email = ?",
+            "SELECT id, title, author, genre, is_borrowed FROM books WHERE author = ?",
+            "SELECT id, book_id, borrow_date, return_date FROM borrow_records WHERE borrower_id = ?"
+    };
+    private static final String[] NAMES = {"getBorrowerIdByEmail", "getBooksByAuthor", "getBorrowRecordsByBorrower"};
+
+    public static void main(String[] args) throws Exception {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int borrowers = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        int authors = Math.max(1, books / 10);
+
+        File file = File.createTempFile("migration-benchmark", ".db");
+        file.deleteOnExit();
+        try (DatabaseUtil db = new DatabaseUtil(file.getPath(), 1)) {
+            SchemaMigrator.migrate(db, 1);
+            populate(db, books, borrowers, records, authors);
+
+            double[][] before = measure(db, iterations, borrowers, authors);
+            long start = System.nanoTime();
+            SchemaMigrator.migrate(db);
+            long migrationMillis = (System.nanoTime() - start) / 1_000_000;
+            double[][] after = measure(db, iterations, borrowers, authors);
+
+            System.out.printf("%d books, %d borrowers, %d borrow records; migration took %d ms%n",
+                    books, borrowers, records, migrationMillis);
+            System.out.printf("%-28s %14s %14s %14s %14s%n", "lookup", "before p50 us", "before p99 us", "after p50 us", "after p99 us");
+            for (int i = 0; i < LOOKUPS.length; i++) {
+                System.out.printf("%-28s %14.1f %14.1f %14.1f %14.1f%n",
+                        NAMES[i], before[i][0], before[i][1], after[i][0], after[i][1]);
+            }
+        }
+    }
+
+    private static void populate(DatabaseUtil db, int books, int borrowers, int records, int authors) throws SQLException {
+        Random random = new Random(42);
+        db.transaction(c -> {
+            Connection connection = c.getConnection();
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO books (title, author, genre, is_borrowed) VALUES (?, ?, ?, 0)")) {
+                for (int i = 1; i <= books; i++) {
+                    ps.setString(1, "Title " + i);
+                    ps.setString(2, "Author " + random.nextInt(authors));
+                    ps.setString(3, "Genre " + random.nextInt(20));
+                    ps.addBatch();
+                    if (i % 10_000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO borrowers (name, email) VALUES (?, ?)")) {
+                for (int i = 1; i <= borrowers; i++) {
+                    ps.setString(1, "Borrower " + i);
+                    ps.setString(2, "borrower" + i + "@example.com");
+                    ps.addBatch();
+                    if (i % 10_000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            // Legacy rows: java.sql.Date values, which sqlite-jdbc stores as milliseconds
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO borrow_records (book_id, borrower_id, borrow_date, return_date) VALUES (?, ?, ?, ?)")) {
+                LocalDate today = LocalDate.now();
+                for (int i = 1; i <= records; i++) {
+                    LocalDate borrowed = today.minusDays(random.nextInt(3650));
+                    ps.setInt(1, 1 + random.nextInt(books));
+                    ps.setInt(2, 1 + random.nextInt(borrowers));
+                    ps.setDate(3, Date.valueOf(borrowed));
+                    ps.setDate(4, random.nextInt(10) == 0 ? null : Date.valueOf(borrowed.plusDays(14)));
+                    ps.addBatch();
+                    if (i % 10_000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    // Returns {p50, p99} in microseconds for each lookup
+    private static double[][] measure(DatabaseUtil db, int iterations, int borrowers, int authors) throws SQLException {
+        double[][] result = new double[LOOKUPS.length][];
+        for (int q = 0; q < LOOKUPS.length; q++) {
+            String sql = LOOKUPS[q];
+            int query = q;
+            Random random = new Random(7);
+            long[] samples = new long[iterations];
+            db.read(c -> {
+                for (int i = -iterations / 10; i < iterations; i++) {
+                    PreparedStatement ps = c.prepare(sql);
+                    int key = 1 + random.nextInt(query == 1 ? authors : borrowers);
+                    switch (query) {
+                        case 0 -> ps.setString(1, "borrower" + key + "@example.com");
+                        case 1 -> ps.setString(1, "Author " + (key - 1));
+                        default -> ps.setInt(1, key);
+                    }
+                    long start = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getInt(1);
+                        }
+                    }
+                    // Negative indexes are warm-up runs and are not recorded
+                    if (i >= 0) {
+                        samples[i] = System.nanoTime() - start;
+                    }
+                }
+                return null;
+            });
+            Arrays.sort(samples);
+            result[q] = new double[]{
+                    samples[iterations / 2] / 1000.0,
+                    samples[Math.min(iterations - 1, (int) (iterations * 0.99))] / 1000.0
+            };
+        }
+        return result;
+    }
+}
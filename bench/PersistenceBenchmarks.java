@@ -0,0 +1,371 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+import com.example.library.bench.Harness;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Throughput and latency of the persistence hot paths (book by ID, borrower
+// by email, borrower typeahead by name prefix, loans by borrower, the full book list, checkout and return, one
+// book at a time and as a stack of batchSize books in one transaction)
+// against generated databases of several sizes. Databases are generated once
+// into bench-data/ and reused; results go to bench-results.json in JMH's
+// JSON format.
+//
+// Usage: PersistenceBenchmarks [harness options, see Harness]
+//        -p rows=10000,1000000,10000000   database sizes (books)
+//        -p allBooksMaxRows=1000000       largest size getAllBooks runs on
+//        -p dataDir=bench-data            where generated databases are kept
+//        -p batchSize=25                  books per checkoutBatch/returnBatch call
+// e.g.   PersistenceBenchmarks -p rows=10000 -t 4 -b getBook
+public class PersistenceBenchmarks {
+    private static final int LOAN_DAYS = 14;
+    private static final int RING_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness(Harness.Options.parse(args));
+        Harness.Options options = harness.getOptions();
+        Path dataDir = Paths.get(options.param("dataDir", "bench-data").get(0));
+        long allBooksMaxRows = Long.parseLong(options.param("allBooksMaxRows", "1000000").get(0));
+        int batchSize = Integer.parseInt(options.param("batchSize", "25").get(0));
+
+        for (String rowsParam : options.param("rows", "10000", "1000000", "10000000")) {
+            int rows = Integer.parseInt(rowsParam);
+            Path file = generate(dataDir, rows);
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("rows", rowsParam);
+            try (DatabaseUtil db = new DatabaseUtil(file.toString())) {
+                int borrowers = borrowerCount(rows);
+                // The last borrower is reserved for checkout/return so reads see a stable data set
+                int deskBorrower = borrowers;
+                BookRepository books = new BookRepository(db);
+                BorrowerRepository borrowerRepository = new BorrowerRepository(db);
+                BorrowRecordRepository records = new BorrowRecordRepository(db);
+                CirculationService circulation = new CirculationService(db);
+
+                if (options.includes("getBookById")) {
+                    harness.run("PersistenceBenchmarks.getBookById", params,
+                            thread -> books.findById(1 + ThreadLocalRandom.current().nextInt(rows)));
+                }
+                if (options.includes("getBorrowerIdByEmail")) {
+                    harness.run("PersistenceBenchmarks.getBorrowerIdByEmail", params, thread ->
+                            borrowerRepository.findIdByEmail(email(1 + ThreadLocalRandom.current().nextInt(borrowers - 1))));
+                }
+                if (options.includes("searchBorrowers")) {
+                    // A lower-case prefix of a generated "Borrower <id>" name, one to four digits long
+                    harness.run("PersistenceBenchmarks.searchBorrowers", params, thread -> borrowerRepository.search(
+                            "borrower " + (1 + ThreadLocalRandom.current().nextInt(Math.min(borrowers, 9999))), 20));
+                }
+                if (options.includes("getBorrowRecordsByBorrower")) {
+                    harness.run("PersistenceBenchmarks.getBorrowRecordsByBorrower", params, thread ->
+                            records.findByBorrower(1 + ThreadLocalRandom.current().nextInt(borrowers - 1)));
+                }
+                if (options.includes("getAllBooks")) {
+                    if (rows <= allBooksMaxRows) {
+                        harness.run("PersistenceBenchmarks.getAllBooks", params, thread -> books.findAll());
+                    } else {
+                        System.out.printf("# getAllBooks skipped for %,d rows (raise -p allBooksMaxRows and the heap to run it)%n", rows);
+                    }
+                }
+                int threads = options.getThreads();
+                releaseDeskLoans(db, circulation, deskBorrower);
+                if (options.includes("checkout")) {
+                    Desk desk = new Desk(circulation, rows, threads, deskBorrower);
+                    harness.run("PersistenceBenchmarks.checkout", params, new Harness.Task() {
+                        @Override
+                        public void prepare(int thread) throws Exception {
+                            desk.next(thread, false);
+                        }
+
+                        @Override
+                        public void run(int thread) throws Exception {
+                            desk.checkout(thread);
+                        }
+                    });
+                    desk.returnAll();
+                }
+                if (options.includes("returnBook")) {
+                    Desk desk = new Desk(circulation, rows, threads, deskBorrower);
+                    harness.run("PersistenceBenchmarks.returnBook", params, new Harness.Task() {
+                        @Override
+                        public void prepare(int thread) throws Exception {
+                            desk.next(thread, true);
+                        }
+
+                        @Override
+                        public void run(int thread) throws Exception {
+                            desk.returnBook(thread);
+                        }
+                    });
+                    desk.returnAll();
+                }
+                Map<String, String> batchParams = new LinkedHashMap<>(params);
+                batchParams.put("batchSize", String.valueOf(batchSize));
+                if (options.includes("checkoutBatch")) {
+                    Desk desk = new Desk(circulation, rows, threads, deskBorrower);
+                    harness.run("PersistenceBenchmarks.checkoutBatch", batchParams, new Harness.Task() {
+                        @Override
+                        public void prepare(int thread) throws Exception {
+                            desk.nextBatch(thread, batchSize, false);
+                        }
+
+                        @Override
+                        public void run(int thread) throws Exception {
+                            desk.checkoutBatch(thread);
+                        }
+                    });
+                    desk.returnAll();
+                }
+                if (options.includes("returnBatch")) {
+                    Desk desk = new Desk(circulation, rows, threads, deskBorrower);
+                    harness.run("PersistenceBenchmarks.returnBatch", batchParams, new Harness.Task() {
+                        @Override
+                        public void prepare(int thread) throws Exception {
+                            desk.nextBatch(thread, batchSize, true);
+                        }
+
+                        @Override
+                        public void run(int thread) throws Exception {
+                            desk.returnBatch(thread);
+                        }
+                    });
+                    desk.returnAll();
+                }
+            }
+        }
+        harness.printSummary();
+        harness.writeJson();
+    }
+
+    // Each thread cycles through its own ring of available books. Before a
+    // timed checkout the next book is returned if needed, and before a timed
+    // return it is checked out, both outside the measurement.
+    private static final class Desk {
+        private final CirculationService circulation;
+        private final int borrowerId;
+        private final int[][] rings;
+        private final BitSet[] onLoan;
+        private final int[] position;
+        private final int[] current;
+        private final List<List<Integer>> batches = new ArrayList<>();
+
+        Desk(CirculationService circulation, int rows, int threads, int borrowerId) {
+            this.circulation = circulation;
+            this.borrowerId = borrowerId;
+            this.rings = new int[threads][];
+            this.onLoan = new BitSet[threads];
+            this.position = new int[threads];
+            this.current = new int[threads];
+            for (int t = 0; t < threads; t++) {
+                batches.add(new ArrayList<>());
+            }
+            int ringSize = Math.max(1, Math.min(RING_SIZE, rows / (2 * threads)));
+            int next = 1;
+            for (int t = 0; t < threads; t++) {
+                rings[t] = new int[ringSize];
+                onLoan[t] = new BitSet(ringSize);
+                for (int i = 0; i < ringSize; i++) {
+                    while (isOpenLoan(next)) {
+                        next++;
+                    }
+                    rings[t][i] = next++;
+                }
+            }
+        }
+
+        void next(int thread, boolean wantOnLoan) throws SQLException {
+            int slot = position[thread]++ % rings[thread].length;
+            current[thread] = slot;
+            if (onLoan[thread].get(slot) != wantOnLoan) {
+                CirculationResult result = wantOnLoan
+                        ? circulation.checkout(borrowerId, rings[thread][slot])
+                        : circulation.returnBook(rings[thread][slot], borrowerId);
+                check(result);
+                onLoan[thread].set(slot, wantOnLoan);
+            }
+        }
+
+        void checkout(int thread) throws SQLException {
+            int slot = current[thread];
+            check(circulation.checkout(borrowerId, rings[thread][slot]));
+            onLoan[thread].set(slot);
+        }
+
+        void returnBook(int thread) throws SQLException {
+            int slot = current[thread];
+            check(circulation.returnBook(rings[thread][slot], borrowerId));
+            onLoan[thread].clear(slot);
+        }
+
+        // The next `size` slots of the ring, as one stack of books
+        void nextBatch(int thread, int size, boolean wantOnLoan) throws SQLException {
+            List<Integer> batch = batches.get(thread);
+            batch.clear();
+            for (int i = 0; i < Math.min(size, rings[thread].length); i++) {
+                next(thread, wantOnLoan);
+                batch.add(current[thread]);
+            }
+        }
+
+        void checkoutBatch(int thread) throws SQLException {
+            List<Integer> slots = batches.get(thread);
+            Map<Integer, CirculationResult> results = circulation.checkoutBatch(borrowerId, bookIds(thread, slots));
+            results.values().forEach(Desk::check);
+            slots.forEach(onLoan[thread]::set);
+        }
+
+        void returnBatch(int thread) throws SQLException {
+            List<Integer> slots = batches.get(thread);
+            Map<Integer, CirculationResult> results = circulation.returnBatch(bookIds(thread, slots));
+            results.values().forEach(Desk::check);
+            slots.forEach(onLoan[thread]::clear);
+        }
+
+        private List<Integer> bookIds(int thread, List<Integer> slots) {
+            List<Integer> ids = new ArrayList<>(slots.size());
+            for (int slot : slots) {
+                ids.add(rings[thread][slot]);
+            }
+            return ids;
+        }
+
+        void returnAll() throws SQLException {
+            for (int t = 0; t < rings.length; t++) {
+                for (int slot = onLoan[t].nextSetBit(0); slot >= 0; slot = onLoan[t].nextSetBit(slot + 1)) {
+                    check(circulation.returnBook(rings[t][slot], borrowerId));
+                }
+                onLoan[t].clear();
+            }
+        }
+
+        private static void check(CirculationResult result) {
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("Unexpected circulation result " + result);
+            }
+        }
+    }
+
+    // Loans left open by an interrupted earlier run
+    private static void releaseDeskLoans(DatabaseUtil db, CirculationService circulation, int borrowerId)
+            throws SQLException {
+        List<Integer> bookIds = db.read(c -> {
+            PreparedStatement ps = c.prepare("SELECT book_id FROM borrow_records WHERE borrower_id = ? AND return_date IS NULL");
+            ps.setInt(1, borrowerId);
+            List<Integer> ids = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+            return ids;
+        });
+        for (int bookId : bookIds) {
+            circulation.returnBook(bookId, borrowerId);
+        }
+    }
+
+    private static int borrowerCount(int rows) {
+        return Math.max(100, rows / 10);
+    }
+
+    private static String email(int borrower) {
+        return "borrower" + borrower + "@example.com";
+    }
+
+    // Every twentieth book is on loan in the generated data
+    private static boolean isOpenLoan(int bookId) {
+        return bookId % 20 == 0;
+    }
+
+    // Generate library-<rows>.db unless it already exists: books, a tenth as
+    // many borrowers and one returned loan per book, plus an open loan for
+    // every twentieth book. Rows are loaded at schema version 5 and the rest
+    // of the migrations (search index, authors) then build their data in bulk.
+    private static Path generate(Path dataDir, int rows) throws SQLException, IOException {
+        Path file = dataDir.resolve("library-" + rows + ".db");
+        if (Files.exists(file)) {
+            return file;
+        }
+        Files.createDirectories(dataDir);
+        Path partial = dataDir.resolve("library-" + rows + ".db.partial");
+        Files.deleteIfExists(partial);
+        System.out.printf("# generating %s%n", file);
+        long start = System.nanoTime();
+        int borrowers = borrowerCount(rows);
+        int authors = Math.max(1, rows / 10);
+        Random random = new Random(rows);
+        long today = LocalDate.now().toEpochDay();
+        try (DatabaseUtil db = new DatabaseUtil(partial.toString(), 1)) {
+            SchemaMigrator.migrate(db, 5);
+            for (int from = 1; from <= rows; from += 100_000) {
+                int to = Math.min(rows, from + 99_999);
+                int first = from;
+                db.transaction(c -> {
+                    PreparedStatement book = c.prepare("INSERT INTO books (id, title, author, genre, is_borrowed) VALUES (?, ?, ?, ?, ?)");
+                    PreparedStatement loan = c.prepare("INSERT INTO borrow_records (book_id, borrower_id, borrow_date, return_date) VALUES (?, ?, ?, ?)");
+                    for (int id = first; id <= to; id++) {
+                        book.setInt(1, id);
+                        book.setString(2, "Title " + id);
+                        book.setString(3, "Author " + random.nextInt(authors));
+                        book.setString(4, "Genre " + random.nextInt(30));
+                        book.setBoolean(5, isOpenLoan(id));
+                        book.addBatch();
+                        long borrowed = today - 30 - random.nextInt(3650);
+                        loan.setInt(1, id);
+                        loan.setInt(2, 1 + random.nextInt(borrowers - 1));
+                        loan.setLong(3, borrowed);
+                        loan.setLong(4, borrowed + 1 + random.nextInt(LOAN_DAYS * 2));
+                        loan.addBatch();
+                        if (isOpenLoan(id)) {
+                            loan.setInt(1, id);
+                            loan.setInt(2, 1 + random.nextInt(borrowers - 1));
+                            loan.setLong(3, today - random.nextInt(LOAN_DAYS));
+                            loan.setNull(4, Types.INTEGER);
+                            loan.addBatch();
+                        }
+                        if (id % 10_000 == 0) {
+                            book.executeBatch();
+                            loan.executeBatch();
+                        }
+                    }
+                    book.executeBatch();
+                    loan.executeBatch();
+                    return null;
+                });
+            }
+            db.transaction(c -> {
+                PreparedStatement ps = c.prepare("INSERT INTO borrowers (id, name, email) VALUES (?, ?, ?)");
+                for (int id = 1; id <= borrowers; id++) {
+                    ps.setInt(1, id);
+                    ps.setString(2, "Borrower " + id);
+                    ps.setString(3, email(id));
+                    ps.addBatch();
+                    if (id % 10_000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+                return null;
+            });
+            SchemaMigrator.migrate(db);
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf("# generated %,d books in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+        return file;
+    }
+}
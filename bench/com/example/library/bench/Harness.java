@@ -0,0 +1,273 @@
+package com.example.library.bench;
+
+import com.example.library.JsonWriter;
+import com.example.library.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.regex.Pattern;
+
+// Minimal JMH-style runner: warmup and measurement iterations of fixed
+// length, any number of threads, throughput per iteration and a latency
+// histogram per benchmark. Results are printed as a table and written as
+// JMH-compatible JSON, so existing JMH tooling and release-to-release
+// comparisons can read them.
+//
+// Options: -wi <warmup iterations> -i <measurement iterations>
+//          -r <seconds per iteration> -t <threads> -b <benchmark regex>
+//          -p <param>=<v1>,<v2>... -rff <result file>
+public final class Harness {
+
+    // One benchmark body. prepare() runs before every invocation and is not
+    // timed; run() is the measured operation.
+    public interface Task {
+        default void prepare(int thread) throws Exception {
+        }
+
+        void run(int thread) throws Exception;
+    }
+
+    public static final class Options {
+        private int warmupIterations = 3;
+        private int measurementIterations = 5;
+        private long iterationMillis = 1000;
+        private int threads = 1;
+        private Pattern include = Pattern.compile(".*");
+        private Path resultFile = Paths.get("bench-results.json");
+        private final Map<String, List<String>> params = new LinkedHashMap<>();
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                if (value == null) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "-wi" -> options.warmupIterations = Integer.parseInt(value);
+                    case "-i" -> options.measurementIterations = Integer.parseInt(value);
+                    case "-r" -> options.iterationMillis = (long) (Double.parseDouble(value) * 1000);
+                    case "-t" -> options.threads = Integer.parseInt(value);
+                    case "-b" -> options.include = Pattern.compile(value);
+                    case "-rff" -> options.resultFile = Paths.get(value);
+                    case "-p" -> {
+                        int eq = value.indexOf('=');
+                        if (eq < 1) {
+                            throw new IllegalArgumentException("Expected -p name=value[,value...]: " + value);
+                        }
+                        options.params.put(value.substring(0, eq), Arrays.asList(value.substring(eq + 1).split(",")));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+                i++;
+            }
+            return options;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public boolean includes(String benchmark) {
+            return include.matcher(benchmark).find();
+        }
+
+        // Values given with -p name=..., or the defaults
+        public List<String> param(String name, String... defaults) {
+            return params.getOrDefault(name, Arrays.asList(defaults));
+        }
+    }
+
+    public static final class Result {
+        private final String benchmark;
+        private final Map<String, String> params;
+        private final int threads;
+        private final int warmupIterations;
+        private final long iterationMillis;
+        private final double[] throughput;
+        private final LatencyHistogram latency;
+
+        Result(String benchmark, Map<String, String> params, int threads, int warmupIterations, long iterationMillis,
+               double[] throughput, LatencyHistogram latency) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.threads = threads;
+            this.warmupIterations = warmupIterations;
+            this.iterationMillis = iterationMillis;
+            this.throughput = throughput;
+            this.latency = latency;
+        }
+
+        public double getScore() {
+            return Arrays.stream(throughput).average().orElse(0);
+        }
+
+        // Half-width of the 99.9% confidence interval (normal approximation)
+        public double getScoreError() {
+            if (throughput.length < 2) {
+                return Double.NaN;
+            }
+            double mean = getScore();
+            double variance = Arrays.stream(throughput).map(x -> (x - mean) * (x - mean)).sum() / (throughput.length - 1);
+            return 3.291 * Math.sqrt(variance / throughput.length);
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    private final Options options;
+    private final List<Result> results = new ArrayList<>();
+
+    public Harness(Options options) {
+        this.options = options;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public Result run(String benchmark, Map<String, String> params, Task task) throws Exception {
+        System.out.printf("# %s %s, %d thread(s)%n", benchmark, params, options.threads);
+        for (int i = 1; i <= options.warmupIterations; i++) {
+            double score = iteration(task, null);
+            System.out.printf("  warmup %d: %,.1f ops/s%n", i, score);
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        double[] throughput = new double[options.measurementIterations];
+        for (int i = 0; i < throughput.length; i++) {
+            throughput[i] = iteration(task, latency);
+            System.out.printf("  iteration %d: %,.1f ops/s%n", i + 1, throughput[i]);
+        }
+        Result result = new Result(benchmark, params, options.threads, options.warmupIterations,
+                options.iterationMillis, throughput, latency);
+        results.add(result);
+        return result;
+    }
+
+    private double iteration(Task task, LatencyHistogram into) throws Exception {
+        int threads = options.threads;
+        LatencyHistogram[] histograms = new LatencyHistogram[threads];
+        long[] operations = new long[threads];
+        Exception[] failure = new Exception[1];
+        CyclicBarrier start = new CyclicBarrier(threads);
+        long[] window = new long[2];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            histograms[t] = new LatencyHistogram();
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long begin = System.nanoTime();
+                    long deadline = begin + options.iterationMillis * 1_000_000;
+                    long now = begin;
+                    while (now < deadline) {
+                        task.prepare(thread);
+                        long t0 = System.nanoTime();
+                        task.run(thread);
+                        now = System.nanoTime();
+                        histograms[thread].record(now - t0);
+                        operations[thread]++;
+                    }
+                    synchronized (window) {
+                        window[0] = window[0] == 0 ? begin : Math.min(window[0], begin);
+                        window[1] = Math.max(window[1], now);
+                    }
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            total += operations[t];
+            if (into != null) {
+                into.add(histograms[t]);
+            }
+        }
+        return total * 1e9 / Math.max(1, window[1] - window[0]);
+    }
+
+    public void printSummary() {
+        System.out.printf("%n%-50s %-16s %14s %12s %10s %10s %10s%n",
+                "Benchmark", "Params", "ops/s", "error", "p50 us", "p99 us", "p99.9 us");
+        for (Result r : results) {
+            System.out.printf("%-50s %-16s %,14.1f %12s %10.1f %10.1f %10.1f%n",
+                    r.benchmark, r.params.toString(), r.getScore(),
+                    Double.isNaN(r.getScoreError()) ? "" : String.format("+- %,.1f", r.getScoreError()),
+                    r.latency.percentile(50) / 1e3, r.latency.percentile(99) / 1e3, r.latency.percentile(99.9) / 1e3);
+        }
+    }
+
+    // JMH's JSON result format, with latency percentiles as a secondary metric
+    public void writeJson() throws IOException {
+        Path file = options.resultFile;
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            JsonWriter json = new JsonWriter(out);
+            json.beginArray();
+            for (Result r : results) {
+                json.beginObject()
+                        .name("jmhVersion").value("harness")
+                        .name("benchmark").value(r.benchmark)
+                        .name("mode").value("thrpt")
+                        .name("threads").value(r.threads)
+                        .name("forks").value(0)
+                        .name("jvm").value(System.getProperty("java.home"))
+                        .name("jdkVersion").value(System.getProperty("java.version"))
+                        .name("vmName").value(System.getProperty("java.vm.name"))
+                        .name("warmupIterations").value(r.warmupIterations)
+                        .name("warmupTime").value(r.iterationMillis + " ms")
+                        .name("measurementIterations").value(r.throughput.length)
+                        .name("measurementTime").value(r.iterationMillis + " ms")
+                        .name("params").value(r.params);
+                json.name("primaryMetric").beginObject()
+                        .name("score").value(r.getScore())
+                        .name("scoreError").value(r.getScoreError())
+                        .name("scoreUnit").value("ops/s");
+                json.name("rawData").beginArray().beginArray();
+                for (double score : r.throughput) {
+                    json.value(score);
+                }
+                json.endArray().endArray();
+                json.endObject();
+                json.name("secondaryMetrics").beginObject()
+                        .name("latency").beginObject()
+                        .name("score").value(r.latency.getMean() / 1e3)
+                        .name("scoreUnit").value("us/op")
+                        .name("samples").value(r.latency.getCount())
+                        .name("scorePercentiles").beginObject();
+                for (double p : new double[]{0, 50, 90, 95, 99, 99.9, 99.99, 100}) {
+                    json.name(Double.toString(p)).value(r.latency.percentile(p) / 1e3);
+                }
+                json.endObject().endObject().endObject();
+                json.endObject();
+            }
+            json.endArray().newline();
+        }
+        System.out.println("Results written to " + file.toAbsolutePath());
+    }
+}
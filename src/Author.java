@@ -0,0 +1,24 @@
+public class Author {
+    private int id;
+    private String name;
+    private int bookCount;
+
+    public Author(int id, String name, int bookCount) {
+        this.id = id;
+        this.name = name;
+        this.bookCount = bookCount;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBookCount() {
+        return bookCount;
+    }
+}
@@ -0,0 +1,54 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Data access for the authors table. books.author_id points here, and
+// authors.book_count is kept current by triggers on books, so listing
+// authors never has to scan the catalogue.
+public class AuthorRepository {
+    private static final String SELECT_WITH_BOOKS =
+            "SELECT id, name, book_count FROM authors WHERE book_count > 0 ORDER BY name";
+    private static final String INSERT_IF_MISSING = "INSERT INTO authors (name) VALUES (?) ON CONFLICT (name) DO NOTHING";
+    private static final String SELECT_ID_BY_NAME = "SELECT id FROM authors WHERE name = ?";
+
+    private final DatabaseUtil db;
+
+    public AuthorRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Authors that have at least one book, with their book counts
+    public List<Author> findAllWithBooks() throws SQLException {
+        return db.read("authors.findAllWithBooks", c -> {
+            List<Author> authors = new ArrayList<>();
+            try (ResultSet rs = c.prepare(SELECT_WITH_BOOKS).executeQuery()) {
+                while (rs.next()) {
+                    authors.add(new Author(rs.getInt("id"), rs.getString("name"), rs.getInt("book_count")));
+                }
+            }
+            return authors;
+        });
+    }
+
+    // ID of the author with this name, adding the author if needed.
+    // Must run on the writer, inside the caller's transaction.
+    int resolveId(PooledConnection c, String name) throws SQLException {
+        PreparedStatement ps = c.prepare(INSERT_IF_MISSING);
+        ps.setString(1, name);
+        ps.executeUpdate();
+
+        ps = c.prepare(SELECT_ID_BY_NAME);
+        ps.setString(1, name);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Author was not stored: " + name);
+            }
+            return rs.getInt(1);
+        }
+    }
+}
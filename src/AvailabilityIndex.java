@@ -0,0 +1,281 @@
+import com.example.library.DatabaseUtil;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory copy of which books exist and which are on loan, as two bitsets
+// indexed by book ID (about 250 KB for a million books). It answers "which of
+// these IDs are available" and availability counts without touching the
+// database or creating Book objects.
+//
+// reload() reads the books table; after that the index is kept current by
+// BookRepository, CirculationService and CatalogImporter, which call the
+// book* methods from PooledConnection.afterCommit, i.e. in commit order.
+// Writes from other processes reach it through ChangeDispatcher, which
+// calls refresh() with the books they touched.
+// Changes that arrive while a reload is scanning are journaled and replayed
+// onto the new bitsets, so a reload never loses a concurrent checkout.
+public class AvailabilityIndex {
+    private static final String SELECT_ALL = "SELECT id, is_borrowed FROM books";
+    private static final String SELECT_ONE = "SELECT is_borrowed FROM books WHERE id = ?";
+    private static final int REMOVED = 0;
+    private static final int AVAILABLE = 1;
+    private static final int BORROWED = 2;
+
+    private final DatabaseUtil db;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private BitSet present = new BitSet();
+    private BitSet borrowed = new BitSet();
+    private int presentCount;
+    private int borrowedCount;
+    private boolean loaded;
+    // While a reload runs: changes as (id << 2 | state), in arrival order
+    private long[] journal;
+    private int journalSize;
+
+    public AvailabilityIndex(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // (Re)build the index from the books table
+    public void reload() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            journal = new long[64];
+            journalSize = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        BitSet newPresent = new BitSet();
+        BitSet newBorrowed = new BitSet();
+        try {
+            db.read("availability.reload", c -> {
+                try (ResultSet rs = c.prepare(SELECT_ALL).executeQuery()) {
+                    int rows = 0;
+                    while (rs.next()) {
+                        if ((++rows & 0xffff) == 0) {
+                            DatabaseUtil.checkInterrupted();
+                        }
+                        int id = rs.getInt(1);
+                        newPresent.set(id);
+                        if (rs.getBoolean(2)) {
+                            newBorrowed.set(id);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                journal = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < journalSize; i++) {
+                apply(newPresent, newBorrowed, (int) (journal[i] >>> 2), (int) (journal[i] & 3));
+            }
+            present = newPresent;
+            borrowed = newBorrowed;
+            presentCount = newPresent.cardinality();
+            borrowedCount = newBorrowed.cardinality();
+            loaded = true;
+        } finally {
+            // Even if the replay fails, later changes must stop being journaled
+            journal = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Re-read these books' current state. A checkout committed after the
+    // read may be briefly overwritten, but its own change log entry brings
+    // the book back here on the next delivery.
+    public void refresh(Collection<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        int[] states = db.read("availability.refresh", c -> {
+            PreparedStatement ps = c.prepare(SELECT_ONE);
+            int[] found = new int[ids.size()];
+            int i = 0;
+            for (int id : ids) {
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    found[i++] = !rs.next() ? REMOVED : rs.getBoolean(1) ? BORROWED : AVAILABLE;
+                }
+            }
+            return found;
+        });
+        int i = 0;
+        for (int id : ids) {
+            record(id, states[i++]);
+        }
+    }
+
+    // False until the first reload() has finished; until then nothing is known
+    public boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return loaded;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && present.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isAvailable(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && present.get(id) && !borrowed.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Borrowed flag for a book, or null if the index does not know the book
+    public Boolean isBorrowed(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && present.get(id) ? borrowed.get(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return presentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int availableCount() {
+        lock.readLock().lock();
+        try {
+            return presentCount - borrowedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int borrowedCount() {
+        lock.readLock().lock();
+        try {
+            return borrowedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The IDs from ids that exist and are not on loan, in the order given
+    public int[] filterAvailable(int[] ids) {
+        int[] available = new int[ids.length];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            for (int id : ids) {
+                if (id >= 0 && present.get(id) && !borrowed.get(id)) {
+                    available[count++] = id;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count == ids.length ? available : Arrays.copyOf(available, count);
+    }
+
+    public int countAvailable(int[] ids) {
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            for (int id : ids) {
+                if (id >= 0 && present.get(id) && !borrowed.get(id)) {
+                    count++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    // Up to limit available IDs greater than afterId, ascending; for paging
+    public int[] availableIds(int afterId, int limit) {
+        int[] ids = new int[limit];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            int id = present.nextSetBit(Math.max(0, afterId + 1));
+            while (id >= 0 && count < limit) {
+                if (!borrowed.get(id)) {
+                    ids[count++] = id;
+                }
+                id = id == Integer.MAX_VALUE ? -1 : present.nextSetBit(id + 1);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count == limit ? ids : Arrays.copyOf(ids, count);
+    }
+
+    public void bookAdded(int id, boolean isBorrowed) {
+        record(id, isBorrowed ? BORROWED : AVAILABLE);
+    }
+
+    public void bookRemoved(int id) {
+        record(id, REMOVED);
+    }
+
+    public void borrowedChanged(int id, boolean isBorrowed) {
+        record(id, isBorrowed ? BORROWED : AVAILABLE);
+    }
+
+    private void record(int id, int state) {
+        // No book has a negative ID, but a lookup for one still reports it missing
+        if (id < 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                if (journalSize == journal.length) {
+                    journal = Arrays.copyOf(journal, journalSize * 2);
+                }
+                journal[journalSize++] = (long) id << 2 | state;
+            }
+            boolean wasPresent = present.get(id);
+            boolean wasBorrowed = borrowed.get(id);
+            apply(present, borrowed, id, state);
+            presentCount += (present.get(id) ? 1 : 0) - (wasPresent ? 1 : 0);
+            borrowedCount += (borrowed.get(id) ? 1 : 0) - (wasBorrowed ? 1 : 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // States are absolute, so replaying a change the scan already saw is harmless
+    private static void apply(BitSet present, BitSet borrowed, int id, int state) {
+        present.set(id, state != REMOVED);
+        borrowed.set(id, state == BORROWED);
+    }
+}
@@ -34,4 +34,9 @@ public class Book {
     public boolean isBorrowed() {
         return isBorrowed;
     }
+
+    // Copy of this book with a different borrowed flag
+    public Book withBorrowed(boolean isBorrowed) {
+        return new Book(id, title, author, genre, isBorrowed);
+    }
 }
@@ -0,0 +1,196 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded in-memory cache of books by ID, least recently used first out.
+// Every write path (BookRepository and CirculationService) updates it after
+// its transaction commits, so a cached book never shows an out-of-date
+// is_borrowed flag. It only sees writes made through this process.
+//
+// A lookup that misses reads the database and then offers the row back with
+// putIfUnchanged. If any write touched the cache in the meantime the offer is
+// dropped, so a slow read cannot overwrite a newer write-through value.
+//
+// -Dlibrary.bookCache=false turns it off (for comparison benchmarks) and
+// -Dlibrary.bookCache.size sets the number of books kept.
+public class BookCache {
+    public static final String ENABLED_PROPERTY = "library.bookCache";
+    public static final String SIZE_PROPERTY = "library.bookCache.size";
+    public static final int DEFAULT_SIZE = 10_000;
+
+    private final int capacity;
+    private final Map<Integer, Book> books;
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean enabled;
+
+    public BookCache(int capacity, boolean enabled) {
+        this.capacity = capacity;
+        this.enabled = enabled && capacity > 0;
+        this.books = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Book> eldest) {
+                if (size() > BookCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Cache configured from the system properties above
+    public static BookCache fromSystemProperties() {
+        return new BookCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE),
+                !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY)));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Turning the cache off also empties it
+    public void setEnabled(boolean enabled) {
+        synchronized (books) {
+            this.enabled = enabled && capacity > 0;
+            books.clear();
+            version.incrementAndGet();
+        }
+    }
+
+    // Cached book, or null on a miss (or when the cache is off)
+    public Book get(int id) {
+        if (!enabled) {
+            return null;
+        }
+        Book book;
+        synchronized (books) {
+            book = books.get(id);
+        }
+        if (book != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return book;
+    }
+
+    // Take before reading the database on a miss; pass to putIfUnchanged
+    public long version() {
+        return version.get();
+    }
+
+    // Cache a row read from the database unless a write happened since
+    // version() was taken
+    public void putIfUnchanged(Book book, long readVersion) {
+        if (!enabled || book == null) {
+            return;
+        }
+        synchronized (books) {
+            if (version.get() == readVersion) {
+                books.put(book.getId(), book);
+            }
+        }
+    }
+
+    // Write-through after a committed insert or update
+    public void put(Book book) {
+        synchronized (books) {
+            version.incrementAndGet();
+            if (enabled) {
+                books.put(book.getId(), book);
+            }
+        }
+    }
+
+    // Write-through after a committed checkout or return. Only a cached
+    // entry is changed; an uncached book is read fresh on its next lookup.
+    public void updateBorrowed(int id, boolean isBorrowed) {
+        synchronized (books) {
+            version.incrementAndGet();
+            Book book = books.get(id);
+            if (book != null) {
+                books.put(id, book.withBorrowed(isBorrowed));
+            }
+        }
+    }
+
+    // Forget a book after it was deleted, or when its new state is unknown
+    public void invalidate(int id) {
+        synchronized (books) {
+            version.incrementAndGet();
+            books.remove(id);
+        }
+    }
+
+    public void clear() {
+        synchronized (books) {
+            version.incrementAndGet();
+            books.clear();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (books) {
+            size = books.size();
+        }
+        return new Stats(enabled, size, capacity, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    public static class Stats {
+        private final boolean enabled;
+        private final int size;
+        private final int capacity;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        Stats(boolean enabled, int size, int capacity, long hits, long misses, long evictions) {
+            this.enabled = enabled;
+            this.size = size;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("book cache %s: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                    enabled ? "on" : "off", size, capacity, hits, misses, getHitRate() * 100, evictions);
+        }
+    }
+}
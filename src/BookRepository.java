@@ -0,0 +1,336 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Data access for the books table. Queries run on pooled read-only
+// connections and writes on the single writer; each pooled connection keeps
+// its prepared statements for reuse, and every ResultSet is closed after use.
+// Lookups by ID go through a BookCache; every write here updates it and the
+// AvailabilityIndex once its transaction has committed.
+public class BookRepository {
+    private static final String SELECT_ALL = "SELECT id, title, author, genre, is_borrowed FROM books";
+    private static final String SELECT_BY_ID = SELECT_ALL + " WHERE id = ?";
+    private static final String SELECT_BY_AUTHOR_ID = SELECT_ALL + " WHERE author_id = ?";
+    // FTS5 ranks every match and keeps the best `limit`, so only those are
+    // joined to books. The best matches are always found, but a term in
+    // nearly every row costs a full ranking pass: about 0.85 s for "title*"
+    // on a million generated books, against under 1 ms for a specific title.
+    // That is fine for an explicit search; search as you type uses SUGGEST.
+    private static final String SEARCH =
+            "SELECT b.id, b.title, b.author, b.genre, b.is_borrowed, f.rank"
+                    + " FROM (SELECT rowid AS id, rank FROM books_fts WHERE books_fts MATCH ? ORDER BY rank LIMIT ?) f"
+                    + " JOIN books b ON b.id = f.id ORDER BY f.rank";
+    // As-you-type search only ranks the first SUGGEST_CANDIDATES matches in
+    // rowid order. When there are fewer matches than that, the result is the
+    // same as SEARCH. A broad prefix costs about as much as a specific title.
+    private static final String SUGGEST =
+            "SELECT b.id, b.title, b.author, b.genre, b.is_borrowed, f.rank"
+                    + " FROM (SELECT rowid AS id, rank FROM books_fts WHERE books_fts MATCH ? LIMIT ?) f"
+                    + " JOIN books b ON b.id = f.id ORDER BY f.rank LIMIT ?";
+    private static final int SUGGEST_CANDIDATES = 1000;
+    private static final String COUNT = "SELECT COUNT(*) FROM books";
+    private static final String INSERT =
+            "INSERT INTO books (title, author, author_id, genre, is_borrowed) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE =
+            "UPDATE books SET title = ?, author = ?, author_id = ?, genre = ? WHERE id = ?";
+    private static final String DELETE_BORROW_RECORDS = "DELETE FROM borrow_records WHERE book_id = ?";
+    private static final String DELETE_ARCHIVED_RECORDS = "DELETE FROM borrow_records_archive WHERE book_id = ?";
+    private static final String DELETE_LOAN_NOTICES = "DELETE FROM loan_notices WHERE book_id = ?";
+    private static final String DELETE_HOLDS = "DELETE FROM holds WHERE book_id = ?";
+    private static final String EXISTS = "SELECT 1 FROM books WHERE id = ?";
+    private static final String DELETE = "DELETE FROM books WHERE id = ?";
+    private static final String LAST_INSERT_ID = "SELECT last_insert_rowid()";
+
+    private final DatabaseUtil db;
+    private final AuthorRepository authorRepository;
+    private final StatisticsRepository statistics;
+    private final BookCache cache;
+    private final AvailabilityIndex availability;
+
+    public BookRepository(DatabaseUtil db) {
+        this(db, new BookCache(0, false), new AvailabilityIndex(db));
+    }
+
+    public BookRepository(DatabaseUtil db, BookCache cache, AvailabilityIndex availability) {
+        this.db = db;
+        this.authorRepository = new AuthorRepository(db);
+        this.statistics = new StatisticsRepository(db);
+        this.cache = cache;
+        this.availability = availability;
+    }
+
+    // Get all books from the database
+    public List<Book> findAll() throws SQLException {
+        return db.read("books.findAll", c -> queryBooks(c.prepare(SELECT_ALL)));
+    }
+
+    // Get a specific book by its ID, or null if there is none
+    public Book findById(int id) throws SQLException {
+        Book cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long version = cache.version();
+        Book book = db.read("books.findById", c -> findById(c, id));
+        cache.putIfUnchanged(book, version);
+        return book;
+    }
+
+    // Same lookup on a connection the caller already holds
+    Book findById(PooledConnection c, int id) throws SQLException {
+        PreparedStatement ps = c.prepare(SELECT_BY_ID);
+        ps.setInt(1, id);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? mapBook(rs) : null;
+        }
+    }
+
+    // Number of books in the catalogue
+    public int count() throws SQLException {
+        return db.read("books.count", c -> {
+            try (ResultSet rs = c.prepare(COUNT).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    // One window of the catalogue in the given order. Without an anchor the
+    // window starts `offset` rows from the top; with one it starts `offset`
+    // rows after the row whose (sort key, id) is (anchorKey, anchorId), so the
+    // index seeks straight to it instead of skipping every earlier row. The
+    // keyset condition is spelled out rather than written as a row value,
+    // which SQLite cannot turn into a range on the expression index for genre.
+    public List<Book> findPage(BookSort sort, boolean ascending, Object anchorKey, Integer anchorId,
+                               int offset, int limit) throws SQLException {
+        String direction = ascending ? "ASC" : "DESC";
+        StringBuilder sql = new StringBuilder(SELECT_ALL);
+        if (anchorId != null) {
+            String comparison = ascending ? " > " : " < ";
+            if (sort == BookSort.ID) {
+                sql.append(" WHERE id").append(comparison).append("?");
+            } else {
+                String key = sort.getExpression();
+                sql.append(" WHERE ").append(key).append(ascending ? " >= " : " <= ").append("?")
+                        .append(" AND (").append(key).append(comparison).append("? OR id").append(comparison).append("?)");
+            }
+        }
+        if (sort != BookSort.ID) {
+            sql.append(" ORDER BY ").append(sort.getExpression()).append(' ').append(direction).append(", id ").append(direction);
+        } else {
+            sql.append(" ORDER BY id ").append(direction);
+        }
+        sql.append(" LIMIT ? OFFSET ?");
+
+        return db.read("books.findPage", c -> {
+            PreparedStatement ps = c.prepare(sql.toString());
+            int index = 1;
+            if (anchorId != null) {
+                if (sort != BookSort.ID) {
+                    ps.setObject(index++, anchorKey);
+                    ps.setObject(index++, anchorKey);
+                }
+                ps.setInt(index++, anchorId);
+            }
+            ps.setInt(index++, limit);
+            ps.setInt(index, offset);
+            return queryBooks(ps);
+        });
+    }
+
+    // Best-ranked books whose title, author or genre match the search text.
+    // See BookSearchQuery for the accepted syntax.
+    public List<Book> search(String text, int limit) throws SQLException {
+        String match = BookSearchQuery.toMatchExpression(text);
+        if (match.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return db.read("books.search", c -> {
+            PreparedStatement ps = c.prepare(SEARCH);
+            ps.setString(1, match);
+            ps.setInt(2, limit);
+            return queryBooks(ps);
+        });
+    }
+
+    // The same search with each book's rank, for merging with other branches
+    public List<CatalogueHit> searchRanked(String text, int limit) throws SQLException {
+        String match = BookSearchQuery.toMatchExpression(text);
+        if (match.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return db.read("books.searchRanked", c -> {
+            PreparedStatement ps = c.prepare(SEARCH);
+            ps.setString(1, match);
+            ps.setInt(2, limit);
+            return queryHits(ps);
+        });
+    }
+
+    // Quick matches while the user is still typing, best first among a
+    // bounded set of candidates. Empty until a word is long enough to narrow
+    // the catalogue (see BookSearchQuery.canSuggest).
+    public List<Book> suggest(String text, int limit) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        for (CatalogueHit hit : suggestRanked(text, limit)) {
+            books.add(hit.getBook());
+        }
+        return books;
+    }
+
+    // The same suggestions with each book's rank, for merging with other branches
+    public List<CatalogueHit> suggestRanked(String text, int limit) throws SQLException {
+        if (!BookSearchQuery.canSuggest(text)) {
+            return new ArrayList<>();
+        }
+        String match = BookSearchQuery.toMatchExpression(text);
+        return db.read("books.suggest", c -> {
+            PreparedStatement ps = c.prepare(SUGGEST);
+            ps.setString(1, match);
+            ps.setInt(2, SUGGEST_CANDIDATES);
+            ps.setInt(3, limit);
+            return queryHits(ps);
+        });
+    }
+
+    // Get books written by the author with this ID
+    public List<Book> findByAuthorId(int authorId) throws SQLException {
+        return db.read("books.findByAuthorId", c -> {
+            PreparedStatement ps = c.prepare(SELECT_BY_AUTHOR_ID);
+            ps.setInt(1, authorId);
+            return queryBooks(ps);
+        });
+    }
+
+    // The author is looked up (or added) in the same transaction as the book.
+    // A new book is always on the shelf; only CirculationService lends it out.
+    // Returns the new book's ID.
+    public int insert(String title, String author, String genre) throws SQLException {
+        return db.transaction("books.insert", c -> {
+            PreparedStatement ps = c.prepare(INSERT);
+            ps.setString(1, title);
+            ps.setString(2, author);
+            ps.setInt(3, authorRepository.resolveId(c, author));
+            ps.setString(4, genre);
+            ps.setBoolean(5, false);
+            ps.executeUpdate();
+            int id;
+            try (ResultSet rs = c.prepare(LAST_INSERT_ID).executeQuery()) {
+                rs.next();
+                id = rs.getInt(1);
+            }
+            c.afterCommit(() -> availability.bookAdded(id, false));
+            return id;
+        });
+    }
+
+    // Change a book's title, author and genre; whether it is on loan is left
+    // to CirculationService. Returns true if a book with this ID existed.
+    public boolean update(int id, String title, String author, String genre) throws SQLException {
+        try {
+            return db.transaction("books.update", c -> {
+                // Checked first, so a missing book adds no author and leaves the loan totals alone
+                PreparedStatement exists = c.prepare(EXISTS);
+                exists.setInt(1, id);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (!rs.next()) {
+                        c.afterCommit(() -> cache.invalidate(id));
+                        return false;
+                    }
+                }
+                // The genre may change; its loan totals follow the book
+                statistics.bookLeavingGenre(c, id);
+                PreparedStatement ps = c.prepare(UPDATE);
+                ps.setString(1, title);
+                ps.setString(2, author);
+                ps.setInt(3, authorRepository.resolveId(c, author));
+                ps.setString(4, genre);
+                ps.setInt(5, id);
+                // The next read picks up the new details with the current loan state
+                c.afterCommit(() -> cache.invalidate(id));
+                ps.executeUpdate();
+                statistics.bookJoiningGenre(c, id);
+                return true;
+            });
+        } catch (SQLException | RuntimeException e) {
+            // The commit may or may not have happened
+            cache.invalidate(id);
+            throw e;
+        }
+    }
+
+    // Delete a book together with its borrow records, notices, holds and
+    // loan totals in one transaction.
+    // Returns false (and changes nothing) if the book does not exist.
+    public boolean delete(int id) throws SQLException {
+        try {
+            return db.transaction("books.delete", c -> {
+                // Checked first, so a missing book leaves the loan totals alone
+                PreparedStatement ps = c.prepare(EXISTS);
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        c.afterCommit(() -> cache.invalidate(id));
+                        return false;
+                    }
+                }
+                c.afterCommit(() -> {
+                    cache.invalidate(id);
+                    availability.bookRemoved(id);
+                });
+                // Needs the book's genre and loans, so before either is gone
+                statistics.bookDeleted(c, id);
+                ps = c.prepare(DELETE);
+                ps.setInt(1, id);
+                ps.executeUpdate();
+
+                for (String sql : new String[]{DELETE_BORROW_RECORDS, DELETE_ARCHIVED_RECORDS, DELETE_LOAN_NOTICES, DELETE_HOLDS}) {
+                    ps = c.prepare(sql);
+                    ps.setInt(1, id);
+                    ps.executeUpdate();
+                }
+                return true;
+            });
+        } catch (SQLException | RuntimeException e) {
+            cache.invalidate(id);
+            throw e;
+        }
+    }
+
+    private List<Book> queryBooks(PreparedStatement ps) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if ((books.size() & 1023) == 0) {
+                    DatabaseUtil.checkInterrupted();
+                }
+                books.add(mapBook(rs));
+            }
+        }
+        return books;
+    }
+
+    private static List<CatalogueHit> queryHits(PreparedStatement ps) throws SQLException {
+        List<CatalogueHit> hits = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                hits.add(new CatalogueHit(null, mapBook(rs), rs.getDouble("rank")));
+            }
+        }
+        return hits;
+    }
+
+    static Book mapBook(ResultSet rs) throws SQLException {
+        return new Book(
+                rs.getInt("id"),
+                rs.getString("title"),
+                rs.getString("author"),
+                rs.getString("genre"),
+                rs.getBoolean("is_borrowed")
+        );
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns what a user types into the search box into an FTS5 MATCH expression.
+// Words become prefix terms ("harr pott" finds "Harry Potter"), text inside
+// double quotes is matched as an exact phrase, and all terms must match.
+// FTS5 operators typed by the user are treated as plain words.
+public final class BookSearchQuery {
+    // Shortest word that starts an as-you-type search; shorter prefixes
+    // match too much of the catalogue to be worth a query per keystroke
+    public static final int MIN_SUGGEST_LENGTH = 3;
+
+    private BookSearchQuery() {
+    }
+
+    // True if the text has a word of at least MIN_SUGGEST_LENGTH characters
+    public static boolean canSuggest(String text) {
+        if (text == null) {
+            return false;
+        }
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            run = Character.isLetterOrDigit(text.charAt(i)) ? run + 1 : 0;
+            if (run >= MIN_SUGGEST_LENGTH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String toMatchExpression(String text) {
+        if (text == null) {
+            return "";
+        }
+        List<String> terms = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inPhrase = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '"') {
+                addTerm(terms, word, inPhrase);
+                inPhrase = !inPhrase;
+            } else if (!inPhrase && !Character.isLetterOrDigit(ch)) {
+                addTerm(terms, word, false);
+            } else {
+                word.append(ch);
+            }
+        }
+        addTerm(terms, word, inPhrase);
+        return String.join(" ", terms);
+    }
+
+    private static void addTerm(List<String> terms, StringBuilder word, boolean phrase) {
+        String term = word.toString().trim();
+        word.setLength(0);
+        if (term.isEmpty()) {
+            return;
+        }
+        String quoted = "\"" + term.replace("\"", "\"\"") + "\"";
+        terms.add(phrase ? quoted : quoted + "*");
+    }
+}
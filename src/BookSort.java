@@ -0,0 +1,34 @@
+// Catalogue columns the book table can be sorted by on the database side.
+// Each has an index, and every sort is tie-broken by id so that
+// (sort key, id) identifies a row for keyset pagination.
+public enum BookSort {
+    ID("id"),
+    TITLE("title"),
+    AUTHOR("author"),
+    GENRE("IFNULL(genre, '')");
+
+    private final String expression;
+
+    BookSort(String expression) {
+        this.expression = expression;
+    }
+
+    // SQL expression that matches the index for this column
+    public String getExpression() {
+        return expression;
+    }
+
+    // Sort key of a book, as the database compares it
+    public Object keyOf(Book book) {
+        switch (this) {
+            case TITLE:
+                return book.getTitle();
+            case AUTHOR:
+                return book.getAuthor();
+            case GENRE:
+                return book.getGenre() == null ? "" : book.getGenre();
+            default:
+                return book.getId();
+        }
+    }
+}
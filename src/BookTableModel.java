@@ -0,0 +1,330 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+// Table model for the book catalogue that never holds the whole table.
+// Rows are fetched a page at a time, in the background, when the JTable asks
+// for them. Only the most recently used pages stay in memory. The first and
+// last row of every page loaded so far are kept as anchors, and a page is
+// found by keyset from the nearest anchor before or after it, or from the top
+// or bottom of the table, whichever leaves the fewest rows to skip. A jump into
+// a region not visited yet can still skip up to half the table from the nearer
+// end; the pages around it then seek from the anchors it leaves.
+//
+// Requests are started in batches a few milliseconds apart, and only for
+// pages near the one asked for last, so dragging the scroll bar across the
+// table does not queue a read for every page it passes. Reads for pages left
+// behind are cancelled. All state is touched on the Event Dispatch Thread only.
+//
+// applyChanges() keeps an open table current from the change log: an
+// updated book on a loaded page is re-read and redrawn in place, while an
+// insert or delete, which shifts every row after it, re-reads the row count
+// and drops the loaded pages so only the visible ones are fetched again.
+public class BookTableModel extends AbstractTableModel {
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_CACHED_PAGES = 64;
+    private static final int MAX_ANCHORS = 4096;
+    // Pages further than this from the last one asked for are not loaded
+    private static final int NEARBY_PAGES = 2;
+    private static final int LOAD_DELAY_MILLIS = 30;
+    private static final String[] COLUMN_NAMES = {"ID", "Title", "Author", "Genre", "Is Borrowed"};
+    private static final BookSort[] COLUMN_SORTS = {BookSort.ID, BookSort.TITLE, BookSort.AUTHOR, BookSort.GENRE, null};
+
+    private final LibraryService service;
+    private final Map<Integer, List<Book>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Book>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    // Row -> book at that row, the first and last of each page loaded, kept
+    // after the page itself is evicted
+    private final TreeMap<Integer, Book> anchors = new TreeMap<>();
+    // Pages asked for but not started yet, and reads still running
+    private final Set<Integer> pending = new LinkedHashSet<>();
+    private final Map<Integer, CompletableFuture<List<Book>>> loading = new HashMap<>();
+    private final Timer loadTimer = new Timer(LOAD_DELAY_MILLIS, e -> startLoads());
+    private int lastRequested;
+    private int rowCount;
+    private BookSort sort = BookSort.ID;
+    private boolean ascending = true;
+    // Bumped whenever the sort order or contents change, so late pages are dropped
+    private int generation;
+
+    public BookTableModel(LibraryService service) {
+        this.service = service;
+        loadTimer.setRepeats(false);
+    }
+
+    // Re-read the row count and drop every cached page
+    public void refresh() {
+        int expected = ++generation;
+        pages.clear();
+        anchors.clear();
+        cancelLoads();
+        service.countBooks().whenComplete((count, error) -> SwingUtilities.invokeLater(() -> {
+            if (expected != generation) {
+                return;
+            }
+            if (error != null) {
+                error.printStackTrace();
+                return;
+            }
+            rowCount = count;
+            fireTableDataChanged();
+        }));
+    }
+
+    // Call on the Event Dispatch Thread with each batch from ChangeDispatcher
+    public void applyChanges(List<Change> changes) {
+        for (Change change : changes) {
+            if (change.getTable() == Change.Table.BOOKS && change.getOp() != Change.Op.UPDATE) {
+                refresh();
+                return;
+            }
+        }
+        Set<Integer> changed = Change.rowIds(changes, Change.Table.BOOKS);
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Integer, List<Book>> page : pages.entrySet()) {
+            List<Book> books = page.getValue();
+            for (int index = 0; index < books.size(); index++) {
+                if (changed.contains(books.get(index).getId())) {
+                    reloadRow(page.getKey(), index, books.get(index));
+                }
+            }
+        }
+    }
+
+    // Sort by a column on the database side; choosing the same column again flips the direction.
+    // Returns false for columns that cannot be sorted.
+    public boolean sortByColumn(int column) {
+        BookSort requested = COLUMN_SORTS[column];
+        if (requested == null) {
+            return false;
+        }
+        ascending = requested != sort || !ascending;
+        sort = requested;
+        generation++;
+        pages.clear();
+        anchors.clear();
+        cancelLoads();
+        fireTableDataChanged();
+        return true;
+    }
+
+    public BookSort getSort() {
+        return sort;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    // The book shown in a row, or null while its page is still loading
+    public Book getBookAt(int row) {
+        int page = row / PAGE_SIZE;
+        List<Book> books = pages.get(page);
+        if (books == null) {
+            requestPage(page);
+            return null;
+        }
+        int index = row % PAGE_SIZE;
+        return index < books.size() ? books.get(index) : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case 0:
+                return Integer.class;
+            case 4:
+                return Boolean.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = getBookAt(row);
+        if (book == null) {
+            return column == 1 ? "Loading..." : null;
+        }
+        switch (column) {
+            case 0:
+                return book.getId();
+            case 1:
+                return book.getTitle();
+            case 2:
+                return book.getAuthor();
+            case 3:
+                return book.getGenre();
+            default:
+                // The availability index follows checkouts made since the page was read
+                Boolean borrowed = service.getAvailability().isBorrowed(book.getId());
+                return borrowed != null ? borrowed : book.isBorrowed();
+        }
+    }
+
+    private void requestPage(int page) {
+        lastRequested = page;
+        if (!loading.containsKey(page) && pending.add(page) && !loadTimer.isRunning()) {
+            loadTimer.start();
+        }
+    }
+
+    // Start the pages still near the one asked for last, and cancel reads for
+    // pages scrolled past while they waited; a cancelled page is asked for
+    // again if it comes back into view
+    private void startLoads() {
+        for (var it = loading.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, CompletableFuture<List<Book>>> load = it.next();
+            if (!isNearby(load.getKey())) {
+                load.getValue().cancel(true);
+                it.remove();
+            }
+        }
+        for (int page : pending) {
+            if (isNearby(page) && !pages.containsKey(page)) {
+                loadPage(page);
+            }
+        }
+        pending.clear();
+    }
+
+    private boolean isNearby(int page) {
+        return Math.abs(page - lastRequested) <= NEARBY_PAGES;
+    }
+
+    private void cancelLoads() {
+        loadTimer.stop();
+        pending.clear();
+        loading.values().forEach(load -> load.cancel(true));
+        loading.clear();
+    }
+
+    private void loadPage(int page) {
+        int expected = generation;
+        int first = page * PAGE_SIZE;
+        int end = Math.min(rowCount, first + PAGE_SIZE);
+
+        // Forward from the nearest anchor above, or from the top
+        Map.Entry<Integer, Book> above = anchors.lowerEntry(first);
+        int forwardSkip = above == null ? first : first - above.getKey() - 1;
+        // Backward from the nearest anchor below, or from the bottom, in reverse order
+        Map.Entry<Integer, Book> below = end > first ? anchors.ceilingEntry(end) : null;
+        int backwardSkip = below == null ? rowCount - end : below.getKey() - end;
+        boolean backward = end > first && backwardSkip < forwardSkip;
+
+        Map.Entry<Integer, Book> anchor = backward ? below : above;
+        Object anchorKey = anchor == null ? null : sort.keyOf(anchor.getValue());
+        Integer anchorId = anchor == null ? null : anchor.getValue().getId();
+        CompletableFuture<List<Book>> load = backward
+                ? service.bookPage(sort, !ascending, anchorKey, anchorId, backwardSkip, end - first)
+                : service.bookPage(sort, ascending, anchorKey, anchorId, forwardSkip, PAGE_SIZE);
+        loading.put(page, load);
+
+        load.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            // Dropped after a sort or refresh, or cancelled as scrolled past
+            if (expected != generation || loading.get(page) != load) {
+                return;
+            }
+            loading.remove(page);
+            if (error != null) {
+                if (!(error instanceof CancellationException || error.getCause() instanceof CancellationException)) {
+                    error.printStackTrace();
+                }
+                return;
+            }
+            List<Book> books = result;
+            if (backward) {
+                books = new ArrayList<>(result);
+                Collections.reverse(books);
+            }
+            pages.put(page, books);
+            if (!books.isEmpty()) {
+                rememberAnchor(first, books.get(0));
+                rememberAnchor(first + books.size() - 1, books.get(books.size() - 1));
+            }
+            int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+            if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        }));
+    }
+
+    // A book whose sort key changed belongs somewhere else in the order, so
+    // that, like a book deleted meanwhile, falls back to refresh()
+    private void reloadRow(int page, int index, Book shown) {
+        int expected = generation;
+        service.getBook(shown.getId()).whenComplete((book, error) -> SwingUtilities.invokeLater(() -> {
+            if (expected != generation) {
+                return;
+            }
+            if (error != null) {
+                error.printStackTrace();
+                return;
+            }
+            List<Book> books = pages.get(page);
+            if (books == null || index >= books.size() || books.get(index).getId() != shown.getId()) {
+                return;
+            }
+            if (book == null || !Objects.equals(sort.keyOf(book), sort.keyOf(shown))) {
+                refresh();
+                return;
+            }
+            List<Book> updated = new ArrayList<>(books);
+            updated.set(index, book);
+            pages.put(page, updated);
+            int row = page * PAGE_SIZE + index;
+            if (row < rowCount) {
+                fireTableRowsUpdated(row, row);
+            }
+        }));
+    }
+
+    // Anchors cost a few bytes each; past the cap every other one is dropped,
+    // which leaves about a page between the anchors that remain, so a seek
+    // from them skips at most a page or two more than before.
+    private void rememberAnchor(int row, Book book) {
+        anchors.put(row, book);
+        if (anchors.size() > MAX_ANCHORS) {
+            boolean drop = false;
+            for (var it = anchors.keySet().iterator(); it.hasNext(); ) {
+                int key = it.next();
+                if (drop && key != row) {
+                    it.remove();
+                }
+                drop = !drop;
+            }
+        }
+    }
+}
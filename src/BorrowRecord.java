@@ -6,14 +6,16 @@ public class BorrowRecord {
     private int borrowerId;
     private LocalDate borrowDate;
     private LocalDate returnDate;
+    private LocalDate dueDate;
 
     // Constructor with int for bookId, borrowerId, etc.
-    public BorrowRecord(int id, int bookId, int borrowerId, LocalDate borrowDate, LocalDate returnDate) {
+    public BorrowRecord(int id, int bookId, int borrowerId, LocalDate borrowDate, LocalDate returnDate, LocalDate dueDate) {
         this.id = id;
         this.bookId = bookId;
         this.borrowerId = borrowerId;
         this.borrowDate = borrowDate;
         this.returnDate = returnDate;
+        this.dueDate = dueDate;
     }
 
     public int getBookId() {
@@ -27,4 +29,9 @@ public class BorrowRecord {
     public LocalDate getReturnDate() {
         return returnDate;
     }
+
+    // Null for loans returned before due dates were recorded
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
 }
@@ -0,0 +1,199 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Data access for the borrow_records table. Dates are stored as epoch days.
+// Loans returned long ago are moved to borrow_records_archive by
+// LoanArchiver; history reads span both tables, while everything to do with
+// open loans reads only borrow_records.
+public class BorrowRecordRepository {
+    private static final String SELECT_BY_BORROWER =
+            "SELECT id, book_id, borrow_date, return_date, due_date FROM borrow_records WHERE borrower_id = ?1"
+                    + " UNION ALL SELECT id, book_id, borrow_date, return_date, due_date FROM borrow_records_archive"
+                    + " WHERE borrower_id = ?1";
+    // Newest first, resuming below the last record ID already shown. Each
+    // table gives its own newest `limit` rows off its (borrower_id, id) index,
+    // and only the merged page is joined to books.
+    private static final String SELECT_HISTORY_PAGE =
+            "SELECT r.id, r.book_id, b.title, b.author, r.borrow_date, r.return_date, r.due_date FROM ("
+                    + "SELECT * FROM (SELECT id, book_id, borrow_date, return_date, due_date FROM borrow_records"
+                    + " WHERE borrower_id = ?1 AND id < ?2 ORDER BY id DESC LIMIT ?3)"
+                    + " UNION ALL SELECT * FROM (SELECT id, book_id, borrow_date, return_date, due_date"
+                    + " FROM borrow_records_archive WHERE borrower_id = ?1 AND id < ?2 ORDER BY id DESC LIMIT ?3)"
+                    + ") r CROSS JOIN books b ON b.id = r.book_id"
+                    + " ORDER BY r.id DESC LIMIT ?3";
+    // Open loans due before a date, oldest first, straight off the partial due-date index
+    private static final String SELECT_OVERDUE =
+            "SELECT r.id, r.book_id, b.title, r.borrower_id, p.name, p.email, r.borrow_date, r.due_date"
+                    + " FROM borrow_records r CROSS JOIN books b ON b.id = r.book_id"
+                    + " CROSS JOIN borrowers p ON p.id = r.borrower_id"
+                    + " WHERE r.return_date IS NULL AND r.due_date < ?"
+                    + " ORDER BY r.due_date, r.id LIMIT ?";
+    private static final String COUNT_OVERDUE =
+            "SELECT COUNT(*) FROM borrow_records WHERE return_date IS NULL AND due_date < ?";
+    private static final String INSERT =
+            "INSERT INTO borrow_records (borrower_id, book_id, borrow_date, due_date) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_OPEN_LOAN =
+            "SELECT 1 FROM borrow_records WHERE book_id = ? AND borrower_id = ? AND return_date IS NULL";
+    private static final String MARK_RETURNED =
+            "UPDATE borrow_records SET return_date = ? WHERE book_id = ? AND borrower_id = ? AND return_date IS NULL";
+
+    private final DatabaseUtil db;
+
+    public BorrowRecordRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Get every borrow record (returned or not) for one borrower
+    public List<BorrowRecord> findByBorrower(int borrowerId) throws SQLException {
+        return db.read("borrowRecords.findByBorrower", c -> {
+            List<BorrowRecord> records = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_BY_BORROWER);
+            ps.setInt(1, borrowerId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    int bookId = rs.getInt("book_id");
+                    LocalDate borrowDate = LocalDate.ofEpochDay(rs.getLong("borrow_date"));
+                    LocalDate returnDate = epochDay(rs, "return_date");
+                    LocalDate dueDate = epochDay(rs, "due_date");
+
+                    records.add(new BorrowRecord(id, bookId, borrowerId, borrowDate, returnDate, dueDate));
+                }
+            }
+            return records;
+        });
+    }
+
+    // One page of a borrower's loan history with book details, filled by a
+    // single joined query. Pass Integer.MAX_VALUE as beforeRecordId for the
+    // first page and the last entry's record ID for each following page.
+    public List<LoanHistoryEntry> findLoanHistory(int borrowerId, int beforeRecordId, int limit) throws SQLException {
+        return db.read("borrowRecords.findLoanHistory", c -> {
+            List<LoanHistoryEntry> entries = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_HISTORY_PAGE);
+            ps.setInt(1, borrowerId);
+            ps.setInt(2, beforeRecordId);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new LoanHistoryEntry(
+                            rs.getInt("id"),
+                            rs.getInt("book_id"),
+                            rs.getString("title"),
+                            rs.getString("author"),
+                            LocalDate.ofEpochDay(rs.getLong("borrow_date")),
+                            epochDay(rs, "return_date"),
+                            epochDay(rs, "due_date")
+                    ));
+                }
+            }
+            return entries;
+        });
+    }
+
+    // Loans still out that were due before asOf, most overdue first
+    public List<OverdueLoan> findOverdue(LocalDate asOf, int limit) throws SQLException {
+        return db.read("borrowRecords.findOverdue", c -> {
+            List<OverdueLoan> loans = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_OVERDUE);
+            ps.setLong(1, asOf.toEpochDay());
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    LocalDate dueDate = LocalDate.ofEpochDay(rs.getLong("due_date"));
+                    loans.add(new OverdueLoan(
+                            rs.getInt("id"),
+                            rs.getInt("book_id"),
+                            rs.getString("title"),
+                            rs.getInt("borrower_id"),
+                            rs.getString("name"),
+                            rs.getString("email"),
+                            LocalDate.ofEpochDay(rs.getLong("borrow_date")),
+                            dueDate,
+                            (int) (asOf.toEpochDay() - dueDate.toEpochDay())
+                    ));
+                }
+            }
+            return loans;
+        });
+    }
+
+    public int countOverdue(LocalDate asOf) throws SQLException {
+        return db.read("borrowRecords.countOverdue", c -> {
+            PreparedStatement ps = c.prepare(COUNT_OVERDUE);
+            ps.setLong(1, asOf.toEpochDay());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    // Loans are written by CirculationService, inside its transactions
+    int insert(PooledConnection c, int borrowerId, int bookId, LocalDate borrowDate, LocalDate dueDate)
+            throws SQLException {
+        PreparedStatement ps = c.prepare(INSERT);
+        ps.setInt(1, borrowerId);
+        ps.setInt(2, bookId);
+        ps.setLong(3, borrowDate.toEpochDay());
+        ps.setLong(4, dueDate.toEpochDay());
+        return ps.executeUpdate();
+    }
+
+    // One loan per book to the same borrower, as a single batch
+    int[] insertAll(PooledConnection c, int borrowerId, List<Integer> bookIds, LocalDate borrowDate,
+                    LocalDate dueDate) throws SQLException {
+        PreparedStatement ps = c.prepare(INSERT);
+        for (int bookId : bookIds) {
+            ps.setInt(1, borrowerId);
+            ps.setInt(2, bookId);
+            ps.setLong(3, borrowDate.toEpochDay());
+            ps.setLong(4, dueDate.toEpochDay());
+            ps.addBatch();
+        }
+        return ps.executeBatch();
+    }
+
+    // Whether this borrower has this book out now
+    boolean isOnLoan(PooledConnection c, int bookId, int borrowerId) throws SQLException {
+        PreparedStatement ps = c.prepare(SELECT_OPEN_LOAN);
+        ps.setInt(1, bookId);
+        ps.setInt(2, borrowerId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    // Close the open loan of this book by this borrower
+    int markReturned(PooledConnection c, int bookId, int borrowerId, LocalDate returnDate) throws SQLException {
+        PreparedStatement ps = c.prepare(MARK_RETURNED);
+        ps.setLong(1, returnDate.toEpochDay());
+        ps.setInt(2, bookId);
+        ps.setInt(3, borrowerId);
+        return ps.executeUpdate();
+    }
+
+    // Close several open loans as a single batch; loans maps book ID to borrower ID
+    int[] markAllReturned(PooledConnection c, Map<Integer, Integer> loans, LocalDate returnDate) throws SQLException {
+        PreparedStatement ps = c.prepare(MARK_RETURNED);
+        for (Map.Entry<Integer, Integer> loan : loans.entrySet()) {
+            ps.setLong(1, returnDate.toEpochDay());
+            ps.setInt(2, loan.getKey());
+            ps.setInt(3, loan.getValue());
+            ps.addBatch();
+        }
+        return ps.executeBatch();
+    }
+
+    private static LocalDate epochDay(ResultSet rs, String column) throws SQLException {
+        long day = rs.getLong(column);
+        return rs.wasNull() ? null : LocalDate.ofEpochDay(day);
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.Locale;
+
 public class Borrower {
     private int id;
     private String name;
@@ -9,6 +11,15 @@ public class Borrower {
         this.email = email;
     }
 
+    // Emails are stored trimmed and lower-cased, so lookups and the unique
+    // index ignore case; a blank email is stored as NULL
+    public static String normalizeEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
     // Getters
     public int getId() {
         return id;
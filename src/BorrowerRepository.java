@@ -0,0 +1,175 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Data access for the borrowers table. Emails are stored normalized (see
+// Borrower.normalizeEmail) under a unique index, and names are indexed
+// case-insensitively, so lookups and prefix searches are index range scans
+// however many borrowers there are.
+public class BorrowerRepository {
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private static final String SELECT_ALL = "SELECT id, name, email FROM borrowers ORDER BY id";
+    private static final String SELECT_BY_ID = "SELECT id, name, email FROM borrowers WHERE id = ?";
+    private static final String SELECT_ID_BY_EMAIL = "SELECT id FROM borrowers WHERE email = ?";
+    // Prefix matches as ranges [prefix, successor of prefix) on idx_borrowers_name and idx_borrowers_email
+    private static final String SELECT_BY_NAME_PREFIX =
+            "SELECT id, name, email FROM borrowers WHERE name COLLATE NOCASE >= ? AND name COLLATE NOCASE < ?"
+                    + " ORDER BY name COLLATE NOCASE, id LIMIT ?";
+    private static final String SELECT_BY_EMAIL_PREFIX =
+            "SELECT id, name, email FROM borrowers WHERE email >= ? AND email < ? ORDER BY email LIMIT ?";
+    private static final String INSERT = "INSERT INTO borrowers (name, email) VALUES (?, ?)";
+    private static final String LAST_INSERT_ID = "SELECT last_insert_rowid()";
+
+    private final DatabaseUtil db;
+
+    public BorrowerRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Get all borrowers from the database
+    public List<Borrower> findAll() throws SQLException {
+        return db.read("borrowers.findAll", c -> {
+            List<Borrower> borrowers = new ArrayList<>();
+            try (ResultSet rs = c.prepare(SELECT_ALL).executeQuery()) {
+                while (rs.next()) {
+                    if ((borrowers.size() & 1023) == 0) {
+                        DatabaseUtil.checkInterrupted();
+                    }
+                    borrowers.add(new Borrower(
+                            rs.getInt("id"),
+                            rs.getString("name"),
+                            rs.getString("email")
+                    ));
+                }
+            }
+            return borrowers;
+        });
+    }
+
+    // The borrowers that still exist among ids, by ID, read in one go
+    public Map<Integer, Borrower> findByIds(Collection<Integer> ids) throws SQLException {
+        return db.read("borrowers.findByIds", c -> {
+            Map<Integer, Borrower> borrowers = new HashMap<>();
+            PreparedStatement ps = c.prepare(SELECT_BY_ID);
+            for (int id : ids) {
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        borrowers.put(id, new Borrower(rs.getInt("id"), rs.getString("name"), rs.getString("email")));
+                    }
+                }
+            }
+            return borrowers;
+        });
+    }
+
+    // Borrowers whose name or email starts with prefix, ignoring case: name
+    // matches in name order, then email matches, at most limit in all
+    public List<Borrower> search(String prefix, int limit) throws SQLException {
+        String text = prefix == null ? "" : prefix.trim();
+        if (text.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        // NOCASE only folds ASCII letters, so the name bounds must do the same
+        String name = asciiLowerCase(text);
+        String email = Borrower.normalizeEmail(text);
+        return db.read("borrowers.search", c -> {
+            Map<Integer, Borrower> found = new LinkedHashMap<>();
+            readPrefix(c.prepare(SELECT_BY_NAME_PREFIX), name, limit, found);
+            if (found.size() < limit) {
+                readPrefix(c.prepare(SELECT_BY_EMAIL_PREFIX), email, limit, found);
+            }
+            return List.copyOf(found.values());
+        });
+    }
+
+    // Returns the borrower ID for this email, in any case, or null if nobody uses it
+    public Integer findIdByEmail(String email) throws SQLException {
+        String normalized = Borrower.normalizeEmail(email);
+        if (normalized == null) {
+            return null;
+        }
+        return db.read("borrowers.findIdByEmail", c -> findIdByEmail(c, normalized));
+    }
+
+    // Register a borrower and return their new ID. An email already on file,
+    // in any case, is refused with a constraint violation naming its owner.
+    public int insert(String name, String email) throws SQLException {
+        String trimmedName = name == null ? "" : name.trim();
+        String normalized = Borrower.normalizeEmail(email);
+        if (trimmedName.isEmpty()) {
+            throw new IllegalArgumentException("A borrower needs a name");
+        }
+        if (normalized == null || normalized.indexOf('@') <= 0) {
+            throw new IllegalArgumentException("Not an email address: " + (email == null ? "" : email.trim()));
+        }
+        // The writer is exclusive, so nobody can take the email between the
+        // check and the insert; the unique index still guards other processes
+        return db.write("borrowers.insert", c -> {
+            Integer existing = findIdByEmail(c, normalized);
+            if (existing != null) {
+                throw new SQLException(normalized + " is already registered to borrower " + existing,
+                        "23000", SQLITE_CONSTRAINT);
+            }
+            PreparedStatement ps = c.prepare(INSERT);
+            ps.setString(1, trimmedName);
+            ps.setString(2, normalized);
+            ps.executeUpdate();
+            try (ResultSet rs = c.prepare(LAST_INSERT_ID).executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    private static Integer findIdByEmail(PooledConnection c, String normalized) throws SQLException {
+        PreparedStatement ps = c.prepare(SELECT_ID_BY_EMAIL);
+        ps.setString(1, normalized);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt("id") : null;
+        }
+    }
+
+    private static void readPrefix(PreparedStatement ps, String prefix, int limit, Map<Integer, Borrower> found)
+            throws SQLException {
+        ps.setString(1, prefix);
+        ps.setString(2, successor(prefix));
+        ps.setInt(3, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next() && found.size() < limit) {
+                found.putIfAbsent(rs.getInt("id"), new Borrower(rs.getInt("id"), rs.getString("name"), rs.getString("email")));
+            }
+        }
+    }
+
+    // The smallest string greater than every string that starts with prefix
+    private static String successor(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return prefix + Character.MAX_VALUE;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    private static String asciiLowerCase(String text) {
+        StringBuilder lower = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            lower.append(ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch);
+        }
+        return lower.toString();
+    }
+}
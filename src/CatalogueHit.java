@@ -0,0 +1,34 @@
+// A book found by a full-text search, with its rank (bm25; lower is a better
+// match). The branch is null as read from one database. LibraryBranches fills
+// it in and rescales the rank against that branch's best hit, since bm25
+// scores from different catalogues are not comparable.
+public class CatalogueHit {
+    private final String branch;
+    private final Book book;
+    private final double rank;
+
+    public CatalogueHit(String branch, Book book, double rank) {
+        this.branch = branch;
+        this.book = book;
+        this.rank = rank;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    // Copy of this hit attributed to a branch, with its rank divided by the
+    // size of the branch's best rank: -1 for that branch's best match, rising
+    // towards 0 for weaker ones
+    public CatalogueHit withBranch(String branch, double bestRank) {
+        return new CatalogueHit(branch, book, bestRank < 0 ? rank / -bestRank : rank);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// One committed write from the change log: which row of which table was
+// inserted, updated or deleted. Only the key is logged; subscribers read
+// the row's current state if they need it.
+public class Change {
+    public enum Table {
+        BOOKS,
+        BORROWERS,
+        BORROW_RECORDS;
+
+        public String sqlName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        static Table fromSqlName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Op {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final long seq;
+    private final Table table;
+    private final int rowId;
+    private final Op op;
+
+    public Change(long seq, Table table, int rowId, Op op) {
+        this.seq = seq;
+        this.table = table;
+        this.rowId = rowId;
+        this.op = op;
+    }
+
+    // The distinct row IDs of one table touched by a batch of changes, oldest first
+    public static Set<Integer> rowIds(List<Change> changes, Table table) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (Change change : changes) {
+            if (change.table == table) {
+                ids.add(change.rowId);
+            }
+        }
+        return ids;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    public int getRowId() {
+        return rowId;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    @Override
+    public String toString() {
+        return seq + " " + op + " " + table.sqlName() + " " + rowId;
+    }
+}
@@ -0,0 +1,114 @@
+import com.example.library.DatabaseUtil;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Pushes committed changes from change_log to in-process subscribers (the
+// book cache, the availability index, open windows). Every
+// library.changes.pollMillis (default 250) it reads the entries after the
+// last one it delivered, straight off the primary key, and hands them over
+// in batches of up to BATCH_SIZE, oldest first. Changes made by other
+// processes on the same file arrive the same way as this process's own.
+//
+// Subscribers run on the dispatcher thread, one after another in the order
+// they subscribed, so they must be quick: UI subscribers hand their work to
+// the Event Dispatch Thread. If the log was trimmed past entries that were
+// never delivered (the dispatcher was stopped for a long time), subscribers
+// are told to reload from scratch instead.
+public class ChangeDispatcher implements AutoCloseable {
+    public static final String POLL_MILLIS_PROPERTY = "library.changes.pollMillis";
+
+    private static final int DEFAULT_POLL_MILLIS = 250;
+    private static final int BATCH_SIZE = 1000;
+
+    public interface Subscriber {
+        // One batch of committed changes, oldest first
+        void changed(List<Change> changes) throws SQLException;
+
+        // Changes were lost; anything derived from the tables must be rebuilt
+        default void reset() throws SQLException {
+        }
+    }
+
+    private final ChangeLogRepository log;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService timer;
+    private long lastSeq = -1;
+
+    public ChangeDispatcher(DatabaseUtil db) {
+        this.log = new ChangeLogRepository(db);
+    }
+
+    // Returns a handle that unsubscribes when run, e.g. when a window closes
+    public Runnable subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    // Deliver changes committed from now on, on a background thread
+    public synchronized void start() throws SQLException {
+        if (timer != null) {
+            return;
+        }
+        lastSeq = log.latestSeq();
+        long interval = Long.getLong(POLL_MILLIS_PROPERTY, DEFAULT_POLL_MILLIS);
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("change-dispatcher").daemon().factory());
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (SQLException | RuntimeException e) {
+                // Try again at the next poll; nothing past lastSeq has been delivered
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Deliver everything committed since the last poll; returns the number of changes
+    int poll() throws SQLException {
+        int delivered = 0;
+        while (true) {
+            List<Change> batch = log.findAfter(lastSeq, BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return delivered;
+            }
+            if (batch.get(0).getSeq() != lastSeq + 1) {
+                for (Subscriber subscriber : subscribers) {
+                    deliver(subscriber, null);
+                }
+            }
+            for (Subscriber subscriber : subscribers) {
+                deliver(subscriber, batch);
+            }
+            lastSeq = batch.get(batch.size() - 1).getSeq();
+            delivered += batch.size();
+            if (batch.size() < BATCH_SIZE) {
+                return delivered;
+            }
+        }
+    }
+
+    // A failing subscriber must not keep the others from their changes; null means reset
+    private static void deliver(Subscriber subscriber, List<Change> batch) {
+        try {
+            if (batch == null) {
+                subscriber.reset();
+            } else {
+                subscriber.changed(batch);
+            }
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
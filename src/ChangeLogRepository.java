@@ -0,0 +1,82 @@
+import com.example.library.DatabaseUtil;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Data access for change_log, which triggers fill (see schema migration 12).
+// Entries are only ever read forward by sequence number, straight off the
+// primary key, and trimmed from the oldest end.
+public class ChangeLogRepository {
+    private static final int PRUNE_WINDOW = 5000;
+
+    private static final String SELECT_RANGE = "SELECT IFNULL(MIN(seq), 0), IFNULL(MAX(seq), 0) FROM change_log";
+    private static final String SELECT_AFTER =
+            "SELECT seq, table_name, row_id, op FROM change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String DELETE_RANGE = "DELETE FROM change_log WHERE seq >= ? AND seq < ?";
+
+    private final DatabaseUtil db;
+
+    public ChangeLogRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Sequence number of the newest entry, or 0 if the log is empty
+    public long latestSeq() throws SQLException {
+        return range()[1];
+    }
+
+    // Up to limit entries after afterSeq, oldest first
+    public List<Change> findAfter(long afterSeq, int limit) throws SQLException {
+        return db.read("changes.findAfter", c -> {
+            List<Change> changes = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_AFTER);
+            ps.setLong(1, afterSeq);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    changes.add(new Change(
+                            rs.getLong("seq"),
+                            Change.Table.fromSqlName(rs.getString("table_name")),
+                            rs.getInt("row_id"),
+                            Change.Op.valueOf(rs.getString("op"))
+                    ));
+                }
+            }
+            return changes;
+        });
+    }
+
+    // Delete all but the newest `keep` entries, a window at a time so desks
+    // never wait long for the write lock. Returns the number deleted. The
+    // newest entry always stays, even for keep = 0: an empty log would read
+    // as latestSeq 0, and a dispatcher starting from there would take the
+    // next change for a gap and reset every subscriber.
+    public int prune(long keep) throws SQLException {
+        long[] range = range();
+        long end = range[1] - Math.max(keep, 1) + 1;
+        int deleted = 0;
+        for (long from = range[0]; from < end; from += PRUNE_WINDOW) {
+            DatabaseUtil.checkInterrupted();
+            long start = from;
+            long to = Math.min(from + PRUNE_WINDOW, end);
+            deleted += db.write("changes.prune", c -> {
+                PreparedStatement ps = c.prepare(DELETE_RANGE);
+                ps.setLong(1, start);
+                ps.setLong(2, to);
+                return ps.executeUpdate();
+            });
+        }
+        return deleted;
+    }
+
+    private long[] range() throws SQLException {
+        return db.read("changes.range", c -> {
+            try (ResultSet rs = c.prepare(SELECT_RANGE).executeQuery()) {
+                return rs.next() ? new long[]{rs.getLong(1), rs.getLong(2)} : new long[]{0, 0};
+            }
+        });
+    }
+}
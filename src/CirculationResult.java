@@ -0,0 +1,25 @@
+// Outcome of a checkout or return, with the message shown at the desk
+public enum CirculationResult {
+    CHECKED_OUT("Borrow record added successfully!"),
+    RETURNED("Book returned successfully!"),
+    RETURNED_FOR_HOLD("Book returned. Set it aside: it is now waiting for the next hold."),
+    BOOK_NOT_FOUND("Book not found!"),
+    BORROWER_NOT_FOUND("Borrower not found!"),
+    ALREADY_BORROWED("Book is already borrowed!"),
+    ON_HOLD("Book is set aside for another borrower's hold!"),
+    NOT_ON_LOAN("This book is not on loan to this borrower!");
+
+    private final String message;
+
+    CirculationResult(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return this == CHECKED_OUT || this == RETURNED || this == RETURNED_FOR_HOLD;
+    }
+}
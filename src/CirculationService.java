@@ -0,0 +1,405 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+import com.example.library.SchemaMigrator;
+import com.example.library.SqlFunction;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Checkouts, returns and holds, each as one transaction. A checkout claims the
+// copy with a conditional UPDATE (only if it is not already on loan), so two
+// desks racing for the same book cannot both win, and a crash can never leave
+// books.is_borrowed out of step with borrow_records. Once a transaction has
+// committed, the book cache and availability index are updated to match.
+// The circulation statistics are adjusted in the same transactions.
+//
+// A return hands the copy to the oldest waiting hold in the same
+// transaction, so no other desk can check it out in between. The copy then
+// stays is_borrowed, set aside for that borrower, until they collect it, the
+// hold is cancelled or it expires after library.holdDays, when it passes to
+// the next hold or goes back on the shelf. All of this runs under SQLite's
+// single write lock, so concurrent returns and reservations are applied one
+// at a time and each queue is served strictly in the order holds were placed.
+//
+// checkoutBatch and returnBatch take a whole stack of books in one
+// transaction: one read looks up every book, the changes go out as batched
+// statements, and there is a single commit for the lot. Each book still gets
+// the outcome it would have had on its own.
+public class CirculationService {
+    public static final String LOAN_DAYS_PROPERTY = SchemaMigrator.LOAN_DAYS_PROPERTY;
+    public static final int DEFAULT_LOAN_DAYS = SchemaMigrator.DEFAULT_LOAN_DAYS;
+    public static final String HOLD_DAYS_PROPERTY = "library.holdDays";
+    public static final int DEFAULT_HOLD_DAYS = 7;
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private static final String CLAIM_BOOK = "UPDATE books SET is_borrowed = 1 WHERE id = ? AND is_borrowed = 0";
+    private static final String RELEASE_BOOK = "UPDATE books SET is_borrowed = 0 WHERE id = ?";
+    private static final String BOOK_EXISTS = "SELECT 1 FROM books WHERE id = ?";
+    private static final String BORROWER_EXISTS = "SELECT 1 FROM borrowers WHERE id = ?";
+    private static final String BOOK_BORROWED = "SELECT is_borrowed FROM books WHERE id = ?";
+    // Every book of a batch with who has it out and who it is set aside for.
+    // The IN list always has MAX_BATCH_SIZE slots (the last ID repeats to
+    // fill them), so every batch shares one cached statement. Each subquery
+    // is a search on an index keyed by book: idx_borrow_records_book for the
+    // open loan and idx_holds_ready_book for the READY hold.
+    private static final String SELECT_BATCH =
+            "SELECT b.id, b.is_borrowed,"
+                    + " (SELECT r.borrower_id FROM borrow_records r WHERE r.book_id = b.id AND r.return_date IS NULL) AS borrower_id,"
+                    + " (SELECT h.borrower_id FROM holds h WHERE h.book_id = b.id AND h.status = 'READY') AS ready_for"
+                    + " FROM books b WHERE b.id IN (" + String.join(", ", Collections.nCopies(MAX_BATCH_SIZE, "?")) + ")";
+
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MILLIS = 20;
+    private static final int EXPIRY_BATCH_SIZE = 100;
+
+    // One book of a batch as it stood when the batch began; the IDs are null if nobody
+    private record BatchBook(boolean borrowed, Integer borrowerId, Integer readyFor) {
+    }
+
+    private final DatabaseUtil db;
+    private final BorrowRecordRepository borrowRecordRepository;
+    private final HoldRepository holdRepository;
+    private final StatisticsRepository statistics;
+    private final BookCache cache;
+    private final AvailabilityIndex availability;
+    private final int loanDays = Integer.getInteger(LOAN_DAYS_PROPERTY, DEFAULT_LOAN_DAYS);
+    private final int holdDays = Integer.getInteger(HOLD_DAYS_PROPERTY, DEFAULT_HOLD_DAYS);
+
+    public CirculationService(DatabaseUtil db) {
+        this(db, new BookCache(0, false), new AvailabilityIndex(db));
+    }
+
+    public CirculationService(DatabaseUtil db, BookCache cache, AvailabilityIndex availability) {
+        this.db = db;
+        this.borrowRecordRepository = new BorrowRecordRepository(db);
+        this.holdRepository = new HoldRepository(db);
+        this.statistics = new StatisticsRepository(db);
+        this.cache = cache;
+        this.availability = availability;
+    }
+
+    public CirculationResult checkout(int borrowerId, int bookId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.checkout", bookId, c -> {
+            if (!exists(c, BORROWER_EXISTS, borrowerId)) {
+                return CirculationResult.BORROWER_NOT_FOUND;
+            }
+            // A copy set aside for this borrower is already claimed
+            if (holdRepository.fulfil(c, bookId, borrowerId, today) == 0) {
+                PreparedStatement ps = c.prepare(CLAIM_BOOK);
+                ps.setInt(1, bookId);
+                if (ps.executeUpdate() == 0) {
+                    if (!exists(c, BOOK_EXISTS, bookId)) {
+                        return publish(c, bookId, CirculationResult.BOOK_NOT_FOUND);
+                    }
+                    return publish(c, bookId, holdRepository.readyFor(c, bookId) != null
+                            ? CirculationResult.ON_HOLD : CirculationResult.ALREADY_BORROWED);
+                }
+            }
+            borrowRecordRepository.insert(c, borrowerId, bookId, today, today.plusDays(loanDays));
+            statistics.recordCheckout(c, bookId, borrowerId, today);
+            return publish(c, bookId, CirculationResult.CHECKED_OUT);
+        });
+    }
+
+    public CirculationResult returnBook(int bookId, int borrowerId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.return", bookId, c -> {
+            if (borrowRecordRepository.markReturned(c, bookId, borrowerId, today) == 0) {
+                return CirculationResult.NOT_ON_LOAN;
+            }
+            statistics.recordReturn(c, bookId, borrowerId, today);
+            return publish(c, bookId, passOn(c, bookId, today)
+                    ? CirculationResult.RETURNED_FOR_HOLD : CirculationResult.RETURNED);
+        });
+    }
+
+    // Check a stack of books out to one borrower. Outcomes come back in the
+    // order given, one per book (a book listed twice counts once).
+    public Map<Integer, CirculationResult> checkoutBatch(int borrowerId, List<Integer> bookIds) throws SQLException {
+        List<Integer> ids = distinct(bookIds);
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.checkoutBatch", ids, c -> {
+            Map<Integer, CirculationResult> results = new LinkedHashMap<>();
+            if (ids.isEmpty()) {
+                return results;
+            }
+            if (!exists(c, BORROWER_EXISTS, borrowerId)) {
+                ids.forEach(bookId -> results.put(bookId, CirculationResult.BORROWER_NOT_FOUND));
+                return results;
+            }
+            Map<Integer, BatchBook> books = lookUp(c, ids);
+            List<Integer> collecting = new ArrayList<>();
+            List<Integer> claiming = new ArrayList<>();
+            for (int bookId : ids) {
+                BatchBook book = books.get(bookId);
+                if (book == null) {
+                    results.put(bookId, CirculationResult.BOOK_NOT_FOUND);
+                } else if (book.readyFor() != null && book.readyFor() == borrowerId) {
+                    // A copy set aside for this borrower is already claimed
+                    collecting.add(bookId);
+                    results.put(bookId, CirculationResult.CHECKED_OUT);
+                } else if (book.readyFor() != null) {
+                    results.put(bookId, CirculationResult.ON_HOLD);
+                } else if (book.borrowed()) {
+                    results.put(bookId, CirculationResult.ALREADY_BORROWED);
+                } else {
+                    claiming.add(bookId);
+                    results.put(bookId, CirculationResult.CHECKED_OUT);
+                }
+            }
+            // The write lock is held from the start, so nothing has changed since the read
+            holdRepository.fulfilAll(c, collecting, borrowerId, today);
+            executeBatch(c, CLAIM_BOOK, claiming);
+            List<Integer> loaned = new ArrayList<>(collecting);
+            loaned.addAll(claiming);
+            borrowRecordRepository.insertAll(c, borrowerId, loaned, today, today.plusDays(loanDays));
+            statistics.recordCheckouts(c, loaned, borrowerId, today);
+            for (Map.Entry<Integer, CirculationResult> result : results.entrySet()) {
+                publish(c, result.getKey(), result.getValue());
+            }
+            return results;
+        });
+    }
+
+    // Return a stack of books, each from whoever has it out. Outcomes come
+    // back in the order given, one per book (a book listed twice counts once).
+    public Map<Integer, CirculationResult> returnBatch(List<Integer> bookIds) throws SQLException {
+        List<Integer> ids = distinct(bookIds);
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.returnBatch", ids, c -> {
+            Map<Integer, CirculationResult> results = new LinkedHashMap<>();
+            if (ids.isEmpty()) {
+                return results;
+            }
+            Map<Integer, BatchBook> books = lookUp(c, ids);
+            Map<Integer, Integer> loans = new LinkedHashMap<>();
+            for (int bookId : ids) {
+                BatchBook book = books.get(bookId);
+                if (book == null) {
+                    results.put(bookId, CirculationResult.BOOK_NOT_FOUND);
+                } else if (book.borrowerId() == null) {
+                    results.put(bookId, CirculationResult.NOT_ON_LOAN);
+                } else {
+                    loans.put(bookId, book.borrowerId());
+                    results.put(bookId, CirculationResult.RETURNED);
+                }
+            }
+            borrowRecordRepository.markAllReturned(c, loans, today);
+            statistics.recordReturns(c, loans, today);
+            for (int bookId : passOn(c, new ArrayList<>(loans.keySet()), today)) {
+                results.put(bookId, CirculationResult.RETURNED_FOR_HOLD);
+            }
+            for (Map.Entry<Integer, CirculationResult> result : results.entrySet()) {
+                publish(c, result.getKey(), result.getValue());
+            }
+            return results;
+        });
+    }
+
+    // Join the queue for a book that is out. A book on the shelf cannot be
+    // held: with nobody waiting, the borrower can simply check it out.
+    public HoldResult placeHold(int borrowerId, int bookId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.placeHold", bookId, c -> {
+            if (!exists(c, BORROWER_EXISTS, borrowerId)) {
+                return HoldResult.BORROWER_NOT_FOUND;
+            }
+            PreparedStatement ps = c.prepare(BOOK_BORROWED);
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return HoldResult.BOOK_NOT_FOUND;
+                }
+                if (!rs.getBoolean(1)) {
+                    return HoldResult.BOOK_AVAILABLE;
+                }
+            }
+            if (borrowRecordRepository.isOnLoan(c, bookId, borrowerId)) {
+                return HoldResult.ALREADY_ON_LOAN;
+            }
+            return holdRepository.insert(c, bookId, borrowerId, today) == 0
+                    ? HoldResult.ALREADY_HELD : HoldResult.PLACED;
+        });
+    }
+
+    // Withdraw from the queue. If a copy was already set aside for this
+    // borrower, it goes to the next in line or back on the shelf.
+    public HoldResult cancelHold(int borrowerId, int bookId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return inTransaction("circulation.cancelHold", bookId, c -> {
+            Hold.Status previous = holdRepository.close(c, bookId, borrowerId, Hold.Status.CANCELLED, today);
+            if (previous == null) {
+                return HoldResult.NOT_HELD;
+            }
+            if (previous == Hold.Status.READY) {
+                passOn(c, bookId, today);
+            }
+            return HoldResult.CANCELLED;
+        });
+    }
+
+    // Expire READY holds not collected by their expiry date, passing each
+    // copy on as cancelHold does. Runs in short batches so desks are never
+    // held up for long. Returns the number of holds expired.
+    public int expireHolds(LocalDate today) throws SQLException {
+        int expired = 0;
+        while (true) {
+            DatabaseUtil.checkInterrupted();
+            int batch = db.transaction("circulation.expireHolds", c -> {
+                List<int[]> holds = holdRepository.findExpired(c, today, EXPIRY_BATCH_SIZE);
+                for (int[] hold : holds) {
+                    holdRepository.close(c, hold[0], Hold.Status.EXPIRED, today);
+                    passOn(c, hold[1], today);
+                }
+                return holds.size();
+            });
+            expired += batch;
+            if (batch < EXPIRY_BATCH_SIZE) {
+                return expired;
+            }
+        }
+    }
+
+    // The copy has just been freed: set it aside for the oldest waiting hold,
+    // or put it back on the shelf if there is none. Returns true if a hold got it.
+    private boolean passOn(PooledConnection c, int bookId, LocalDate today) throws SQLException {
+        if (holdRepository.promoteNext(c, bookId, today, today.plusDays(holdDays)) > 0) {
+            return true;
+        }
+        PreparedStatement ps = c.prepare(RELEASE_BOOK);
+        ps.setInt(1, bookId);
+        ps.executeUpdate();
+        c.afterCommit(() -> {
+            cache.updateBorrowed(bookId, false);
+            availability.borrowedChanged(bookId, false);
+        });
+        return false;
+    }
+
+    // passOn for several freed copies, as batches. Returns the books a hold got.
+    private Set<Integer> passOn(PooledConnection c, List<Integer> bookIds, LocalDate today) throws SQLException {
+        int[] promoted = holdRepository.promoteNext(c, bookIds, today, today.plusDays(holdDays));
+        Set<Integer> setAside = new HashSet<>();
+        List<Integer> shelved = new ArrayList<>();
+        for (int i = 0; i < bookIds.size(); i++) {
+            (promoted[i] > 0 ? setAside : shelved).add(bookIds.get(i));
+        }
+        executeBatch(c, RELEASE_BOOK, shelved);
+        c.afterCommit(() -> {
+            for (int bookId : shelved) {
+                cache.updateBorrowed(bookId, false);
+                availability.borrowedChanged(bookId, false);
+            }
+        });
+        return setAside;
+    }
+
+    // Every outcome except NOT_ON_LOAN and BORROWER_NOT_FOUND says what
+    // is_borrowed now is; pass that on once the transaction commits.
+    // RETURNED is published by passOn, which put the copy back.
+    private CirculationResult publish(PooledConnection c, int bookId, CirculationResult result) throws SQLException {
+        switch (result) {
+            case CHECKED_OUT, ALREADY_BORROWED, ON_HOLD, RETURNED_FOR_HOLD -> c.afterCommit(() -> {
+                cache.updateBorrowed(bookId, true);
+                availability.borrowedChanged(bookId, true);
+            });
+            case BOOK_NOT_FOUND -> c.afterCommit(() -> {
+                cache.invalidate(bookId);
+                availability.bookRemoved(bookId);
+            });
+            default -> {
+            }
+        }
+        return result;
+    }
+
+    // Run a transaction, retrying with jittered backoff while another
+    // process holds the database write lock (SQLITE_BUSY / SQLITE_LOCKED).
+    // If it still fails the commit may or may not have happened, so the
+    // book is dropped from the cache.
+    private <T> T inTransaction(String operation, int bookId, SqlFunction<T> work) throws SQLException {
+        return inTransaction(operation, List.of(bookId), work);
+    }
+
+    private <T> T inTransaction(String operation, Collection<Integer> bookIds, SqlFunction<T> work)
+            throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return db.transaction(operation, work);
+            } catch (SQLException e) {
+                if (!DatabaseUtil.isBusy(e) || attempt == MAX_ATTEMPTS) {
+                    bookIds.forEach(cache::invalidate);
+                    throw e;
+                }
+                long backoff = BASE_BACKOFF_MILLIS << (attempt - 1);
+                try {
+                    Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    bookIds.forEach(cache::invalidate);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, BatchBook> lookUp(PooledConnection c, List<Integer> bookIds) throws SQLException {
+        PreparedStatement ps = c.prepare(SELECT_BATCH);
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            ps.setInt(i + 1, bookIds.get(Math.min(i, bookIds.size() - 1)));
+        }
+        Map<Integer, BatchBook> books = new HashMap<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                int borrowerId = rs.getInt("borrower_id");
+                Integer borrower = rs.wasNull() ? null : borrowerId;
+                int readyFor = rs.getInt("ready_for");
+                Integer setAsideFor = rs.wasNull() ? null : readyFor;
+                books.put(rs.getInt("id"), new BatchBook(rs.getBoolean("is_borrowed"), borrower, setAsideFor));
+            }
+        }
+        return books;
+    }
+
+    private static void executeBatch(PooledConnection c, String sql, List<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        PreparedStatement ps = c.prepare(sql);
+        for (int id : ids) {
+            ps.setInt(1, id);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+    }
+
+    private static List<Integer> distinct(List<Integer> bookIds) {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(bookIds));
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " books per batch");
+        }
+        return ids;
+    }
+
+    private static boolean exists(PooledConnection c, String sql, int id) throws SQLException {
+        PreparedStatement ps = c.prepare(sql);
+        ps.setInt(1, id);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.time.LocalDate;
+import java.util.List;
+
+// A snapshot of the circulation dashboard, read from the running totals
+// that checkouts and returns keep up to date
+public class CirculationStats {
+    // One row of a ranking: a book, a borrower or a genre with its loan totals
+    public static class Ranked {
+        private final int id;
+        private final String name;
+        private final String detail;
+        private final int loanCount;
+        private final int active;
+
+        public Ranked(int id, String name, String detail, int loanCount, int active) {
+            this.id = id;
+            this.name = name;
+            this.detail = detail;
+            this.loanCount = loanCount;
+            this.active = active;
+        }
+
+        // The book or borrower ID; 0 for a genre
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Author of a book, email of a borrower
+        public String getDetail() {
+            return detail;
+        }
+
+        public int getLoanCount() {
+            return loanCount;
+        }
+
+        public int getActive() {
+            return active;
+        }
+    }
+
+    public static class Day {
+        private final LocalDate date;
+        private final int checkouts;
+        private final int returns;
+
+        public Day(LocalDate date, int checkouts, int returns) {
+            this.date = date;
+            this.checkouts = checkouts;
+            this.returns = returns;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public int getCheckouts() {
+            return checkouts;
+        }
+
+        public int getReturns() {
+            return returns;
+        }
+    }
+
+    private final long totalLoans;
+    private final long activeLoans;
+    private final List<Ranked> topBooks;
+    private final List<Ranked> topBorrowers;
+    private final List<Ranked> genres;
+    private final List<Day> days;
+
+    public CirculationStats(long totalLoans, long activeLoans, List<Ranked> topBooks, List<Ranked> topBorrowers,
+                            List<Ranked> genres, List<Day> days) {
+        this.totalLoans = totalLoans;
+        this.activeLoans = activeLoans;
+        this.topBooks = topBooks;
+        this.topBorrowers = topBorrowers;
+        this.genres = genres;
+        this.days = days;
+    }
+
+    public long getTotalLoans() {
+        return totalLoans;
+    }
+
+    public long getActiveLoans() {
+        return activeLoans;
+    }
+
+    // Most borrowed books, most loans first
+    public List<Ranked> getTopBooks() {
+        return topBooks;
+    }
+
+    // Borrowers with the most loans, most first
+    public List<Ranked> getTopBorrowers() {
+        return topBorrowers;
+    }
+
+    // Every genre, most loans out now first
+    public List<Ranked> getGenres() {
+        return genres;
+    }
+
+    // Checkouts and returns per day, oldest first; days with neither are left out
+    public List<Day> getDays() {
+        return days;
+    }
+}
@@ -0,0 +1,73 @@
+import java.time.LocalDate;
+
+// A borrower's place in the queue for a book. Position counts from 1 among
+// the holds still waiting; a READY hold has position 0 and a copy set aside
+// until its expiry date.
+public class Hold {
+    public enum Status {
+        WAITING,
+        READY,
+        FULFILLED,
+        CANCELLED,
+        EXPIRED
+    }
+
+    private final int id;
+    private final int bookId;
+    private final String title;
+    private final int borrowerId;
+    private final String borrowerName;
+    private final Status status;
+    private final int position;
+    private final LocalDate placedDate;
+    private final LocalDate expiresDate;
+
+    public Hold(int id, int bookId, String title, int borrowerId, String borrowerName, Status status, int position,
+                LocalDate placedDate, LocalDate expiresDate) {
+        this.id = id;
+        this.bookId = bookId;
+        this.title = title;
+        this.borrowerId = borrowerId;
+        this.borrowerName = borrowerName;
+        this.status = status;
+        this.position = position;
+        this.placedDate = placedDate;
+        this.expiresDate = expiresDate;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getBorrowerId() {
+        return borrowerId;
+    }
+
+    public String getBorrowerName() {
+        return borrowerName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public LocalDate getPlacedDate() {
+        return placedDate;
+    }
+
+    public LocalDate getExpiresDate() {
+        return expiresDate;
+    }
+}
@@ -0,0 +1,187 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Data access for the holds table. Open holds (WAITING or READY) are found
+// through partial indexes, so the queues stay cheap to read however much
+// closed history builds up. Each query spells its status predicate exactly
+// as the WHERE clause of the index it is meant to use. The writes run inside CirculationService's
+// transactions, next to the loan and is_borrowed changes they go with.
+public class HoldRepository {
+    // Position among the waiting holds for the same book, counted off the queue index
+    private static final String SELECT_OPEN =
+            "SELECT h.id, h.book_id, b.title, h.borrower_id, p.name, h.status, h.placed_date, h.expires_date,"
+                    + " CASE h.status WHEN 'WAITING' THEN (SELECT COUNT(*) FROM holds q"
+                    + " WHERE q.book_id = h.book_id AND q.status = 'WAITING' AND q.id <= h.id) ELSE 0 END AS position"
+                    + " FROM holds h CROSS JOIN books b ON b.id = h.book_id CROSS JOIN borrowers p ON p.id = h.borrower_id";
+    private static final String SELECT_BY_BORROWER =
+            SELECT_OPEN + " WHERE h.borrower_id = ? AND h.status IN ('WAITING', 'READY') ORDER BY h.id";
+    private static final String SELECT_BY_BOOK =
+            SELECT_OPEN + " WHERE h.book_id = ? AND h.status IN ('WAITING', 'READY') ORDER BY h.id";
+    private static final String INSERT =
+            "INSERT INTO holds (book_id, borrower_id, status, placed_date) VALUES (?, ?, 'WAITING', ?)"
+                    + " ON CONFLICT DO NOTHING";
+    private static final String SELECT_OPEN_STATUS =
+            "SELECT id, status FROM holds WHERE book_id = ? AND borrower_id = ? AND status IN ('WAITING', 'READY')";
+    private static final String SELECT_READY_BORROWER =
+            "SELECT borrower_id FROM holds WHERE book_id = ? AND status = 'READY'";
+    private static final String CLOSE = "UPDATE holds SET status = ?, closed_date = ? WHERE id = ?";
+    private static final String FULFIL =
+            "UPDATE holds SET status = 'FULFILLED', closed_date = ?"
+                    + " WHERE book_id = ? AND borrower_id = ? AND status = 'READY'";
+    // The oldest waiting hold is first in line
+    private static final String PROMOTE_NEXT =
+            "UPDATE holds SET status = 'READY', ready_date = ?, expires_date = ? WHERE id ="
+                    + " (SELECT id FROM holds WHERE book_id = ? AND status = 'WAITING' ORDER BY id LIMIT 1)";
+    private static final String SELECT_EXPIRED =
+            "SELECT id, book_id FROM holds WHERE status = 'READY' AND expires_date < ? ORDER BY expires_date, id LIMIT ?";
+
+    private final DatabaseUtil db;
+
+    public HoldRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Open holds of one borrower, oldest first
+    public List<Hold> findByBorrower(int borrowerId) throws SQLException {
+        return db.read("holds.findByBorrower", c -> queryHolds(c, SELECT_BY_BORROWER, borrowerId));
+    }
+
+    // The queue for one book: the READY hold, if any, then the waiting ones in turn
+    public List<Hold> findByBook(int bookId) throws SQLException {
+        return db.read("holds.findByBook", c -> queryHolds(c, SELECT_BY_BOOK, bookId));
+    }
+
+    // Returns 0 if the borrower already has an open hold on the book
+    int insert(PooledConnection c, int bookId, int borrowerId, LocalDate today) throws SQLException {
+        PreparedStatement ps = c.prepare(INSERT);
+        ps.setInt(1, bookId);
+        ps.setInt(2, borrowerId);
+        ps.setLong(3, today.toEpochDay());
+        return ps.executeUpdate();
+    }
+
+    // Close this borrower's open hold on the book with the given status.
+    // Returns the status it had, or null if there was none.
+    Hold.Status close(PooledConnection c, int bookId, int borrowerId, Hold.Status status, LocalDate today)
+            throws SQLException {
+        PreparedStatement select = c.prepare(SELECT_OPEN_STATUS);
+        select.setInt(1, bookId);
+        select.setInt(2, borrowerId);
+        int id;
+        Hold.Status previous;
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            id = rs.getInt("id");
+            previous = Hold.Status.valueOf(rs.getString("status"));
+        }
+        close(c, id, status, today);
+        return previous;
+    }
+
+    void close(PooledConnection c, int holdId, Hold.Status status, LocalDate today) throws SQLException {
+        PreparedStatement ps = c.prepare(CLOSE);
+        ps.setString(1, status.name());
+        ps.setLong(2, today.toEpochDay());
+        ps.setInt(3, holdId);
+        ps.executeUpdate();
+    }
+
+    // The borrower a copy of this book is set aside for, or null
+    Integer readyFor(PooledConnection c, int bookId) throws SQLException {
+        PreparedStatement ps = c.prepare(SELECT_READY_BORROWER);
+        ps.setInt(1, bookId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : null;
+        }
+    }
+
+    // Mark this borrower's READY hold collected; returns 0 if they had none
+    int fulfil(PooledConnection c, int bookId, int borrowerId, LocalDate today) throws SQLException {
+        PreparedStatement ps = c.prepare(FULFIL);
+        ps.setLong(1, today.toEpochDay());
+        ps.setInt(2, bookId);
+        ps.setInt(3, borrowerId);
+        return ps.executeUpdate();
+    }
+
+    // fulfil for several books at once, as a single batch
+    int[] fulfilAll(PooledConnection c, List<Integer> bookIds, int borrowerId, LocalDate today) throws SQLException {
+        PreparedStatement ps = c.prepare(FULFIL);
+        for (int bookId : bookIds) {
+            ps.setLong(1, today.toEpochDay());
+            ps.setInt(2, bookId);
+            ps.setInt(3, borrowerId);
+            ps.addBatch();
+        }
+        return ps.executeBatch();
+    }
+
+    // Make the oldest waiting hold READY until expiresDate; returns 0 if nobody is waiting
+    int promoteNext(PooledConnection c, int bookId, LocalDate today, LocalDate expiresDate) throws SQLException {
+        PreparedStatement ps = c.prepare(PROMOTE_NEXT);
+        ps.setLong(1, today.toEpochDay());
+        ps.setLong(2, expiresDate.toEpochDay());
+        ps.setInt(3, bookId);
+        return ps.executeUpdate();
+    }
+
+    // promoteNext for several books at once; one update count per book, in order
+    int[] promoteNext(PooledConnection c, List<Integer> bookIds, LocalDate today, LocalDate expiresDate)
+            throws SQLException {
+        PreparedStatement ps = c.prepare(PROMOTE_NEXT);
+        for (int bookId : bookIds) {
+            ps.setLong(1, today.toEpochDay());
+            ps.setLong(2, expiresDate.toEpochDay());
+            ps.setInt(3, bookId);
+            ps.addBatch();
+        }
+        return ps.executeBatch();
+    }
+
+    // READY holds not collected by their expiry date: {hold ID, book ID} pairs
+    List<int[]> findExpired(PooledConnection c, LocalDate today, int limit) throws SQLException {
+        List<int[]> expired = new ArrayList<>();
+        PreparedStatement ps = c.prepare(SELECT_EXPIRED);
+        ps.setLong(1, today.toEpochDay());
+        ps.setInt(2, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                expired.add(new int[]{rs.getInt("id"), rs.getInt("book_id")});
+            }
+        }
+        return expired;
+    }
+
+    private static List<Hold> queryHolds(PooledConnection c, String sql, int id) throws SQLException {
+        List<Hold> holds = new ArrayList<>();
+        PreparedStatement ps = c.prepare(sql);
+        ps.setInt(1, id);
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                long expires = rs.getLong("expires_date");
+                LocalDate expiresDate = rs.wasNull() ? null : LocalDate.ofEpochDay(expires);
+                holds.add(new Hold(
+                        rs.getInt("id"),
+                        rs.getInt("book_id"),
+                        rs.getString("title"),
+                        rs.getInt("borrower_id"),
+                        rs.getString("name"),
+                        Hold.Status.valueOf(rs.getString("status")),
+                        rs.getInt("position"),
+                        LocalDate.ofEpochDay(rs.getLong("placed_date")),
+                        expiresDate
+                ));
+            }
+        }
+        return holds;
+    }
+}
@@ -0,0 +1,25 @@
+// Outcome of placing or cancelling a hold, with the message shown at the desk
+public enum HoldResult {
+    PLACED("Hold placed. The borrower will be next in line after anyone already waiting."),
+    CANCELLED("Hold cancelled."),
+    BOOK_NOT_FOUND("Book not found!"),
+    BORROWER_NOT_FOUND("Borrower not found!"),
+    BOOK_AVAILABLE("Book is on the shelf; check it out instead."),
+    ALREADY_ON_LOAN("This borrower already has this book."),
+    ALREADY_HELD("This borrower already has a hold on this book."),
+    NOT_HELD("This borrower has no hold on this book.");
+
+    private final String message;
+
+    HoldResult(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return this == PLACED || this == CANCELLED;
+    }
+}
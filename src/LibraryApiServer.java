@@ -0,0 +1,915 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.JsonReader;
+import com.example.library.JsonWriter;
+import com.example.library.MetricsHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Headless JSON API over LibraryService for kiosks and the web catalogue.
+// Every request runs on its own virtual thread, and queries share the
+// service's pooled read connections with any other front end. The whole
+// catalogue is streamed in keyset chunks, so no reader is pinned to a slow
+// client. Catalogue pages carry an ETag, and a matching If-None-Match gets
+// 304 Not Modified with no body.
+//
+//   GET    /books?sort=id|title|author|genre&order=asc|desc&limit=&afterKey=&afterId=
+//   GET    /books/all                       whole catalogue, streamed
+//   GET    /books/search?q=&limit=
+//   GET    /books/{id}
+//   POST   /books {title, author, genre}    201 with the new book's id
+//   PUT    /books/{id} {title, author, genre}   loan state only changes via /checkout and /return
+//   DELETE /books/{id}
+//   GET    /authors
+//   GET    /authors/{id}/books
+//   GET    /borrowers                       or ?email= to look one up, in any case
+//   GET    /borrowers/search?q=&limit=      name or email prefix, for typeahead
+//   POST   /borrowers {name, email}         409 if the email is already registered
+//   GET    /borrowers/{id}/loans?before=&limit=
+//   POST   /checkout {borrowerId, bookId}
+//   POST   /return {bookId, borrowerId}
+//   POST   /checkout/batch {borrowerId, bookIds: [...]}   one transaction, one result per book
+//   POST   /return/batch {bookIds: [...]}                 each from whoever has it out
+//   POST   /holds {borrowerId, bookId}      join the queue for a book that is out
+//   POST   /holds/cancel {borrowerId, bookId}
+//   GET    /books/{id}/holds                the queue, next in line first
+//   GET    /borrowers/{id}/holds
+//   GET    /loans/overdue?limit=
+//   GET    /notices?limit=                  notices waiting to be sent
+//   POST   /notices/sent {ids: [...]}
+//   GET    /stats?top=&days=                circulation dashboard
+//   GET    /metrics                         Prometheus text format
+//   GET    /branches                        branch names
+//   GET    /search?q=&limit=                catalogue search across every branch
+//
+// With several branches (-Dlibrary.branches=name=path,...) each branch has
+// its own database, and /branches/{branch}/ before any path above routes it
+// there; without the prefix a request goes to the first branch.
+//
+// Usage: LibraryApiServer [database] [port]
+public class LibraryApiServer implements AutoCloseable {
+    public static final String PORT_PROPERTY = "library.api.port";
+    public static final String BIND_PROPERTY = "library.api.bind";
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_CHUNK = 1000;
+    private static final int DEFAULT_STATS_TOP = 10;
+    private static final int DEFAULT_STATS_DAYS = 30;
+    private static final int MAX_STATS_DAYS = 3660;
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    static {
+        // The JDK server writes headers and body separately; without
+        // TCP_NODELAY, Nagle plus delayed ACKs add ~40 ms to every response.
+        // Read once when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final LibraryBranches branches;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // An error that maps directly to an HTTP status
+    private static class ApiException extends RuntimeException {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    public LibraryApiServer(LibraryService service, InetSocketAddress address) throws IOException {
+        this(LibraryBranches.of(service), address);
+    }
+
+    public LibraryApiServer(LibraryBranches branches, InetSocketAddress address) throws IOException {
+        this.branches = branches;
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                route(exchange);
+            } catch (Exception e) {
+                sendError(exchange, e);
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange) throws Exception {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        // /branches/{branch}/... is routed to that branch; anything else to the
+        // first one. prefix is put back in front of links to further pages.
+        LibraryService service = branches.defaultService();
+        String prefix = "";
+        if (path[0].equals("branches")) {
+            if (path.length == 1) {
+                requireGet(method);
+                sendJson(exchange, 200, json -> {
+                    json.beginArray();
+                    for (String branch : branches.names()) {
+                        json.value(branch);
+                    }
+                    json.endArray();
+                });
+                return;
+            }
+            service = branches.service(path[1]);
+            if (service == null || path.length == 2) {
+                throw notFound();
+            }
+            prefix = "/branches/" + exchange.getRequestURI().getRawPath().replaceAll("^/+", "").split("/+")[1];
+            path = Arrays.copyOfRange(path, 2, path.length);
+        } else if (path[0].equals("search") && path.length == 1) {
+            requireGet(method);
+            searchCatalogue(exchange, query);
+            return;
+        }
+        String resource = path[0];
+        String id = path.length > 1 ? path[1] : null;
+
+        switch (resource) {
+            case "books" -> {
+                if (id == null) {
+                    if (method.equals("POST")) {
+                        createBook(service, exchange);
+                    } else {
+                        requireGet(method);
+                        bookPage(service, prefix, exchange, query);
+                    }
+                } else if (id.equals("all") && path.length == 2) {
+                    requireGet(method);
+                    streamCatalogue(service, exchange);
+                } else if (id.equals("search") && path.length == 2) {
+                    requireGet(method);
+                    String text = query.getOrDefault("q", "").trim();
+                    int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+                    List<Book> books = text.isEmpty() ? List.of() : await(service.searchBooks(text, limit));
+                    sendCacheable(exchange, json -> writeBooks(json, books));
+                } else if (path.length == 2) {
+                    bookById(service, exchange, method, parseId(id));
+                } else if (path.length == 3 && path[2].equals("holds")) {
+                    requireGet(method);
+                    List<Hold> holds = await(service.holdsForBook(parseId(id)));
+                    sendJson(exchange, 200, json -> writeHolds(json, holds));
+                } else {
+                    throw notFound();
+                }
+            }
+            case "authors" -> {
+                requireGet(method);
+                if (id == null) {
+                    List<Author> authors = await(service.listAuthors());
+                    sendCacheable(exchange, json -> {
+                        json.beginArray();
+                        for (Author author : authors) {
+                            json.beginObject()
+                                    .name("id").value(author.getId())
+                                    .name("name").value(author.getName())
+                                    .name("bookCount").value(author.getBookCount())
+                                    .endObject();
+                        }
+                        json.endArray();
+                    });
+                } else if (path.length == 3 && path[2].equals("books")) {
+                    List<Book> books = await(service.listBooksByAuthor(parseId(id)));
+                    sendCacheable(exchange, json -> writeBooks(json, books));
+                } else {
+                    throw notFound();
+                }
+            }
+            case "borrowers" -> {
+                if (id == null) {
+                    if (method.equals("POST")) {
+                        registerBorrower(service, exchange);
+                    } else {
+                        requireGet(method);
+                        listBorrowers(service, exchange, query.get("email"));
+                    }
+                } else if (id.equals("search") && path.length == 2) {
+                    requireGet(method);
+                    String text = query.getOrDefault("q", "").trim();
+                    int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+                    List<Borrower> borrowers = text.isEmpty() ? List.of() : await(service.searchBorrowers(text, limit));
+                    sendJson(exchange, 200, json -> writeBorrowers(json, borrowers));
+                } else if (path.length == 3 && path[2].equals("holds")) {
+                    requireGet(method);
+                    List<Hold> holds = await(service.holdsForBorrower(parseId(id)));
+                    sendJson(exchange, 200, json -> writeHolds(json, holds));
+                } else if (path.length == 3 && path[2].equals("loans")) {
+                    requireGet(method);
+                    int before = intParam(query, "before", Integer.MAX_VALUE, Integer.MAX_VALUE);
+                    int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+                    List<LoanHistoryEntry> loans = await(service.loanHistory(parseId(id), before, limit));
+                    sendJson(exchange, 200, json -> {
+                        json.beginArray();
+                        for (LoanHistoryEntry loan : loans) {
+                            json.beginObject()
+                                    .name("recordId").value(loan.getRecordId())
+                                    .name("bookId").value(loan.getBookId())
+                                    .name("title").value(loan.getTitle())
+                                    .name("author").value(loan.getAuthor())
+                                    .name("borrowDate").value(loan.getBorrowDate())
+                                    .name("dueDate").value(loan.getDueDate())
+                                    .name("returnDate").value(loan.getReturnDate())
+                                    .endObject();
+                        }
+                        json.endArray();
+                    });
+                } else {
+                    throw notFound();
+                }
+            }
+            case "checkout", "return" -> {
+                if (!method.equals("POST")) {
+                    throw new ApiException(405, "Use POST");
+                }
+                if (id == null) {
+                    Map<String, Object> body = readBody(exchange);
+                    int borrowerId = intField(body, "borrowerId");
+                    int bookId = intField(body, "bookId");
+                    CirculationResult result = await(resource.equals("checkout")
+                            ? service.checkout(borrowerId, bookId)
+                            : service.returnBook(bookId, borrowerId));
+                    sendJson(exchange, statusOf(result), json -> json.beginObject()
+                            .name("result").value(result.name())
+                            .name("message").value(result.getMessage())
+                            .endObject());
+                } else if (id.equals("batch") && path.length == 2) {
+                    circulationBatch(service, exchange, resource.equals("checkout"));
+                } else {
+                    throw notFound();
+                }
+            }
+            case "holds" -> {
+                if (!method.equals("POST")) {
+                    throw new ApiException(405, "Use POST");
+                }
+                boolean cancel;
+                if (id == null) {
+                    cancel = false;
+                } else if (id.equals("cancel") && path.length == 2) {
+                    cancel = true;
+                } else {
+                    throw notFound();
+                }
+                Map<String, Object> body = readBody(exchange);
+                int borrowerId = intField(body, "borrowerId");
+                int bookId = intField(body, "bookId");
+                HoldResult result = await(cancel
+                        ? service.cancelHold(borrowerId, bookId)
+                        : service.placeHold(borrowerId, bookId));
+                sendJson(exchange, statusOf(result), json -> json.beginObject()
+                        .name("result").value(result.name())
+                        .name("message").value(result.getMessage())
+                        .endObject());
+            }
+            case "loans" -> {
+                if (!"overdue".equals(id) || path.length != 2) {
+                    throw notFound();
+                }
+                requireGet(method);
+                overdueLoans(service, exchange, intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+            }
+            case "notices" -> {
+                if (id == null) {
+                    requireGet(method);
+                    pendingNotices(service, exchange, intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+                } else if (id.equals("sent") && path.length == 2) {
+                    if (!method.equals("POST")) {
+                        throw new ApiException(405, "Use POST");
+                    }
+                    markNoticesSent(service, exchange);
+                } else {
+                    throw notFound();
+                }
+            }
+            case "stats" -> {
+                requireGet(method);
+                CirculationStats stats = await(service.circulationStats(
+                        intParam(query, "top", DEFAULT_STATS_TOP, MAX_PAGE_SIZE),
+                        intParam(query, "days", DEFAULT_STATS_DAYS, MAX_STATS_DAYS)));
+                sendCacheable(exchange, json -> {
+                    json.beginObject()
+                            .name("totalLoans").value(stats.getTotalLoans())
+                            .name("activeLoans").value(stats.getActiveLoans())
+                            .name("topBooks");
+                    writeRanking(json, stats.getTopBooks(), "bookId", "title", "author");
+                    json.name("topBorrowers");
+                    writeRanking(json, stats.getTopBorrowers(), "borrowerId", "name", "email");
+                    json.name("genres");
+                    writeRanking(json, stats.getGenres(), null, "genre", null);
+                    json.name("days").beginArray();
+                    for (CirculationStats.Day day : stats.getDays()) {
+                        json.beginObject()
+                                .name("date").value(day.getDate())
+                                .name("checkouts").value(day.getCheckouts())
+                                .name("returns").value(day.getReturns())
+                                .endObject();
+                    }
+                    json.endArray().endObject();
+                });
+            }
+            case "metrics" -> {
+                requireGet(method);
+                byte[] body = MetricsHttpServer.format(service.getMetrics()).getBytes(StandardCharsets.UTF_8);
+                send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", body);
+            }
+            default -> throw notFound();
+        }
+    }
+
+    // Full-text search of every branch's catalogue at once, best matches first
+    private void searchCatalogue(HttpExchange exchange, Map<String, String> query) throws Exception {
+        String text = query.getOrDefault("q", "").trim();
+        int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        List<CatalogueHit> hits = text.isEmpty() ? List.of() : await(branches.searchCatalogue(text, limit));
+        sendJson(exchange, 200, json -> {
+            json.beginArray();
+            for (CatalogueHit hit : hits) {
+                Book book = hit.getBook();
+                json.beginObject()
+                        .name("branch").value(hit.getBranch())
+                        .name("id").value(book.getId())
+                        .name("title").value(book.getTitle())
+                        .name("author").value(book.getAuthor())
+                        .name("genre").value(book.getGenre())
+                        .name("borrowed").value(book.isBorrowed())
+                        .endObject();
+            }
+            json.endArray();
+        });
+    }
+
+    // One keyset page of the catalogue. The response links to the next page
+    // with the last row's sort key and id, so deep pages cost the same as the first.
+    private void bookPage(LibraryService service, String prefix, HttpExchange exchange, Map<String, String> query)
+            throws Exception {
+        BookSort sort = parseSort(query.getOrDefault("sort", "id"));
+        String order = query.getOrDefault("order", "asc");
+        if (!order.equals("asc") && !order.equals("desc")) {
+            throw new ApiException(400, "order must be asc or desc");
+        }
+        boolean ascending = order.equals("asc");
+        int limit = intParam(query, "limit", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+        Integer afterId = query.containsKey("afterId") ? parseId(query.get("afterId")) : null;
+        Object afterKey = null;
+        if (afterId != null) {
+            afterKey = sort == BookSort.ID ? afterId : query.getOrDefault("afterKey", "");
+        }
+        List<Book> books = await(service.bookPage(sort, ascending, afterKey, afterId, 0, limit));
+        String next = null;
+        if (books.size() == limit) {
+            Book last = books.get(books.size() - 1);
+            next = prefix + "/books?sort=" + sort.name().toLowerCase(Locale.ROOT) + "&order=" + order + "&limit=" + limit
+                    + (sort == BookSort.ID ? "" : "&afterKey=" + encode(String.valueOf(sort.keyOf(last))))
+                    + "&afterId=" + last.getId();
+        }
+        String nextPage = next;
+        sendCacheable(exchange, json -> {
+            json.beginObject().name("books");
+            writeBooks(json, books);
+            json.name("next").value(nextPage).endObject();
+        });
+    }
+
+    // The whole catalogue as one JSON array, sent chunked. Each chunk is a
+    // separate short read, so a slow client holds no connection between them.
+    private void streamCatalogue(LibraryService service, HttpExchange exchange) throws Exception {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            JsonWriter json = new JsonWriter(out);
+            json.beginArray();
+            Integer afterId = null;
+            while (true) {
+                List<Book> chunk = await(service.bookPage(BookSort.ID, true, afterId, afterId, 0, STREAM_CHUNK));
+                for (Book book : chunk) {
+                    writeBook(json, book);
+                }
+                if (chunk.size() < STREAM_CHUNK) {
+                    break;
+                }
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+            json.endArray();
+            json.flush();
+        }
+    }
+
+    private void bookById(LibraryService service, HttpExchange exchange, String method, int id) throws Exception {
+        switch (method) {
+            case "GET", "HEAD" -> {
+                Book book = await(service.getBook(id));
+                if (book == null) {
+                    throw notFound();
+                }
+                sendCacheable(exchange, json -> writeBook(json, book));
+            }
+            case "PUT" -> {
+                Map<String, Object> body = readBody(exchange);
+                rejectLoanState(body);
+                boolean updated = await(service.updateBook(id, stringField(body, "title"), stringField(body, "author"),
+                        optionalString(body, "genre")));
+                if (!updated) {
+                    throw notFound();
+                }
+                sendJson(exchange, 200, json -> json.beginObject().name("id").value(id).endObject());
+            }
+            case "DELETE" -> {
+                if (!await(service.deleteBook(id))) {
+                    throw notFound();
+                }
+                send(exchange, 204, null, null);
+            }
+            default -> throw new ApiException(405, "Use GET, PUT or DELETE");
+        }
+    }
+
+    private void createBook(LibraryService service, HttpExchange exchange) throws Exception {
+        Map<String, Object> body = readBody(exchange);
+        rejectLoanState(body);
+        int id = await(service.addBook(stringField(body, "title"), stringField(body, "author"),
+                optionalString(body, "genre")));
+        sendJson(exchange, 201, json -> json.beginObject().name("created").value(true).name("id").value(id).endObject());
+    }
+
+    // A book's borrowed flag belongs to its loans; setting it here would
+    // shelve a copy that is still out, or lend one with no borrower
+    private static void rejectLoanState(Map<String, Object> body) {
+        if (body.containsKey("borrowed")) {
+            throw new ApiException(400, "borrowed cannot be set on a book; use /checkout and /return");
+        }
+    }
+
+    private void listBorrowers(LibraryService service, HttpExchange exchange, String email) throws Exception {
+        if (email != null) {
+            Integer borrowerId = await(service.findBorrowerIdByEmail(email.trim()));
+            if (borrowerId == null) {
+                throw notFound();
+            }
+            sendJson(exchange, 200, json -> json.beginObject().name("id").value(borrowerId).endObject());
+            return;
+        }
+        List<Borrower> borrowers = await(service.listBorrowers());
+        sendJson(exchange, 200, json -> writeBorrowers(json, borrowers));
+    }
+
+    private static void writeBorrowers(JsonWriter json, List<Borrower> borrowers) throws IOException {
+        json.beginArray();
+        for (Borrower borrower : borrowers) {
+            json.beginObject()
+                    .name("id").value(borrower.getId())
+                    .name("name").value(borrower.getName())
+                    .name("email").value(borrower.getEmail())
+                    .endObject();
+        }
+        json.endArray();
+    }
+
+    private void registerBorrower(LibraryService service, HttpExchange exchange) throws Exception {
+        Map<String, Object> body = readBody(exchange);
+        int id = await(service.registerBorrower(stringField(body, "name"), stringField(body, "email")));
+        sendJson(exchange, 201, json -> json.beginObject().name("created").value(true).name("id").value(id).endObject());
+    }
+
+    private void overdueLoans(LibraryService service, HttpExchange exchange, int limit) throws Exception {
+        List<OverdueLoan> loans = await(service.overdueLoans(limit));
+        int total = await(service.countOverdueLoans());
+        sendJson(exchange, 200, json -> {
+            json.beginObject().name("total").value(total).name("loans").beginArray();
+            for (OverdueLoan loan : loans) {
+                json.beginObject()
+                        .name("recordId").value(loan.getRecordId())
+                        .name("bookId").value(loan.getBookId())
+                        .name("title").value(loan.getTitle())
+                        .name("borrowerId").value(loan.getBorrowerId())
+                        .name("borrowerName").value(loan.getBorrowerName())
+                        .name("borrowerEmail").value(loan.getBorrowerEmail())
+                        .name("borrowDate").value(loan.getBorrowDate())
+                        .name("dueDate").value(loan.getDueDate())
+                        .name("daysOverdue").value(loan.getDaysOverdue())
+                        .endObject();
+            }
+            json.endArray().endObject();
+        });
+    }
+
+    private void pendingNotices(LibraryService service, HttpExchange exchange, int limit) throws Exception {
+        List<LoanNotice> notices = await(service.pendingNotices(limit));
+        sendJson(exchange, 200, json -> {
+            json.beginArray();
+            for (LoanNotice notice : notices) {
+                json.beginObject()
+                        .name("id").value(notice.getId())
+                        .name("kind").value(notice.getKind().name())
+                        .name("recordId").value(notice.getRecordId())
+                        .name("borrowerId").value(notice.getBorrowerId())
+                        .name("bookId").value(notice.getBookId())
+                        .name("dueDate").value(notice.getDueDate())
+                        .name("created").value(notice.getCreatedDate())
+                        .endObject();
+            }
+            json.endArray();
+        });
+    }
+
+    private void markNoticesSent(LibraryService service, HttpExchange exchange) throws Exception {
+        List<Integer> ids = intListField(readBody(exchange), "ids", "notice ids");
+        int updated = await(service.markNoticesSent(ids));
+        sendJson(exchange, 200, json -> json.beginObject().name("updated").value(updated).endObject());
+    }
+
+    // 200 whatever the individual outcomes; each book carries its own result
+    private void circulationBatch(LibraryService service, HttpExchange exchange, boolean checkout) throws Exception {
+        Map<String, Object> body = readBody(exchange);
+        int borrowerId = checkout ? intField(body, "borrowerId") : 0;
+        List<Integer> bookIds = intListField(body, "bookIds", "book ids");
+        Map<Integer, CirculationResult> results = await(checkout
+                ? service.checkoutBatch(borrowerId, bookIds)
+                : service.returnBatch(bookIds));
+        long succeeded = results.values().stream().filter(CirculationResult::isSuccess).count();
+        sendJson(exchange, 200, json -> {
+            json.beginObject()
+                    .name("succeeded").value(succeeded)
+                    .name("failed").value(results.size() - succeeded)
+                    .name("results").beginArray();
+            for (Map.Entry<Integer, CirculationResult> result : results.entrySet()) {
+                json.beginObject()
+                        .name("bookId").value(result.getKey())
+                        .name("result").value(result.getValue().name())
+                        .name("message").value(result.getValue().getMessage())
+                        .endObject();
+            }
+            json.endArray().endObject();
+        });
+    }
+
+    private static int statusOf(CirculationResult result) {
+        return switch (result) {
+            case CHECKED_OUT, RETURNED, RETURNED_FOR_HOLD -> 200;
+            case BOOK_NOT_FOUND, BORROWER_NOT_FOUND -> 404;
+            case ALREADY_BORROWED, ON_HOLD, NOT_ON_LOAN -> 409;
+        };
+    }
+
+    private static int statusOf(HoldResult result) {
+        return switch (result) {
+            case PLACED -> 201;
+            case CANCELLED -> 200;
+            case BOOK_NOT_FOUND, BORROWER_NOT_FOUND, NOT_HELD -> 404;
+            case BOOK_AVAILABLE, ALREADY_ON_LOAN, ALREADY_HELD -> 409;
+        };
+    }
+
+    private static void writeRanking(JsonWriter json, List<CirculationStats.Ranked> rows, String idName,
+                                     String nameName, String detailName) throws IOException {
+        json.beginArray();
+        for (CirculationStats.Ranked row : rows) {
+            json.beginObject();
+            if (idName != null) {
+                json.name(idName).value(row.getId());
+            }
+            json.name(nameName).value(row.getName());
+            if (detailName != null) {
+                json.name(detailName).value(row.getDetail());
+            }
+            json.name("loans").value(row.getLoanCount())
+                    .name("active").value(row.getActive())
+                    .endObject();
+        }
+        json.endArray();
+    }
+
+    private static void writeHolds(JsonWriter json, List<Hold> holds) throws IOException {
+        json.beginArray();
+        for (Hold hold : holds) {
+            json.beginObject()
+                    .name("id").value(hold.getId())
+                    .name("bookId").value(hold.getBookId())
+                    .name("title").value(hold.getTitle())
+                    .name("borrowerId").value(hold.getBorrowerId())
+                    .name("borrowerName").value(hold.getBorrowerName())
+                    .name("status").value(hold.getStatus().name())
+                    .name("position").value(hold.getPosition())
+                    .name("placed").value(hold.getPlacedDate())
+                    .name("expires").value(hold.getExpiresDate())
+                    .endObject();
+        }
+        json.endArray();
+    }
+
+    private static void writeBooks(JsonWriter json, List<Book> books) throws IOException {
+        json.beginArray();
+        for (Book book : books) {
+            writeBook(json, book);
+        }
+        json.endArray();
+    }
+
+    private static void writeBook(JsonWriter json, Book book) throws IOException {
+        json.beginObject()
+                .name("id").value(book.getId())
+                .name("title").value(book.getTitle())
+                .name("author").value(book.getAuthor())
+                .name("genre").value(book.getGenre())
+                .name("borrowed").value(book.isBorrowed())
+                .endObject();
+    }
+
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private static byte[] render(JsonBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            body.write(new JsonWriter(out));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonBody body) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", render(body));
+    }
+
+    // Catalogue reads are tagged with a hash of the body. Clients revalidate
+    // every time (no-cache), but an unchanged page costs them no transfer.
+    private static void sendCacheable(HttpExchange exchange, JsonBody body) throws IOException {
+        byte[] bytes = render(body);
+        String etag = etagOf(bytes);
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            send(exchange, 304, null, null);
+        } else {
+            send(exchange, 200, "application/json; charset=utf-8", bytes);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String etagOf(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return '"' + HexFormat.of().formatHex(digest, 0, 12) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        boolean empty = body == null || exchange.getRequestMethod().equals("HEAD");
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, empty ? -1 : body.length);
+        if (!empty) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, Exception e) throws IOException {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (exchange.getResponseCode() != -1) {
+            return; // Already streaming (or the client went away); closing the exchange ends the response
+        }
+        int status;
+        if (cause instanceof ApiException api) {
+            status = api.status;
+        } else if (cause instanceof IllegalArgumentException) {
+            status = 400;
+        } else if (cause instanceof SQLException sql && (sql.getErrorCode() & 0xff) == SQLITE_CONSTRAINT) {
+            status = 409;
+        } else if (cause instanceof SQLException sql && DatabaseUtil.isBusy(sql)) {
+            status = 503;
+        } else {
+            status = 500;
+            cause.printStackTrace();
+        }
+        String message = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+        sendJson(exchange, status, json -> json.beginObject().name("error").value(message).endObject());
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (CancellationException e) {
+            throw new ApiException(503, "Request cancelled");
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            Map<String, Object> body = reader.readObject();
+            if (body == null) {
+                throw new ApiException(400, "Expected a JSON object");
+            }
+            return body;
+        } catch (IOException e) {
+            throw new ApiException(400, "Malformed JSON: " + e.getMessage());
+        }
+    }
+
+    private static int intField(Map<String, Object> body, String name) {
+        if (!(body.get(name) instanceof Number number) || number.doubleValue() != number.intValue()) {
+            throw new ApiException(400, name + " must be an integer");
+        }
+        return number.intValue();
+    }
+
+    private static List<Integer> intListField(Map<String, Object> body, String name, String what) {
+        if (!(body.get(name) instanceof List<?> list)) {
+            throw new ApiException(400, name + " must be an array of " + what);
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Object value : list) {
+            if (!(value instanceof Long number) || number != number.intValue()) {
+                throw new ApiException(400, name + " must be an array of " + what);
+            }
+            ids.add(number.intValue());
+        }
+        return ids;
+    }
+
+    private static String stringField(Map<String, Object> body, String name) {
+        String value = optionalString(body, name);
+        if (value == null || value.isEmpty()) {
+            throw new ApiException(400, name + " is required");
+        }
+        return value;
+    }
+
+    private static String optionalString(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw new ApiException(400, name + " must be a string");
+        }
+        return value == null ? null : ((String) value).trim();
+    }
+
+    private static void requireGet(String method) {
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            throw new ApiException(405, "Use GET");
+        }
+    }
+
+    private static ApiException notFound() {
+        return new ApiException(404, "Not found");
+    }
+
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Invalid id: " + text);
+        }
+    }
+
+    private static BookSort parseSort(String text) {
+        try {
+            return BookSort.valueOf(text.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "sort must be id, title, author or genre");
+        }
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue, int max) {
+        String text = query.get(name);
+        if (text == null) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(text);
+            if (value < 1) {
+                throw new ApiException(400, name + " must be positive");
+            }
+            return Math.min(value, max);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, name + " must be an integer");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> paths = DatabaseUtil.resolveBranches(args);
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+        String bind = System.getProperty(BIND_PROPERTY, "127.0.0.1");
+
+        LibraryBranches branches = LibraryBranches.open(paths);
+        // Desk writes to the same files reach this process's caches and availability indexes
+        branches.start().get();
+        for (String branch : branches.names()) {
+            branches.service(branch).getMetrics().registerMBean();
+        }
+        LibraryApiServer server = new LibraryApiServer(branches, new InetSocketAddress(bind, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                branches.close();
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+        }));
+        System.out.println("Serving " + (branches.isSingleBranch() ? paths.values().iterator().next() : paths)
+                + " on http://" + bind + ":" + server.getPort() + "/");
+    }
+}
@@ -0,0 +1,160 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.SchemaMigrator;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// The library's branches, each on its own database file with its own
+// connection pool, writer and LibraryService (see
+// DatabaseUtil.resolveBranches). Books, borrowers and loans belong to one
+// branch, so every call is routed to that branch's service and branches
+// never wait on each other's write lock. IDs are only unique within a
+// branch.
+//
+// A catalogue search across branches runs the same full-text query on every
+// branch at once. bm25 weighs each term by how rare it is in that branch's
+// catalogue, so raw ranks from different branches are not comparable; each
+// branch's ranks are first divided by its own best one, and the hits are then
+// merged on that relative score. The order within a branch is kept, and each
+// branch's best match ties for first place.
+public class LibraryBranches implements AutoCloseable {
+    // The branch this desk works at; the first configured branch if unset
+    public static final String BRANCH_PROPERTY = "library.branch";
+
+    private final Map<String, LibraryService> services;
+    private final List<DatabaseUtil> databases;
+
+    private LibraryBranches(Map<String, LibraryService> services, List<DatabaseUtil> databases) {
+        this.services = services;
+        this.databases = databases;
+    }
+
+    // Open and migrate each branch's database, in the given order
+    public static LibraryBranches open(Map<String, String> paths) throws SQLException {
+        Map<String, LibraryService> services = new LinkedHashMap<>();
+        List<DatabaseUtil> databases = new ArrayList<>();
+        LibraryBranches branches = new LibraryBranches(services, databases);
+        try {
+            for (Map.Entry<String, String> branch : paths.entrySet()) {
+                DatabaseUtil db = new DatabaseUtil(branch.getValue());
+                databases.add(db);
+                SchemaMigrator.migrate(db);
+                services.put(branch.getKey(), new LibraryService(db));
+            }
+        } catch (SQLException | RuntimeException e) {
+            branches.close();
+            throw e;
+        }
+        return branches;
+    }
+
+    // One service as the only branch; closing leaves its database open
+    public static LibraryBranches of(LibraryService service) {
+        Map<String, LibraryService> services = new LinkedHashMap<>();
+        services.put(DatabaseUtil.DEFAULT_BRANCH, service);
+        return new LibraryBranches(services, List.of());
+    }
+
+    public Set<String> names() {
+        return services.keySet();
+    }
+
+    public boolean isSingleBranch() {
+        return services.size() == 1;
+    }
+
+    // The branch named by library.branch, or the first one
+    public String localBranch() {
+        String branch = System.getProperty(BRANCH_PROPERTY);
+        if (branch == null || branch.isBlank()) {
+            return services.keySet().iterator().next();
+        }
+        if (!services.containsKey(branch.trim())) {
+            throw new IllegalArgumentException("Unknown branch " + branch.trim() + "; configured: " + names());
+        }
+        return branch.trim();
+    }
+
+    // The service for one branch, or null if there is no such branch
+    public LibraryService service(String branch) {
+        return services.get(branch);
+    }
+
+    public LibraryService defaultService() {
+        return services.values().iterator().next();
+    }
+
+    // Best matches for the search text across every branch, at most limit in
+    // all, best first. Branches are searched in parallel; if any fails, so
+    // does the whole search.
+    public CompletableFuture<List<CatalogueHit>> searchCatalogue(String text, int limit) {
+        return mergeBranches(service -> service.searchBooksRanked(text, limit), limit);
+    }
+
+    // Search as you type across every branch, merged the same way
+    public CompletableFuture<List<CatalogueHit>> suggestCatalogue(String text, int limit) {
+        return mergeBranches(service -> service.suggestBooksRanked(text, limit), limit);
+    }
+
+    private CompletableFuture<List<CatalogueHit>> mergeBranches(
+            Function<LibraryService, CompletableFuture<List<CatalogueHit>>> search, int limit) {
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<List<CatalogueHit>>> searches = new ArrayList<>();
+        for (Map.Entry<String, LibraryService> branch : services.entrySet()) {
+            names.add(branch.getKey());
+            searches.add(search.apply(branch.getValue()));
+        }
+        CompletableFuture<List<CatalogueHit>> merged = CompletableFuture.allOf(searches.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<CatalogueHit> hits = new ArrayList<>();
+                    for (int i = 0; i < searches.size(); i++) {
+                        List<CatalogueHit> branchHits = searches.get(i).join();
+                        double best = 0;
+                        for (CatalogueHit hit : branchHits) {
+                            best = Math.min(best, hit.getRank());
+                        }
+                        for (CatalogueHit hit : branchHits) {
+                            hits.add(hit.withBranch(names.get(i), best));
+                        }
+                    }
+                    // Stable, so equal ranks keep branch order and each branch's own order
+                    hits.sort(Comparator.comparingDouble(CatalogueHit::getRank));
+                    return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+                });
+        // Cancelling the merged search interrupts the branch searches still running
+        merged.whenComplete((hits, error) -> {
+            if (merged.isCancelled()) {
+                searches.forEach(future -> future.cancel(true));
+            }
+        });
+        return merged;
+    }
+
+    // Start each branch's background scans and change dispatcher, and load
+    // every availability index; the returned future completes once all are loaded
+    public CompletableFuture<Void> start() throws SQLException {
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (LibraryService service : services.values()) {
+            loads.add(service.loadAvailability());
+            service.startOverdueScheduler();
+            service.startChangeDispatcher();
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Closes every service, then the databases this opened
+    @Override
+    public void close() throws SQLException {
+        services.values().forEach(LibraryService::close);
+        for (DatabaseUtil db : databases) {
+            db.close();
+        }
+    }
+}
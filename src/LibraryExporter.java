@@ -0,0 +1,204 @@
+import com.example.library.CsvWriter;
+import com.example.library.DatabaseUtil;
+import com.example.library.JsonWriter;
+import com.example.library.PooledConnection;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Exports the library tables to CSV or newline-delimited JSON, and takes
+// online snapshot backups of the whole database. Rows are streamed from a
+// forward-only cursor straight to the output, so memory use does not depend
+// on table size. Exports run on a read-only connection and backups only need
+// a read transaction, so neither holds up checkouts while it runs.
+//
+// Usage: LibraryExporter export <csv|ndjson> <directory> [database]
+//        LibraryExporter backup <file> [database]
+public class LibraryExporter {
+    private static final int ROWS_PER_PROGRESS = 10_000;
+
+    public enum Format {
+        CSV("csv"),
+        NDJSON("ndjson");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Dates are stored as epoch days and exported as ISO-8601 dates.
+    // Archived loans come first, then the loans still in borrow_records.
+    public enum Table {
+        BOOKS("books", "SELECT id, title, author, author_id, genre, is_borrowed FROM books ORDER BY id"),
+        BORROWERS("borrowers", "SELECT id, name, email FROM borrowers ORDER BY id"),
+        BORROW_RECORDS("borrow_records", "SELECT id, book_id, borrower_id, "
+                + "date(borrow_date * 86400, 'unixepoch') AS borrow_date, "
+                + "date(return_date * 86400, 'unixepoch') AS return_date, "
+                + "date(due_date * 86400, 'unixepoch') AS due_date "
+                + "FROM borrow_records_archive "
+                + "UNION ALL SELECT id, book_id, borrower_id, "
+                + "date(borrow_date * 86400, 'unixepoch'), "
+                + "date(return_date * 86400, 'unixepoch'), "
+                + "date(due_date * 86400, 'unixepoch') "
+                + "FROM borrow_records");
+
+        private final String tableName;
+        private final String query;
+
+        Table(String tableName, String query) {
+            this.tableName = tableName;
+            this.query = query;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Progress {
+        void update(Table table, long rowsExported);
+    }
+
+    private final DatabaseUtil db;
+
+    public LibraryExporter(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Stream one table to out; returns the number of rows written
+    public long exportTable(Table table, Format format, Writer out) throws SQLException, IOException {
+        try {
+            return db.read("export.table", c -> {
+                try {
+                    return writeTable(c, table, format, out, null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Write every table to <directory>/<table>.<extension>. All tables are read
+    // in one read transaction, so together they form a consistent snapshot.
+    public Map<Table, Long> exportAll(Format format, Path directory, Progress progress)
+            throws SQLException, IOException {
+        Files.createDirectories(directory);
+        try (PooledConnection pooled = db.reader()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                Map<Table, Long> counts = new EnumMap<>(Table.class);
+                for (Table table : Table.values()) {
+                    Path file = directory.resolve(table.getTableName() + "." + format.getExtension());
+                    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                        counts.put(table, writeTable(pooled, table, format, out, progress));
+                    }
+                }
+                return counts;
+            } finally {
+                // Read-only, so ending the transaction just releases the snapshot
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Consistent copy of the whole database; see DatabaseUtil.backupTo
+    public void backup(Path target) throws SQLException, IOException {
+        db.backupTo(target);
+    }
+
+    private static long writeTable(PooledConnection c, Table table, Format format, Writer out, Progress progress)
+            throws SQLException, IOException {
+        PreparedStatement ps = c.prepare(table.query);
+        try (ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            String[] columns = new String[meta.getColumnCount()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = meta.getColumnLabel(i + 1);
+            }
+            CsvWriter csv = format == Format.CSV ? new CsvWriter(out) : null;
+            JsonWriter json = format == Format.NDJSON ? new JsonWriter(out) : null;
+            if (csv != null) {
+                csv.writeRecord((Object[]) columns);
+            }
+            Object[] values = new Object[columns.length];
+            long rows = 0;
+            while (rs.next()) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = rs.getObject(i + 1);
+                }
+                if (csv != null) {
+                    csv.writeRecord(values);
+                } else {
+                    json.beginObject();
+                    for (int i = 0; i < values.length; i++) {
+                        json.name(columns[i]).value(values[i]);
+                    }
+                    json.endObject().newline();
+                }
+                if (++rows % ROWS_PER_PROGRESS == 0) {
+                    DatabaseUtil.checkInterrupted();
+                    if (progress != null) {
+                        progress.update(table, rows);
+                    }
+                }
+            }
+            out.flush();
+            if (progress != null) {
+                progress.update(table, rows);
+            }
+            return rows;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || !(args[0].equals("export") && args.length >= 3 || args[0].equals("backup"))) {
+            System.err.println("Usage: LibraryExporter export <csv|ndjson> <directory> [database]");
+            System.err.println("       LibraryExporter backup <file> [database]");
+            System.exit(2);
+        }
+        boolean export = args[0].equals("export");
+        int databaseArg = export ? 3 : 2;
+        String[] databaseArgs = args.length > databaseArg ? new String[]{args[databaseArg]} : new String[0];
+        try (DatabaseUtil db = new DatabaseUtil(DatabaseUtil.resolvePath(databaseArgs), 1)) {
+            LibraryExporter exporter = new LibraryExporter(db);
+            long start = System.nanoTime();
+            if (export) {
+                Format format = Format.valueOf(args[1].toUpperCase(Locale.ROOT));
+                Map<Table, Long> counts = exporter.exportAll(format, Paths.get(args[2]), null);
+                counts.forEach((table, rows) -> System.out.printf("%s: %,d rows%n", table.getTableName(), rows));
+            } else {
+                exporter.backup(Paths.get(args[1]));
+                System.out.println("Backup written to " + args[1]);
+            }
+            System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+        } catch (IOException | SQLException | IllegalArgumentException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
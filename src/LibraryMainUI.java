@@ -1,13 +1,28 @@
+import com.example.library.DatabaseMetrics;
+import com.example.library.DatabaseUtil;
+import com.example.library.MetricsHttpServer;
+
+import javax.management.JMException;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.sql.*;
-import java.time.Instant;
-import java.time.LocalDate;
-import java.time.ZoneId;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class LibraryMainUI extends JFrame {
     private JButton manageBooksButton;
@@ -16,22 +31,37 @@ public class LibraryMainUI extends JFrame {
     private JButton registerNewBorrowerButton;
     private JButton listBorrowersButton;
     private JButton manageBorrowRecordsButton;
-    private JButton searchBorrowerByEmailButton;
+    private JButton batchDeskButton;
+    private JButton findBorrowerButton;
+    private JButton importCatalogButton;
+    private JButton exportBackupButton;
+    private JButton overdueLoansButton;
+    private JButton statisticsButton;
     private JDialog bookManagementDialog;
     private JTextField titleField, authorField, genreField;
-    private JCheckBox isBorrowedCheckBox;
 
-    //interaction with database
-    Connection connection;
+    private static final int LOAN_HISTORY_PAGE_SIZE = 200;
+    private static final int SEARCH_RESULT_LIMIT = 20;
+    private static final int SEARCH_DEBOUNCE_MILLIS = 250;
+    private static final int OVERDUE_REPORT_LIMIT = 1000;
+    private static final int STATS_TOP = 25;
+    private static final int STATS_DAYS = 30;
+
+    //interaction with database; every call runs off the Event Dispatch Thread
+    private final LibraryService service;
+    // Every branch, for searches across them; this desk's branch is service
+    private final LibraryBranches branches;
+    private JButton searchAllBranchesButton;
 
-    public LibraryMainUI(Connection connection) {
-        this.connection = connection; // Assign the passed connection to the class field
+    public LibraryMainUI(LibraryBranches branches, String branch) {
+        this.branches = branches;
+        this.service = branches.service(branch);
 
         // The rest of your existing constructor code
-        setTitle("Library Management System");
-        setSize(400, 300);
+        setTitle(branches.isSingleBranch() ? "Library Management System" : "Library Management System - " + branch);
+        setSize(400, branches.isSingleBranch() ? 500 : 540);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setLayout(new GridLayout(7, 1, 10, 10));
+        setLayout(new GridLayout(branches.isSingleBranch() ? 12 : 13, 1, 10, 10));
 
 
         // Initialize buttons and add action listeners
@@ -54,18 +84,23 @@ public class LibraryMainUI extends JFrame {
         manageBorrowRecordsButton = new JButton("Manage Borrow Records");
         manageBorrowRecordsButton.addActionListener(new ManageBorrowRecordsAction());
 
-        searchBorrowerByEmailButton = new JButton("Search Borrower by Email");
-        searchBorrowerByEmailButton.addActionListener(e -> {
-            String email = JOptionPane.showInputDialog(this, "Enter the borrower's email:");
-            if (email != null && !email.trim().isEmpty()) {
-                Integer borrowerId = getBorrowerIdByEmail(email.trim());
-                if (borrowerId != null) {
-                    JOptionPane.showMessageDialog(this, "Borrower ID: " + borrowerId);
-                }
-            } else {
-                JOptionPane.showMessageDialog(this, "Please enter a valid email.");
-            }
-        });
+        batchDeskButton = new JButton("Batch Checkout / Return");
+        batchDeskButton.addActionListener(new BatchDeskAction());
+
+        findBorrowerButton = new JButton("Find Borrower");
+        findBorrowerButton.addActionListener(new FindBorrowerAction());
+
+        importCatalogButton = new JButton("Import Catalogue");
+        importCatalogButton.addActionListener(new ImportCatalogAction());
+
+        exportBackupButton = new JButton("Export / Backup");
+        exportBackupButton.addActionListener(new ExportBackupAction());
+
+        overdueLoansButton = new JButton("Overdue Loans");
+        overdueLoansButton.addActionListener(new OverdueLoansAction());
+
+        statisticsButton = new JButton("Circulation Statistics");
+        statisticsButton.addActionListener(new StatisticsAction());
 
         // Add buttons to the frame
         add(manageBooksButton);
@@ -74,132 +109,354 @@ public class LibraryMainUI extends JFrame {
         add(registerNewBorrowerButton);
         add(listBorrowersButton);
         add(manageBorrowRecordsButton);
-        add(searchBorrowerByEmailButton);
+        add(batchDeskButton);
+        add(findBorrowerButton);
+        add(importCatalogButton);
+        add(exportBackupButton);
+        add(overdueLoansButton);
+        add(statisticsButton);
+        if (!branches.isSingleBranch()) {
+            searchAllBranchesButton = new JButton("Search All Branches");
+            searchAllBranchesButton.addActionListener(new SearchAllBranchesAction());
+            add(searchAllBranchesButton);
+        }
     }
-    public Integer getBorrowerIdByEmail(String email) {
-        try {
-            //SQL query to return borrower ID
-            PreparedStatement ps = connection.prepareStatement("SELECT id FROM borrowers WHERE email = ?");
-            ps.setString(1, email);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
-            } else {
-                JOptionPane.showMessageDialog(this, "No borrower found with the email: " + email);
-                return null;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error retrieving borrower ID: " + e.getMessage());
-            return null;
+
+    // Catalogue search over every branch at once, as you type; each hit
+    // names the branch that holds the book
+    private class SearchAllBranchesAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JTextField searchField = new JTextField(30);
+            DefaultListModel<CatalogueHit> resultsModel = new DefaultListModel<>();
+            JList<CatalogueHit> resultsList = new JList<>(resultsModel);
+            resultsList.setVisibleRowCount(15);
+            resultsList.setCellRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                              boolean isSelected, boolean cellHasFocus) {
+                    CatalogueHit hit = (CatalogueHit) value;
+                    Book book = hit.getBook();
+                    String text = hit.getBranch() + ": " + book.getId() + " - " + book.getTitle()
+                            + " (" + book.getAuthor() + ")" + (book.isBorrowed() ? " - on loan" : "");
+                    return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+                }
+            });
+
+            JDialog dialog = new JDialog(LibraryMainUI.this, "Search All Branches", false);
+            dialog.setLayout(new BorderLayout());
+            JPanel searchPanel = new JPanel(new BorderLayout());
+            searchPanel.add(new JLabel("Title, author or genre: "), BorderLayout.WEST);
+            searchPanel.add(searchField, BorderLayout.CENTER);
+            dialog.add(searchPanel, BorderLayout.NORTH);
+            dialog.add(new JScrollPane(resultsList), BorderLayout.CENTER);
+
+            List<CompletableFuture<List<CatalogueHit>>> pendingSearch = new ArrayList<>();
+            Timer searchTimer = UiTasks.debounce(searchField, SEARCH_DEBOUNCE_MILLIS, () -> {
+                pendingSearch.forEach(future -> future.cancel(true));
+                pendingSearch.clear();
+                String searchText = searchField.getText().trim();
+                if (!BookSearchQuery.canSuggest(searchText)) {
+                    resultsModel.clear();
+                    return;
+                }
+                CompletableFuture<List<CatalogueHit>> future = branches.suggestCatalogue(searchText, SEARCH_RESULT_LIMIT);
+                pendingSearch.add(future);
+                UiTasks.run(dialog, "Searching...", "Error searching branches", future, hits -> {
+                    resultsModel.clear();
+                    resultsModel.addAll(hits);
+                });
+            });
+            // Enter runs the full, fully ranked search, however short the text
+            searchField.addActionListener(ev -> {
+                searchTimer.stop();
+                pendingSearch.forEach(future -> future.cancel(true));
+                pendingSearch.clear();
+                String searchText = searchField.getText().trim();
+                if (searchText.isEmpty()) {
+                    resultsModel.clear();
+                    return;
+                }
+                CompletableFuture<List<CatalogueHit>> future = branches.searchCatalogue(searchText, SEARCH_RESULT_LIMIT);
+                pendingSearch.add(future);
+                UiTasks.run(dialog, "Searching...", "Error searching branches", future, hits -> {
+                    resultsModel.clear();
+                    resultsModel.addAll(hits);
+                });
+            });
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent ev) {
+                    searchTimer.stop();
+                    pendingSearch.forEach(future -> future.cancel(true));
+                }
+            });
+
+            dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+            dialog.setSize(600, 400);
+            dialog.setLocationRelativeTo(LibraryMainUI.this);
+            dialog.setVisible(true);
         }
     }
 
-    // Get all borrowers from the database
-    public List<Borrower> getBorrowers() {
-        List<Borrower> borrowers = new ArrayList<>();
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM borrowers");
-            while (rs.next()) {
-                borrowers.add(new Borrower(
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getString("email")
-                ));
+    private class StatisticsAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            UiTasks.run(LibraryMainUI.this, "Loading statistics...", "Error loading statistics",
+                    service.circulationStats(STATS_TOP, STATS_DAYS), this::showStatistics);
+        }
+
+        private void showStatistics(CirculationStats stats) {
+            JTabbedPane tabs = new JTabbedPane();
+            JLabel totals = new JLabel(" ");
+            fill(tabs, totals, stats);
+
+            JFrame frame = new JFrame("Circulation Statistics");
+            frame.add(tabs, BorderLayout.CENTER);
+            frame.add(totals, BorderLayout.SOUTH);
+
+            // Loans and book edits from any desk reload the dashboard, one load
+            // at a time; changes that arrive during a load trigger one more
+            boolean[] loading = {false, false};
+            Runnable unsubscribe = service.getChangeDispatcher().subscribe(changes -> {
+                if (!Change.rowIds(changes, Change.Table.BORROW_RECORDS).isEmpty()
+                        || !Change.rowIds(changes, Change.Table.BOOKS).isEmpty()) {
+                    SwingUtilities.invokeLater(() -> reload(tabs, totals, loading));
+                }
+            });
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent ev) {
+                    unsubscribe.run();
+                }
+            });
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.setSize(700, 400);
+            frame.setVisible(true);
+        }
+
+        // loading = {a load is running, another is wanted after it}
+        private void reload(JTabbedPane tabs, JLabel totals, boolean[] loading) {
+            if (loading[0]) {
+                loading[1] = true;
+                return;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            loading[0] = true;
+            service.circulationStats(STATS_TOP, STATS_DAYS).whenComplete((stats, error) -> SwingUtilities.invokeLater(() -> {
+                loading[0] = false;
+                if (error != null) {
+                    error.printStackTrace();
+                } else if (tabs.isDisplayable()) {
+                    fill(tabs, totals, stats);
+                }
+                if (loading[1]) {
+                    loading[1] = false;
+                    reload(tabs, totals, loading);
+                }
+            }));
         }
-        return borrowers;
-    }
 
-    // Get all books from the database
-    public List<Book> getAllBooks() {
-        List<Book> books = new ArrayList<>();
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM books");
-            while (rs.next()) {
-                books.add(new Book(
-                        rs.getInt("id"),
-                        rs.getString("title"),
-                        rs.getString("author"),
-                        rs.getString("genre"),
-                        rs.getBoolean("is_borrowed")
-                ));
+        private void fill(JTabbedPane tabs, JLabel totals, CirculationStats stats) {
+            int selected = tabs.getSelectedIndex();
+            tabs.removeAll();
+            tabs.addTab("Most Borrowed", rankingTable(new String[]{"Book ID", "Title", "Author", "Loans", "Out Now"},
+                    stats.getTopBooks(), true));
+            tabs.addTab("Busiest Borrowers", rankingTable(new String[]{"Borrower ID", "Name", "Email", "Loans", "Out Now"},
+                    stats.getTopBorrowers(), true));
+            tabs.addTab("Genres", rankingTable(new String[]{"Genre", "Loans", "Out Now"}, stats.getGenres(), false));
+
+            Object[][] days = new Object[stats.getDays().size()][];
+            for (int i = 0; i < days.length; i++) {
+                CirculationStats.Day day = stats.getDays().get(i);
+                days[i] = new Object[]{day.getDate(), day.getCheckouts(), day.getReturns()};
+            }
+            tabs.addTab("Last " + STATS_DAYS + " Days",
+                    new JScrollPane(new JTable(days, new String[]{"Date", "Checkouts", "Returns"})));
+            if (selected >= 0) {
+                tabs.setSelectedIndex(selected);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            totals.setText(String.format("%,d loans in all, %,d out now", stats.getTotalLoans(), stats.getActiveLoans()));
         }
-        return books;
-    }
 
-    // Get all authors from the database
-    public List<String> getAuthors() {
-        List<String> authors = new ArrayList<>();
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT DISTINCT author FROM books");
-            while (rs.next()) {
-                authors.add(rs.getString("author"));
+        private JScrollPane rankingTable(String[] columns, List<CirculationStats.Ranked> rows, boolean withId) {
+            Object[][] data = new Object[rows.size()][];
+            for (int i = 0; i < data.length; i++) {
+                CirculationStats.Ranked row = rows.get(i);
+                data[i] = withId
+                        ? new Object[]{row.getId(), row.getName(), row.getDetail(), row.getLoanCount(), row.getActive()}
+                        : new Object[]{row.getName().isEmpty() ? "(none)" : row.getName(), row.getLoanCount(), row.getActive()};
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            JTable table = new JTable(data, columns);
+            table.setDefaultEditor(Object.class, null);
+            return new JScrollPane(table);
         }
-        return authors;
     }
-    // Get a specific book by its ID from the database
-    public Book getBookById(int id) {
-        Book book = null;
-        try {
-            PreparedStatement ps = connection.prepareStatement("SELECT * FROM books WHERE id = ?");
-            ps.setInt(1, id);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                book = new Book(
-                        rs.getInt("id"),
-                        rs.getString("title"),
-                        rs.getString("author"),
-                        rs.getString("genre"),
-                        rs.getBoolean("is_borrowed")
-                );
+
+    // The overdue report and the queue of notices waiting to go out
+    private record OverdueView(List<OverdueLoan> loans, int totalOverdue, List<LoanNotice> notices, int totalNotices) {
+    }
+
+    private class OverdueLoansAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            UiTasks.run(LibraryMainUI.this, "Loading overdue loans...", "Error loading overdue loans",
+                    loadView(), this::showOverdue);
+        }
+
+        private CompletableFuture<OverdueView> loadView() {
+            CompletableFuture<List<OverdueLoan>> loans = service.overdueLoans(OVERDUE_REPORT_LIMIT);
+            CompletableFuture<Integer> totalOverdue = service.countOverdueLoans();
+            CompletableFuture<List<LoanNotice>> notices = service.pendingNotices(OVERDUE_REPORT_LIMIT);
+            CompletableFuture<Integer> totalNotices = service.countPendingNotices();
+            return CompletableFuture.allOf(loans, totalOverdue, notices, totalNotices)
+                    .thenApply(done -> new OverdueView(loans.join(), totalOverdue.join(), notices.join(), totalNotices.join()));
+        }
+
+        private void showOverdue(OverdueView view) {
+            String[] loanColumns = {"Book ID", "Title", "Borrower ID", "Borrower", "Email", "Due Date", "Days Overdue"};
+            DefaultTableModel loanModel = readOnlyModel(loanColumns);
+            String[] noticeColumns = {"Notice ID", "Kind", "Book ID", "Borrower ID", "Due Date", "Queued"};
+            DefaultTableModel noticeModel = readOnlyModel(noticeColumns);
+            JLabel summary = new JLabel(" ");
+            fill(view, loanModel, noticeModel, summary);
+
+            JTable noticeTable = new JTable(noticeModel);
+            JButton markSentButton = new JButton("Mark Selected Sent");
+            JButton scanButton = new JButton("Scan Now");
+            markSentButton.addActionListener(ev -> {
+                int[] rows = noticeTable.getSelectedRows();
+                if (rows.length == 0) {
+                    JOptionPane.showMessageDialog(noticeTable, "Please select the notices that were sent.");
+                    return;
+                }
+                List<Integer> ids = new ArrayList<>();
+                for (int row : rows) {
+                    ids.add((Integer) noticeModel.getValueAt(row, 0));
+                }
+                UiTasks.runWrite(noticeTable, "Marking notices sent...", "Error updating notices",
+                        service.markNoticesSent(ids).thenCompose(updated -> loadView()),
+                        refreshed -> fill(refreshed, loanModel, noticeModel, summary));
+            });
+            scanButton.addActionListener(ev -> UiTasks.run(scanButton, "Scanning loans...", "Error scanning loans",
+                    service.scanOverdue().thenCompose(result -> loadView()),
+                    refreshed -> fill(refreshed, loanModel, noticeModel, summary)));
+
+            JPanel noticePanel = new JPanel(new BorderLayout());
+            noticePanel.add(new JScrollPane(noticeTable), BorderLayout.CENTER);
+            JPanel noticeButtons = new JPanel(new GridLayout(1, 2));
+            noticeButtons.add(markSentButton);
+            noticeButtons.add(scanButton);
+            noticePanel.add(noticeButtons, BorderLayout.SOUTH);
+
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.addTab("Overdue Loans", new JScrollPane(new JTable(loanModel)));
+            tabs.addTab("Pending Notices", noticePanel);
+
+            JFrame frame = new JFrame("Overdue Loans");
+            frame.add(tabs, BorderLayout.CENTER);
+            frame.add(summary, BorderLayout.SOUTH);
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.setSize(800, 400);
+            frame.setVisible(true);
+        }
+
+        private void fill(OverdueView view, DefaultTableModel loanModel, DefaultTableModel noticeModel, JLabel summary) {
+            loanModel.setRowCount(0);
+            for (OverdueLoan loan : view.loans()) {
+                loanModel.addRow(new Object[]{loan.getBookId(), loan.getTitle(), loan.getBorrowerId(),
+                        loan.getBorrowerName(), loan.getBorrowerEmail(), loan.getDueDate(), loan.getDaysOverdue()});
+            }
+            noticeModel.setRowCount(0);
+            for (LoanNotice notice : view.notices()) {
+                noticeModel.addRow(new Object[]{notice.getId(), notice.getKind(), notice.getBookId(),
+                        notice.getBorrowerId(), notice.getDueDate(), notice.getCreatedDate()});
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            OverdueScheduler.Result lastScan = service.getOverdueScheduler().getLastResult();
+            summary.setText(String.format("%,d loans overdue, %,d notices waiting to be sent%s", view.totalOverdue(),
+                    view.totalNotices(), lastScan == null ? "" : ". Last scan: " + lastScan));
+        }
+
+        private DefaultTableModel readOnlyModel(String[] columns) {
+            return new DefaultTableModel(columns, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
         }
-        return book;
     }
-    public List<BorrowRecord> getBorrowRecordsByBorrower(int borrowerId) {
-        List<BorrowRecord> records = new ArrayList<>();
-        try {
-            PreparedStatement ps = connection.prepareStatement("SELECT * FROM borrow_records WHERE borrower_id = ?");
-            ps.setInt(1, borrowerId);
-            ResultSet rs = ps.executeQuery();
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                int bookId = rs.getInt("book_id");
-                LocalDate borrowDate = Instant.ofEpochMilli(rs.getLong("borrow_date"))
-                        .atZone(ZoneId.systemDefault())
-                        .toLocalDate();
+    private class ExportBackupAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            String[] options = {"Export Tables", "Backup Database", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(LibraryMainUI.this, "Export the tables or back up the whole database?",
+                    "Export / Backup", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+            if (choice == 0) {
+                exportTables();
+            } else if (choice == 1) {
+                backupDatabase();
+            }
+        }
 
-                LocalDate returnDate = null;
-                if (rs.getObject("return_date") != null) {
-                    returnDate = Instant.ofEpochMilli(rs.getLong("return_date"))
-                            .atZone(ZoneId.systemDefault())
-                            .toLocalDate();
-                }
+        private void exportTables() {
+            LibraryExporter.Format format = (LibraryExporter.Format) JOptionPane.showInputDialog(LibraryMainUI.this,
+                    "Export format:", "Export Tables", JOptionPane.QUESTION_MESSAGE, null,
+                    LibraryExporter.Format.values(), LibraryExporter.Format.CSV);
+            if (format == null) {
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Export to Folder");
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showSaveDialog(LibraryMainUI.this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path directory = chooser.getSelectedFile().toPath();
+            AtomicReference<String> status = new AtomicReference<>("Starting...");
+            UiTasks.run(LibraryMainUI.this, "Exporting tables...", status::get, "Error exporting tables",
+                    service.exportTables(format, directory, (table, rows) ->
+                            status.set(String.format("%s: %,d rows", table.getTableName(), rows))),
+                    counts -> {
+                        StringBuilder message = new StringBuilder("Exported to " + directory + ":");
+                        counts.forEach((table, rows) ->
+                                message.append(String.format("%n%s: %,d rows", table.getTableName(), rows)));
+                        JOptionPane.showMessageDialog(LibraryMainUI.this, message.toString());
+                    });
+        }
 
-                records.add(new BorrowRecord(id, bookId, borrowerId, borrowDate, returnDate));
+        private void backupDatabase() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Backup Database");
+            chooser.setSelectedFile(new File("library-backup.db"));
+            if (chooser.showSaveDialog(LibraryMainUI.this) != JFileChooser.APPROVE_OPTION) {
+                return;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            Path target = chooser.getSelectedFile().toPath();
+            UiTasks.run(LibraryMainUI.this, "Backing up database...", "Error backing up database",
+                    service.backupDatabase(target),
+                    ignored -> JOptionPane.showMessageDialog(LibraryMainUI.this, "Backup written to " + target));
         }
-        return records;
     }
 
+    private class ImportCatalogAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Import Catalogue");
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV or JSON files", "csv", "json", "ndjson", "jsonl"));
+            if (chooser.showOpenDialog(LibraryMainUI.this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            AtomicReference<String> status = new AtomicReference<>("Starting...");
+            UiTasks.runWrite(LibraryMainUI.this, "Importing " + file.getFileName() + "...", status::get,
+                    "Error importing catalogue",
+                    service.importCatalog(file, (rows, rate) ->
+                            status.set(String.format("%,d books imported (%,.0f rows/s)", rows, rate))),
+                    result -> JOptionPane.showMessageDialog(LibraryMainUI.this, result.toString()));
+        }
+    }
 
     private class ManageBooksAction implements ActionListener {
         @Override
@@ -216,7 +473,6 @@ public class LibraryMainUI extends JFrame {
             titleField = new JTextField(20);
             authorField = new JTextField(20);
             genreField = new JTextField(20);
-            isBorrowedCheckBox = new JCheckBox("Is Borrowed");
 
             // Adding components to the dialog
             gbc.gridx = 0;
@@ -239,15 +495,11 @@ public class LibraryMainUI extends JFrame {
             gbc.gridx = 1;
             bookManagementDialog.add(genreField, gbc);
 
-            gbc.gridx = 0;
-            gbc.gridy = 3;
-            bookManagementDialog.add(isBorrowedCheckBox, gbc);
-
             // Buttons for adding, updating, and deleting books
             JButton addBookButton = new JButton("Add Book");
             addBookButton.addActionListener(new AddBookAction());
             gbc.gridx = 0;
-            gbc.gridy = 4;
+            gbc.gridy = 3;
             bookManagementDialog.add(addBookButton, gbc);
 
             JButton updateBookButton = new JButton("Update Book");
@@ -258,7 +510,7 @@ public class LibraryMainUI extends JFrame {
             JButton deleteBookButton = new JButton("Delete Book");
             deleteBookButton.addActionListener(new DeleteBookAction());
             gbc.gridx = 0;
-            gbc.gridy = 5;
+            gbc.gridy = 4;
             bookManagementDialog.add(deleteBookButton, gbc);
 
             // Set dialog to be visible
@@ -273,22 +525,14 @@ public class LibraryMainUI extends JFrame {
             String title = titleField.getText();
             String author = authorField.getText();
             String genre = genreField.getText();
-            boolean isBorrowed = isBorrowedCheckBox.isSelected();
 
-            try {
-                PreparedStatement ps = connection.prepareStatement("INSERT INTO books (title, author, genre, is_borrowed) VALUES (?, ?, ?, ?)");
-                ps.setString(1, title);
-                ps.setString(2, author);
-                ps.setString(3, genre);
-                ps.setBoolean(4, isBorrowed);
-                ps.executeUpdate();
-
-                JOptionPane.showMessageDialog(bookManagementDialog, "Book added successfully!");
-                bookManagementDialog.dispose();
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(bookManagementDialog, "Error adding book: " + ex.getMessage());
-            }
+            // New books go on the shelf; lending them out is a checkout
+            JDialog dialog = bookManagementDialog;
+            UiTasks.runWrite(dialog, "Adding book...", "Error adding book",
+                    service.addBook(title, author, genre), ignored -> {
+                        JOptionPane.showMessageDialog(dialog, "Book added successfully!");
+                        dialog.dispose();
+                    });
         }
     }
 
@@ -310,8 +554,12 @@ public class LibraryMainUI extends JFrame {
                 return;
             }
 
-            // Fetch the book details from the database
-            Book book = getBookById(bookId);
+            // Fetch the book details from the database, then show the form
+            UiTasks.run(LibraryMainUI.this, "Loading book...", "Error loading book",
+                    service.getBook(bookId), book -> showUpdateForm(bookId, book));
+        }
+
+        private void showUpdateForm(int bookId, Book book) {
             if (book == null) {
                 JOptionPane.showMessageDialog(LibraryMainUI.this, "Book not found!");
                 return;
@@ -321,17 +569,15 @@ public class LibraryMainUI extends JFrame {
             JTextField titleField = new JTextField(book.getTitle());
             JTextField authorField = new JTextField(book.getAuthor());
             JTextField genreField = new JTextField(book.getGenre());
-            JCheckBox isBorrowedCheckBox = new JCheckBox("Is Borrowed", book.isBorrowed());
 
-            JPanel updatePanel = new JPanel(new GridLayout(4, 2));
+            // Loan state is not editable here: it changes only with a checkout or return
+            JPanel updatePanel = new JPanel(new GridLayout(3, 2));
             updatePanel.add(new JLabel("Title:"));
             updatePanel.add(titleField);
             updatePanel.add(new JLabel("Author:"));
             updatePanel.add(authorField);
             updatePanel.add(new JLabel("Genre:"));
             updatePanel.add(genreField);
-            updatePanel.add(new JLabel("Is Borrowed:"));
-            updatePanel.add(isBorrowedCheckBox);
 
             // Show the dialog
             int result = JOptionPane.showConfirmDialog(
@@ -346,29 +592,16 @@ public class LibraryMainUI extends JFrame {
                 String updatedTitle = titleField.getText();
                 String updatedAuthor = authorField.getText();
                 String updatedGenre = genreField.getText();
-                boolean updatedBorrowedStatus = isBorrowedCheckBox.isSelected();
 
-                try {
-                    // Update the book details in the database
-                    PreparedStatement ps = connection.prepareStatement(
-                            "UPDATE books SET title = ?, author = ?, genre = ?, is_borrowed = ? WHERE id = ?"
-                    );
-                    ps.setString(1, updatedTitle);
-                    ps.setString(2, updatedAuthor);
-                    ps.setString(3, updatedGenre);
-                    ps.setBoolean(4, updatedBorrowedStatus);
-                    ps.setInt(5, bookId);
-
-                    int rowsAffected = ps.executeUpdate();
-                    if (rowsAffected > 0) {
-                        JOptionPane.showMessageDialog(LibraryMainUI.this, "Book updated successfully!");
-                    } else {
-                        JOptionPane.showMessageDialog(LibraryMainUI.this, "Failed to update the book!");
-                    }
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Error updating book: " + ex.getMessage());
-                }
+                // Update the book details in the database
+                UiTasks.runWrite(LibraryMainUI.this, "Updating book...", "Error updating book",
+                        service.updateBook(bookId, updatedTitle, updatedAuthor, updatedGenre), updated -> {
+                            if (updated) {
+                                JOptionPane.showMessageDialog(LibraryMainUI.this, "Book updated successfully!");
+                            } else {
+                                JOptionPane.showMessageDialog(LibraryMainUI.this, "Failed to update the book!");
+                            }
+                        });
             }
         }
     }
@@ -389,69 +622,81 @@ public class LibraryMainUI extends JFrame {
                 return;
             }
 
-            try {
-                // Begin transaction
-                connection.setAutoCommit(false);
-
-                // Delete related borrow records
-                PreparedStatement ps = connection.prepareStatement("DELETE FROM borrow_records WHERE book_id = ?");
-                ps.setInt(1, bookId);
-                ps.executeUpdate();
-
-                // Delete the book
-                ps = connection.prepareStatement("DELETE FROM books WHERE id = ?");
-                ps.setInt(1, bookId);
-                int rowsAffected = ps.executeUpdate();
-
-                if (rowsAffected > 0) {
-                    connection.commit(); // Commit transaction
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Book and related borrow records deleted successfully!");
-                } else {
-                    connection.rollback(); // Rollback transaction if book not found
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Book not found!");
-                }
-            } catch (SQLException ex) {
-                try {
-                    connection.rollback(); // Rollback transaction on error
-                } catch (SQLException rollbackEx) {
-                    rollbackEx.printStackTrace();
-                }
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(LibraryMainUI.this, "Error deleting book: " + ex.getMessage());
-            } finally {
-                try {
-                    connection.setAutoCommit(true); // Restore auto-commit mode
-                } catch (SQLException autoCommitEx) {
-                    autoCommitEx.printStackTrace();
-                }
-            }
+            // Deletes the book and its borrow records in one transaction
+            UiTasks.runWrite(LibraryMainUI.this, "Deleting book...", "Error deleting book",
+                    service.deleteBook(bookId), deleted -> {
+                        if (deleted) {
+                            JOptionPane.showMessageDialog(LibraryMainUI.this, "Book and related borrow records deleted successfully!");
+                        } else {
+                            JOptionPane.showMessageDialog(LibraryMainUI.this, "Book not found!");
+                        }
+                    });
         }
     }
 
     private class ListBooksAction implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            List<Book> books = getAllBooks();
-            String[] columnNames = {"ID", "Title", "Author", "Genre", "Is Borrowed"};
-            Object[][] data = new Object[books.size()][5];
+            // Rows are loaded page by page as the table scrolls
+            BookTableModel model = new BookTableModel(service);
+            model.refresh();
 
-            for (int i = 0; i < books.size(); i++) {
-                Book book = books.get(i);
-                data[i] = new Object[]{book.getId(), book.getTitle(), book.getAuthor(), book.getGenre(), book.isBorrowed()};
-            }
-
-            JTable bookTable = new JTable(data, columnNames);
+            JTable bookTable = new JTable(model);
             JScrollPane scrollPane = new JScrollPane(bookTable);
 
+            // Clicking a column header sorts on the database side
+            bookTable.getTableHeader().addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent ev) {
+                    int column = bookTable.columnAtPoint(ev.getPoint());
+                    if (column >= 0) {
+                        model.sortByColumn(bookTable.convertColumnIndexToModel(column));
+                    }
+                }
+            });
+
             // Create a panel for the search functionality
             JPanel searchPanel = new JPanel(new BorderLayout());
             JTextField searchField = new JTextField(20);
             JButton searchButton = new JButton("Find Book ID");
+            DefaultListModel<Book> resultsModel = new DefaultListModel<>();
+            JList<Book> resultsList = new JList<>(resultsModel);
+            resultsList.setVisibleRowCount(5);
+            resultsList.setCellRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                              boolean isSelected, boolean cellHasFocus) {
+                    Book book = (Book) value;
+                    String text = book.getId() + " - " + book.getTitle() + " (" + book.getAuthor() + ")";
+                    return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+                }
+            });
 
             // Add search field and button to the search panel
             searchPanel.add(new JLabel("Enter Book Name: "), BorderLayout.WEST);
             searchPanel.add(searchField, BorderLayout.CENTER);
             searchPanel.add(searchButton, BorderLayout.EAST);
+            searchPanel.add(new JScrollPane(resultsList), BorderLayout.SOUTH);
+
+            // Search as you type: wait for a pause in typing and for a word of
+            // a few letters, then run one bounded full-text query and drop the
+            // result of any query it replaces. The button runs the full search.
+            List<CompletableFuture<List<Book>>> pendingSearch = new ArrayList<>();
+            Timer searchTimer = UiTasks.debounce(searchField, SEARCH_DEBOUNCE_MILLIS, () -> {
+                pendingSearch.forEach(future -> future.cancel(true));
+                pendingSearch.clear();
+                String searchText = searchField.getText().trim();
+                if (!BookSearchQuery.canSuggest(searchText)) {
+                    resultsModel.clear();
+                    return;
+                }
+                CompletableFuture<List<Book>> future = service.suggestBooks(searchText, SEARCH_RESULT_LIMIT);
+                pendingSearch.add(future);
+                UiTasks.run(searchPanel, "Searching...", "Error searching books", future, books -> {
+                    resultsModel.clear();
+                    resultsModel.addAll(books);
+                });
+            });
 
             // Add an ActionListener to the search button
             searchButton.addActionListener(ev -> {
@@ -461,25 +706,59 @@ public class LibraryMainUI extends JFrame {
                     return;
                 }
 
-                // Search for the book in the list
-                Book foundBook = null;
-                for (Book book : books) {
-                    if (book.getTitle().equalsIgnoreCase(searchText)) {
-                        foundBook = book;
-                        break;
-                    }
-                }
-                if (foundBook != null) {
-                    JOptionPane.showMessageDialog(null, "Book found: ID = " + foundBook.getId());
-                } else {
-                    JOptionPane.showMessageDialog(null, "No book found with the name: " + searchText);
-                }
+                // Prefer an exact title match among the best-ranked results
+                UiTasks.run(searchPanel, "Searching...", "Error searching books",
+                        service.searchBooks(searchText, SEARCH_RESULT_LIMIT), books -> {
+                            Book foundBook = null;
+                            for (Book book : books) {
+                                if (book.getTitle().equalsIgnoreCase(searchText)) {
+                                    foundBook = book;
+                                    break;
+                                }
+                            }
+                            if (foundBook == null && !books.isEmpty()) {
+                                foundBook = books.get(0);
+                            }
+                            if (foundBook != null) {
+                                JOptionPane.showMessageDialog(null, "Book found: ID = " + foundBook.getId());
+                            } else {
+                                JOptionPane.showMessageDialog(null, "No book found with the name: " + searchText);
+                            }
+                        });
             });
             // Create a frame to display the table and search functionality
             JFrame frame = new JFrame("List of Books");
             frame.setLayout(new BorderLayout());
             frame.add(scrollPane, BorderLayout.CENTER);
             frame.add(searchPanel, BorderLayout.NORTH);
+
+            // Availability totals come from the in-memory index, so they are
+            // cheap enough to refresh every second
+            AvailabilityIndex availability = service.getAvailability();
+            JLabel availabilityLabel = new JLabel(" ");
+            Timer availabilityTimer = new Timer(1000, ev -> {
+                if (availability.isLoaded()) {
+                    availabilityLabel.setText(String.format("%,d of %,d books available",
+                            availability.availableCount(), availability.size()));
+                }
+                bookTable.repaint();
+            });
+            availabilityTimer.setInitialDelay(0);
+            availabilityTimer.start();
+            // Edits, checkouts and returns from any desk show up row by row
+            Runnable unsubscribe = service.getChangeDispatcher().subscribe(
+                    changes -> SwingUtilities.invokeLater(() -> model.applyChanges(changes)));
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent ev) {
+                    availabilityTimer.stop();
+                    searchTimer.stop();
+                    pendingSearch.forEach(future -> future.cancel(true));
+                    unsubscribe.run();
+                }
+            });
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.add(availabilityLabel, BorderLayout.SOUTH);
             frame.setSize(600, 400);
             frame.setVisible(true);
         }
@@ -489,16 +768,20 @@ public class LibraryMainUI extends JFrame {
         @Override
         public void actionPerformed(ActionEvent e) {
             // Get authors from the database
-            List<String> authors = getAuthors();
+            UiTasks.run(LibraryMainUI.this, "Loading authors...", "Error loading authors",
+                    service.listAuthors(), this::showAuthors);
+        }
+
+        private void showAuthors(List<Author> authors) {
 
             // Define the columns for the authors table
-            String[] columnNames = {"Author ID", "Author Name"};
+            String[] columnNames = {"Author ID", "Author Name", "Books"};
 
             // Create a 2D array to hold authors' data
-            String[][] data = new String[authors.size()][2];
+            Object[][] data = new Object[authors.size()][3];
             for (int i = 0; i < authors.size(); i++) {
-                data[i][0] = String.valueOf(i + 1); // Assigning a temporary ID
-                data[i][1] = authors.get(i);       // Author name
+                Author author = authors.get(i);
+                data[i] = new Object[]{author.getId(), author.getName(), author.getBookCount()};
             }
 
             // Create a table with the data and column names
@@ -515,9 +798,10 @@ public class LibraryMainUI extends JFrame {
             authorsTable.getSelectionModel().addListSelectionListener(event -> {
                 int selectedRow = authorsTable.getSelectedRow();
                 if (selectedRow >= 0) {
+                    int authorId = (int) authorsTable.getValueAt(selectedRow, 0);
                     String authorName = (String) authorsTable.getValueAt(selectedRow, 1);
                     // Show books of the selected author
-                    showBooksByAuthor(authorName);
+                    showBooksByAuthor(authorId, authorName);
                 }
             });
 
@@ -527,8 +811,13 @@ public class LibraryMainUI extends JFrame {
         }
 
         // Method to show books of a selected author
-        private void showBooksByAuthor(String authorName) {
-            List<Book> books = getBooksByAuthor(authorName); // Get books for the selected author
+        private void showBooksByAuthor(int authorId, String authorName) {
+            // Get books for the selected author
+            UiTasks.run(LibraryMainUI.this, "Loading books...", "Error loading books",
+                    service.listBooksByAuthor(authorId), books -> showBooksByAuthor(authorName, books));
+        }
+
+        private void showBooksByAuthor(String authorName, List<Book> books) {
 
             String[] columnNames = {"Book ID", "Title", "Genre", "Is Borrowed"};
             Object[][] data = new Object[books.size()][4];
@@ -551,29 +840,6 @@ public class LibraryMainUI extends JFrame {
             booksDialog.setLocationRelativeTo(LibraryMainUI.this);
             booksDialog.setVisible(true);
         }
-
-        // Get books by author from the database
-        public List<Book> getBooksByAuthor(String authorName) {
-            List<Book> books = new ArrayList<>();
-            try {
-                PreparedStatement ps = connection.prepareStatement("SELECT * FROM books WHERE author = ?");
-                ps.setString(1, authorName);
-                ResultSet rs = ps.executeQuery();
-
-                while (rs.next()) {
-                    books.add(new Book(
-                            rs.getInt("id"),
-                            rs.getString("title"),
-                            rs.getString("author"),
-                            rs.getString("genre"),
-                            rs.getBoolean("is_borrowed")
-                    ));
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-            return books;
-        }
     }
 
     private class RegisterNewBorrowerAction implements ActionListener {
@@ -593,24 +859,103 @@ public class LibraryMainUI extends JFrame {
                 String name = nameField.getText();
                 String email = emailField.getText();
 
-                try {
-                    PreparedStatement ps = connection.prepareStatement("INSERT INTO borrowers (name, email) VALUES (?, ?)");
-                    ps.setString(1, name);
-                    ps.setString(2, email);
-                    ps.executeUpdate();
+                UiTasks.runWrite(LibraryMainUI.this, "Registering borrower...", "Error registering borrower",
+                        service.registerBorrower(name, email),
+                        id -> JOptionPane.showMessageDialog(LibraryMainUI.this, "Borrower registered with ID " + id));
+            }
+        }
+    }
 
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Borrower registered successfully!");
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Error registering borrower: " + ex.getMessage());
+    // Type part of a name or email to see matching borrowers; Enter on an
+    // email looks it up exactly, in any case
+    private class FindBorrowerAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JTextField searchField = new JTextField(30);
+            DefaultListModel<Borrower> resultsModel = new DefaultListModel<>();
+            JList<Borrower> resultsList = new JList<>(resultsModel);
+            resultsList.setVisibleRowCount(10);
+            resultsList.setCellRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                              boolean isSelected, boolean cellHasFocus) {
+                    Borrower borrower = (Borrower) value;
+                    String text = borrower.getId() + " - " + borrower.getName() + " <" + borrower.getEmail() + ">";
+                    return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
                 }
-            }
+            });
+
+            JDialog dialog = new JDialog(LibraryMainUI.this, "Find Borrower", false);
+            dialog.setLayout(new BorderLayout());
+            JPanel searchPanel = new JPanel(new BorderLayout());
+            searchPanel.add(new JLabel("Name or email: "), BorderLayout.WEST);
+            searchPanel.add(searchField, BorderLayout.CENTER);
+            dialog.add(searchPanel, BorderLayout.NORTH);
+            dialog.add(new JScrollPane(resultsList), BorderLayout.CENTER);
+
+            // Same debounce as the book search: one prefix query per pause in typing
+            List<CompletableFuture<List<Borrower>>> pendingSearch = new ArrayList<>();
+            Timer searchTimer = UiTasks.debounce(searchField, SEARCH_DEBOUNCE_MILLIS, () -> {
+                pendingSearch.forEach(future -> future.cancel(true));
+                pendingSearch.clear();
+                String searchText = searchField.getText().trim();
+                if (searchText.isEmpty()) {
+                    resultsModel.clear();
+                    return;
+                }
+                CompletableFuture<List<Borrower>> future = service.searchBorrowers(searchText, SEARCH_RESULT_LIMIT);
+                pendingSearch.add(future);
+                UiTasks.run(dialog, "Searching...", "Error searching borrowers", future, borrowers -> {
+                    resultsModel.clear();
+                    resultsModel.addAll(borrowers);
+                });
+            });
+
+            searchField.addActionListener(ev -> {
+                String email = searchField.getText().trim();
+                if (!email.contains("@")) {
+                    return;
+                }
+                UiTasks.run(dialog, "Looking up borrower...", "Error retrieving borrower ID",
+                        service.findBorrowerIdByEmail(email), borrowerId -> {
+                            if (borrowerId != null) {
+                                JOptionPane.showMessageDialog(dialog, "Borrower ID: " + borrowerId);
+                            } else {
+                                JOptionPane.showMessageDialog(dialog, "No borrower found with the email: " + email);
+                            }
+                        });
+            });
+            resultsList.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent ev) {
+                    Borrower borrower = resultsList.getSelectedValue();
+                    if (ev.getClickCount() == 2 && borrower != null) {
+                        JOptionPane.showMessageDialog(dialog, "Borrower ID: " + borrower.getId());
+                    }
+                }
+            });
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent ev) {
+                    searchTimer.stop();
+                    pendingSearch.forEach(future -> future.cancel(true));
+                }
+            });
+
+            dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+            dialog.setSize(500, 350);
+            dialog.setLocationRelativeTo(LibraryMainUI.this);
+            dialog.setVisible(true);
         }
     }
     private class ListBorrowersAction implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            List<Borrower> borrowers = getBorrowers();
+            UiTasks.run(LibraryMainUI.this, "Loading borrowers...", "Error loading borrowers",
+                    service.listBorrowers(), this::showBorrowers);
+        }
+
+        private void showBorrowers(List<Borrower> borrowers) {
             String[] columnNames = {"ID", "Name", "Email"};
             Object[][] data = new Object[borrowers.size()][3];
 
@@ -619,7 +964,8 @@ public class LibraryMainUI extends JFrame {
                 data[i] = new Object[]{borrower.getId(), borrower.getName(), borrower.getEmail()};
             }
 
-            JTable borrowerTable = new JTable(data, columnNames);
+            DefaultTableModel borrowerModel = new DefaultTableModel(data, columnNames);
+            JTable borrowerTable = new JTable(borrowerModel);
             JScrollPane scrollPane = new JScrollPane(borrowerTable);
 
             // Button to display borrowed books
@@ -635,38 +981,117 @@ public class LibraryMainUI extends JFrame {
                 showBorrowedBooks(borrowerId);
             });
 
+            JButton showHoldsButton = new JButton("Show Holds");
+            showHoldsButton.addActionListener(ev -> {
+                int selectedRow = borrowerTable.getSelectedRow();
+                if (selectedRow == -1) {
+                    JOptionPane.showMessageDialog(null, "Please select a borrower to view their holds.");
+                    return;
+                }
+                int borrowerId = (int) borrowerTable.getValueAt(selectedRow, 0);
+                UiTasks.run(borrowerTable, "Loading holds...", "Error loading holds",
+                        service.holdsForBorrower(borrowerId), holds -> showHolds(borrowerId, holds));
+            });
+
+            JPanel buttons = new JPanel(new GridLayout(1, 2));
+            buttons.add(showBorrowedBooksButton);
+            buttons.add(showHoldsButton);
+
             JPanel panel = new JPanel(new BorderLayout());
             panel.add(scrollPane, BorderLayout.CENTER);
-            panel.add(showBorrowedBooksButton, BorderLayout.SOUTH);
+            panel.add(buttons, BorderLayout.SOUTH);
 
             JFrame frame = new JFrame("List of Borrowers");
             frame.add(panel);
+            // New, changed and deleted borrowers are applied row by row
+            Runnable unsubscribe = service.getChangeDispatcher().subscribe(changes -> {
+                Set<Integer> changed = Change.rowIds(changes, Change.Table.BORROWERS);
+                if (!changed.isEmpty()) {
+                    service.getBorrowers(changed).whenComplete((found, error) -> SwingUtilities.invokeLater(() -> {
+                        if (error != null) {
+                            error.printStackTrace();
+                            return;
+                        }
+                        applyBorrowerChanges(borrowerModel, changed, found);
+                    }));
+                }
+            });
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent ev) {
+                    unsubscribe.run();
+                }
+            });
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
             frame.setSize(600, 400);
             frame.setVisible(true);
         }
+
+        // Rows are in ID order, as listed; a borrower missing from found was deleted
+        private void applyBorrowerChanges(DefaultTableModel model, Set<Integer> changed, Map<Integer, Borrower> found) {
+            for (int id : changed) {
+                int row = 0;
+                int end = model.getRowCount();
+                while (row < end) {
+                    int middle = (row + end) >>> 1;
+                    if ((int) model.getValueAt(middle, 0) < id) {
+                        row = middle + 1;
+                    } else {
+                        end = middle;
+                    }
+                }
+                boolean shown = row < model.getRowCount() && (int) model.getValueAt(row, 0) == id;
+                Borrower borrower = found.get(id);
+                if (borrower == null) {
+                    if (shown) {
+                        model.removeRow(row);
+                    }
+                } else if (shown) {
+                    model.setValueAt(borrower.getName(), row, 1);
+                    model.setValueAt(borrower.getEmail(), row, 2);
+                } else {
+                    model.insertRow(row, new Object[]{borrower.getId(), borrower.getName(), borrower.getEmail()});
+                }
+            }
+        }
         private void showBorrowedBooks(int borrowerId) {
-            List<BorrowRecord> borrowRecords = getBorrowRecordsByBorrower(borrowerId);
-            if (borrowRecords.isEmpty()) {
+            UiTasks.run(LibraryMainUI.this, "Loading loan history...", "Error loading loan history",
+                    service.loanHistory(borrowerId, Integer.MAX_VALUE, LOAN_HISTORY_PAGE_SIZE),
+                    firstPage -> showBorrowedBooks(borrowerId, firstPage));
+        }
+
+        private void showBorrowedBooks(int borrowerId, List<LoanHistoryEntry> firstPage) {
+            if (firstPage.isEmpty()) {
                 JOptionPane.showMessageDialog(null, "No books borrowed by this borrower.");
                 return;
             }
 
-            String[] columnNames = {"Book ID", "Title", "Author", "Borrow Date", "Return Date"};
-            Object[][] data = new Object[borrowRecords.size()][5];
-
-            for (int i = 0; i < borrowRecords.size(); i++) {
-                BorrowRecord record = borrowRecords.get(i);
-                Book book = getBookById(record.getBookId());
-                data[i] = new Object[]{
-                        book.getId(),
-                        book.getTitle(),
-                        book.getAuthor(),
-                        record.getBorrowDate(),
-                        record.getReturnDate() != null ? record.getReturnDate().toString() : "Not Returned"
-                };
-            }
+            String[] columnNames = {"Book ID", "Title", "Author", "Borrow Date", "Due Date", "Return Date"};
+            DefaultTableModel model = new DefaultTableModel(columnNames, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            addLoanHistoryRows(model, firstPage);
+
+            // Older loans are fetched a page at a time, continuing from the last record shown
+            JButton loadMoreButton = new JButton("Load More");
+            int[] lastRecordId = {firstPage.get(firstPage.size() - 1).getRecordId()};
+            loadMoreButton.setEnabled(firstPage.size() == LOAN_HISTORY_PAGE_SIZE);
+            loadMoreButton.addActionListener(ev -> {
+                loadMoreButton.setEnabled(false);
+                UiTasks.run(loadMoreButton, "Loading older loans...", "Error loading loan history",
+                        service.loanHistory(borrowerId, lastRecordId[0], LOAN_HISTORY_PAGE_SIZE), page -> {
+                            if (!page.isEmpty()) {
+                                addLoanHistoryRows(model, page);
+                                lastRecordId[0] = page.get(page.size() - 1).getRecordId();
+                            }
+                            loadMoreButton.setEnabled(page.size() == LOAN_HISTORY_PAGE_SIZE);
+                        });
+            });
 
-            JTable bookTable = new JTable(data, columnNames);
+            JTable bookTable = new JTable(model);
             JScrollPane scrollPane = new JScrollPane(bookTable);
 
             // Add Return Book Button
@@ -680,32 +1105,19 @@ public class LibraryMainUI extends JFrame {
 
                 int bookId = (int) bookTable.getValueAt(selectedRow, 0);
 
-                // Update the database
-                try {
-                    // Update return_date in borrow_records
-                    PreparedStatement ps = connection.prepareStatement(
-                            "UPDATE borrow_records SET return_date = ? WHERE book_id = ? AND borrower_id = ? AND return_date IS NULL"
-                    );
-                    ps.setDate(1, Date.valueOf(LocalDate.now()));
-                    ps.setInt(2, bookId);
-                    ps.setInt(3, borrowerId);
-                    ps.executeUpdate();
-
-                    // Update is_borrowed in books
-                    ps = connection.prepareStatement("UPDATE books SET is_borrowed = 0 WHERE id = ?");
-                    ps.setInt(1, bookId);
-                    ps.executeUpdate();
-
-                    JOptionPane.showMessageDialog(null, "Book returned successfully!");
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
-                    JOptionPane.showMessageDialog(null, "Error returning book: " + ex.getMessage());
-                }
+                // Close the loan and release the book in one transaction
+                UiTasks.runWrite(bookTable, "Returning book...", "Error returning book",
+                        service.returnBook(bookId, borrowerId),
+                        result -> JOptionPane.showMessageDialog(null, result.getMessage()));
             });
 
+            JPanel buttons = new JPanel(new GridLayout(1, 2));
+            buttons.add(returnBookButton);
+            buttons.add(loadMoreButton);
+
             JPanel panel = new JPanel(new BorderLayout());
             panel.add(scrollPane, BorderLayout.CENTER);
-            panel.add(returnBookButton, BorderLayout.SOUTH);
+            panel.add(buttons, BorderLayout.SOUTH);
 
             JFrame frame = new JFrame("Borrowed Books");
             frame.add(panel);
@@ -713,6 +1125,74 @@ public class LibraryMainUI extends JFrame {
             frame.setVisible(true);
         }
 
+        private void showHolds(int borrowerId, List<Hold> holds) {
+            if (holds.isEmpty()) {
+                JOptionPane.showMessageDialog(null, "This borrower has no holds.");
+                return;
+            }
+
+            String[] columnNames = {"Book ID", "Title", "Status", "Place in Queue", "Placed", "Collect By"};
+            DefaultTableModel model = new DefaultTableModel(columnNames, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            for (Hold hold : holds) {
+                model.addRow(new Object[]{
+                        hold.getBookId(),
+                        hold.getTitle(),
+                        hold.getStatus() == Hold.Status.READY ? "Ready to collect" : "Waiting",
+                        hold.getStatus() == Hold.Status.READY ? "" : hold.getPosition(),
+                        hold.getPlacedDate(),
+                        hold.getExpiresDate() != null ? hold.getExpiresDate().toString() : ""
+                });
+            }
+            JTable holdTable = new JTable(model);
+
+            JButton cancelHoldButton = new JButton("Cancel Hold");
+            cancelHoldButton.addActionListener(ev -> {
+                int selectedRow = holdTable.getSelectedRow();
+                if (selectedRow == -1) {
+                    JOptionPane.showMessageDialog(null, "Please select a hold to cancel.");
+                    return;
+                }
+                int bookId = (int) holdTable.getValueAt(selectedRow, 0);
+                UiTasks.runWrite(holdTable, "Cancelling hold...", "Error cancelling hold",
+                        service.cancelHold(borrowerId, bookId), result -> {
+                            for (int row = 0; result.isSuccess() && row < model.getRowCount(); row++) {
+                                if ((int) model.getValueAt(row, 0) == bookId) {
+                                    model.removeRow(row);
+                                    break;
+                                }
+                            }
+                            JOptionPane.showMessageDialog(null, result.getMessage());
+                        });
+            });
+
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.add(new JScrollPane(holdTable), BorderLayout.CENTER);
+            panel.add(cancelHoldButton, BorderLayout.SOUTH);
+
+            JFrame frame = new JFrame("Holds");
+            frame.add(panel);
+            frame.setSize(600, 300);
+            frame.setVisible(true);
+        }
+
+        private void addLoanHistoryRows(DefaultTableModel model, List<LoanHistoryEntry> entries) {
+            for (LoanHistoryEntry entry : entries) {
+                model.addRow(new Object[]{
+                        entry.getBookId(),
+                        entry.getTitle(),
+                        entry.getAuthor(),
+                        entry.getBorrowDate(),
+                        entry.getDueDate(),
+                        entry.getReturnDate() != null ? entry.getReturnDate().toString() : "Not Returned"
+                });
+            }
+        }
+
     }
     private class ManageBorrowRecordsAction implements ActionListener {
         @Override
@@ -727,56 +1207,189 @@ public class LibraryMainUI extends JFrame {
 
             int confirm = JOptionPane.showConfirmDialog(LibraryMainUI.this, borrowRecordPanel, "Manage Borrow Records", JOptionPane.OK_CANCEL_OPTION);
             if (confirm == JOptionPane.OK_OPTION) {
+                int borrowerId;
+                int bookId;
                 try {
-                    int borrowerId = Integer.parseInt(borrowerIdField.getText().trim());
-                    int bookId = Integer.parseInt(bookIdField.getText().trim());
-
-                    // Check if the book is already borrowed
-                    Book book = getBookById(bookId);
-                    if (book == null) {
-                        JOptionPane.showMessageDialog(LibraryMainUI.this, "Book not found!");
-                        return;
-                    }
-                    if (book.isBorrowed()) {
-                        JOptionPane.showMessageDialog(LibraryMainUI.this, "Book is already borrowed!");
-                        return;
-                    }
-
-                    // Add borrow record
-                    PreparedStatement ps = connection.prepareStatement("INSERT INTO borrow_records (borrower_id, book_id, borrow_date) VALUES (?, ?, ?)");
-                    ps.setInt(1, borrowerId);
-                    ps.setInt(2, bookId);
-                    ps.setDate(3, Date.valueOf(LocalDate.now()));
-                    ps.executeUpdate();
-
-                    // Update book's is_borrowed status
-                    ps = connection.prepareStatement("UPDATE books SET is_borrowed = 1 WHERE id = ?");
-                    ps.setInt(1, bookId);
-                    ps.executeUpdate();
-
-                    JOptionPane.showMessageDialog(LibraryMainUI.this, "Borrow record added successfully!");
-                } catch (NumberFormatException | SQLException ex) {
+                    borrowerId = Integer.parseInt(borrowerIdField.getText().trim());
+                    bookId = Integer.parseInt(bookIdField.getText().trim());
+                } catch (NumberFormatException ex) {
                     ex.printStackTrace();
                     JOptionPane.showMessageDialog(LibraryMainUI.this, "Error adding borrow record: " + ex.getMessage());
+                    return;
                 }
+
+                // Claim the book and add the borrow record in one transaction;
+                // the result says whether it was missing or already borrowed
+                UiTasks.runWrite(LibraryMainUI.this, "Adding borrow record...", "Error adding borrow record",
+                        service.checkout(borrowerId, bookId), result -> {
+                            if (result != CirculationResult.ALREADY_BORROWED && result != CirculationResult.ON_HOLD) {
+                                JOptionPane.showMessageDialog(LibraryMainUI.this, result.getMessage());
+                                return;
+                            }
+                            // Offer a place in the queue rather than a retry later
+                            int hold = JOptionPane.showConfirmDialog(LibraryMainUI.this,
+                                    result.getMessage() + "\nPlace a hold for this borrower?", "Place Hold",
+                                    JOptionPane.YES_NO_OPTION);
+                            if (hold == JOptionPane.YES_OPTION) {
+                                UiTasks.runWrite(LibraryMainUI.this, "Placing hold...", "Error placing hold",
+                                        service.placeHold(borrowerId, bookId),
+                                        holdResult -> JOptionPane.showMessageDialog(LibraryMainUI.this, holdResult.getMessage()));
+                            }
+                        });
             }
         }
     }
 
+    // A desk for a whole stack of scanned items: each stack is checked out to
+    // one borrower, or returned, in a single transaction. The window stays
+    // open and the ID list clears after each stack, ready for the next scan.
+    private class BatchDeskAction implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JRadioButton checkoutButton = new JRadioButton("Check out to borrower", true);
+            JRadioButton returnButton = new JRadioButton("Return");
+            ButtonGroup mode = new ButtonGroup();
+            mode.add(checkoutButton);
+            mode.add(returnButton);
+            JTextField borrowerIdField = new JTextField(10);
+            returnButton.addActionListener(ev -> borrowerIdField.setEnabled(false));
+            checkoutButton.addActionListener(ev -> borrowerIdField.setEnabled(true));
+            JTextArea bookIdsArea = new JTextArea(10, 12);
+
+            JPanel top = new JPanel(new GridLayout(2, 2));
+            top.add(checkoutButton);
+            top.add(returnButton);
+            top.add(new JLabel("Borrower ID:"));
+            top.add(borrowerIdField);
+            JPanel scanPanel = new JPanel(new BorderLayout());
+            scanPanel.add(new JLabel("Book IDs (one per line):"), BorderLayout.NORTH);
+            scanPanel.add(new JScrollPane(bookIdsArea), BorderLayout.CENTER);
+            JButton processButton = new JButton("Process");
+            scanPanel.add(processButton, BorderLayout.SOUTH);
+
+            DefaultTableModel resultModel = new DefaultTableModel(new String[]{"Book ID", "Outcome"}, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            JLabel summary = new JLabel(" ");
+
+            processButton.addActionListener(ev -> {
+                List<Integer> bookIds = new ArrayList<>();
+                int borrowerId = 0;
+                try {
+                    for (String token : bookIdsArea.getText().trim().split("[\\s,]+")) {
+                        if (!token.isEmpty()) {
+                            bookIds.add(Integer.parseInt(token));
+                        }
+                    }
+                    if (checkoutButton.isSelected()) {
+                        borrowerId = Integer.parseInt(borrowerIdField.getText().trim());
+                    }
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(processButton, "Please enter numeric IDs: " + ex.getMessage());
+                    return;
+                }
+                if (bookIds.isEmpty()) {
+                    JOptionPane.showMessageDialog(processButton, "Please scan at least one book ID.");
+                    return;
+                }
+                if (bookIds.size() > CirculationService.MAX_BATCH_SIZE) {
+                    JOptionPane.showMessageDialog(processButton,
+                            "Please process at most " + CirculationService.MAX_BATCH_SIZE + " books at a time.");
+                    return;
+                }
+                boolean checkout = checkoutButton.isSelected();
+                UiTasks.runWrite(processButton, checkout ? "Checking out..." : "Returning...",
+                        checkout ? "Error checking out books" : "Error returning books",
+                        checkout ? service.checkoutBatch(borrowerId, bookIds) : service.returnBatch(bookIds),
+                        results -> {
+                            resultModel.setRowCount(0);
+                            int succeeded = 0;
+                            for (Map.Entry<Integer, CirculationResult> result : results.entrySet()) {
+                                resultModel.addRow(new Object[]{result.getKey(), result.getValue().getMessage()});
+                                if (result.getValue().isSuccess()) {
+                                    succeeded++;
+                                }
+                            }
+                            summary.setText(String.format("%d of %d books %s", succeeded, results.size(),
+                                    checkout ? "checked out" : "returned"));
+                            bookIdsArea.setText("");
+                            bookIdsArea.requestFocusInWindow();
+                        });
+            });
+
+            JPanel input = new JPanel(new BorderLayout());
+            input.add(top, BorderLayout.NORTH);
+            input.add(scanPanel, BorderLayout.CENTER);
+
+            JFrame frame = new JFrame("Batch Checkout / Return");
+            frame.add(input, BorderLayout.WEST);
+            frame.add(new JScrollPane(new JTable(resultModel)), BorderLayout.CENTER);
+            frame.add(summary, BorderLayout.SOUTH);
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.setSize(750, 400);
+            frame.setVisible(true);
+        }
+    }
+
     public static void main(String[] args) {
         try {
             // Ensure the JDBC driver is loaded
             Class.forName("org.sqlite.JDBC");
 
-            // Connect to the SQLite database
-            Connection connection = DriverManager.getConnection("jdbc:sqlite:C:\\Users\\mixa2\\IdeaProjects\\Project\\src\\database\\library.db");
-            SwingUtilities.invokeLater(() -> new LibraryMainUI(connection).setVisible(true));
+            // Open each branch's pooled SQLite database (-Dlibrary.branches, or
+            // one database with its path from args[0] or -Dlibrary.db)
+            LibraryBranches branches = LibraryBranches.open(DatabaseUtil.resolveBranches(args));
+            String branch = branches.localBranch();
+            branches.start().exceptionally(ex -> {
+                ex.printStackTrace();
+                return null;
+            });
+            // Counters over JMX always; over HTTP for this desk's branch when -Dlibrary.metrics.port is set
+            for (String name : branches.names()) {
+                registerMetrics(branches.service(name).getMetrics());
+            }
+            MetricsHttpServer metricsServer = startMetricsServer(branches.service(branch).getMetrics());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (metricsServer != null) {
+                        metricsServer.close();
+                    }
+                    branches.close();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }));
+            SwingUtilities.invokeLater(() -> new LibraryMainUI(branches, branch).setVisible(true));
         } catch (SQLException ex) {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(null, "Failed to connect to the database: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         } catch (ClassNotFoundException ex) {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(null, "SQLite JDBC Driver not found. Please add it to the classpath.", "Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException ex) {
+            // A bad -Dlibrary.branches or -Dlibrary.branch
+            JOptionPane.showMessageDialog(null, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // Metrics are diagnostics only, so failing to publish them must not stop the desk
+    private static void registerMetrics(DatabaseMetrics metrics) {
+        try {
+            metrics.registerMBean();
+        } catch (JMException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static MetricsHttpServer startMetricsServer(DatabaseMetrics metrics) {
+        try {
+            return MetricsHttpServer.fromSystemProperties(metrics);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
         }
     }
 }
\ No newline at end of file
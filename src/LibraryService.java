@@ -0,0 +1,339 @@
+import com.example.library.DatabaseMetrics;
+import com.example.library.DatabaseUtil;
+import com.example.library.OperationMetrics;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Asynchronous front end to the repositories. Every call runs on its own
+// virtual thread and returns a CompletableFuture, so callers on the Swing
+// Event Dispatch Thread never wait on database I/O. Cancelling a returned
+// future interrupts the worker; long scans check for that between rows.
+// Each call is timed as a named desk action in the pool's DatabaseMetrics.
+public class LibraryService implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final DatabaseMetrics metrics;
+    private final BookRepository bookRepository;
+    private final AuthorRepository authorRepository;
+    private final BorrowerRepository borrowerRepository;
+    private final BorrowRecordRepository borrowRecordRepository;
+    private final CirculationService circulationService;
+    private final BookCache bookCache;
+    private final AvailabilityIndex availability;
+    private final CatalogImporter catalogImporter;
+    private final LibraryExporter exporter;
+    private final LoanNoticeRepository loanNoticeRepository;
+    private final HoldRepository holdRepository;
+    private final StatisticsRepository statisticsRepository;
+    private final OverdueScheduler overdueScheduler;
+    private final ChangeDispatcher changeDispatcher;
+
+    public LibraryService(DatabaseUtil db) {
+        this.metrics = db.getMetrics();
+        this.bookCache = BookCache.fromSystemProperties();
+        this.availability = new AvailabilityIndex(db);
+        this.bookRepository = new BookRepository(db, bookCache, availability);
+        this.authorRepository = new AuthorRepository(db);
+        this.borrowerRepository = new BorrowerRepository(db);
+        this.borrowRecordRepository = new BorrowRecordRepository(db);
+        this.circulationService = new CirculationService(db, bookCache, availability);
+        this.catalogImporter = new CatalogImporter(db, availability);
+        this.exporter = new LibraryExporter(db);
+        this.loanNoticeRepository = new LoanNoticeRepository(db);
+        this.holdRepository = new HoldRepository(db);
+        this.statisticsRepository = new StatisticsRepository(db);
+        this.overdueScheduler = new OverdueScheduler(db, circulationService);
+        this.changeDispatcher = new ChangeDispatcher(db);
+        registerGauges();
+        subscribeCaches();
+    }
+
+    // This process's own writes are applied to the cache and availability
+    // index after commit; the change log brings in everyone else's. Our own
+    // come back through it too, which costs at most a cache miss.
+    private void subscribeCaches() {
+        changeDispatcher.subscribe(new ChangeDispatcher.Subscriber() {
+            @Override
+            public void changed(List<Change> changes) throws SQLException {
+                Set<Integer> books = Change.rowIds(changes, Change.Table.BOOKS);
+                books.forEach(bookCache::invalidate);
+                if (availability.isLoaded()) {
+                    availability.refresh(books);
+                }
+            }
+
+            @Override
+            public void reset() throws SQLException {
+                bookCache.clear();
+                availability.reload();
+            }
+        });
+    }
+
+    private void registerGauges() {
+        metrics.addGauge("library_book_cache_hits_total", "Book cache hits",
+                () -> bookCache.stats().getHits());
+        metrics.addGauge("library_book_cache_misses_total", "Book cache misses",
+                () -> bookCache.stats().getMisses());
+        metrics.addGauge("library_book_cache_evictions_total", "Book cache evictions",
+                () -> bookCache.stats().getEvictions());
+        metrics.addGauge("library_book_cache_size", "Books held in the cache",
+                () -> bookCache.stats().getSize());
+        metrics.addGauge("library_books_available", "Books on the shelf, per the availability index",
+                availability::availableCount);
+        metrics.addGauge("library_books_borrowed", "Books on loan, per the availability index",
+                availability::borrowedCount);
+    }
+
+    public CompletableFuture<List<Book>> listBooks() {
+        return submit("listBooks", bookRepository::findAll);
+    }
+
+    public CompletableFuture<Integer> countBooks() {
+        return submit("countBooks", bookRepository::count);
+    }
+
+    public CompletableFuture<List<Book>> bookPage(BookSort sort, boolean ascending, Object anchorKey, Integer anchorId,
+                                                  int offset, int limit) {
+        return submit("bookPage", () -> bookRepository.findPage(sort, ascending, anchorKey, anchorId, offset, limit));
+    }
+
+    public CompletableFuture<List<Book>> searchBooks(String text, int limit) {
+        return submit("searchBooks", () -> bookRepository.search(text, limit));
+    }
+
+    // As searchBooks, with ranks; see LibraryBranches.searchCatalogue
+    public CompletableFuture<List<CatalogueHit>> searchBooksRanked(String text, int limit) {
+        return submit("searchBooksRanked", () -> bookRepository.searchRanked(text, limit));
+    }
+
+    // Search as you type; see BookRepository.suggest
+    public CompletableFuture<List<Book>> suggestBooks(String text, int limit) {
+        return submit("suggestBooks", () -> bookRepository.suggest(text, limit));
+    }
+
+    // As suggestBooks, with ranks; see LibraryBranches.suggestCatalogue
+    public CompletableFuture<List<CatalogueHit>> suggestBooksRanked(String text, int limit) {
+        return submit("suggestBooksRanked", () -> bookRepository.suggestRanked(text, limit));
+    }
+
+    public CompletableFuture<Book> getBook(int id) {
+        return submit("getBook", () -> bookRepository.findById(id));
+    }
+
+    public CompletableFuture<List<Author>> listAuthors() {
+        return submit("listAuthors", authorRepository::findAllWithBooks);
+    }
+
+    public CompletableFuture<List<Book>> listBooksByAuthor(int authorId) {
+        return submit("listBooksByAuthor", () -> bookRepository.findByAuthorId(authorId));
+    }
+
+    // Completes with the new book's ID
+    public CompletableFuture<Integer> addBook(String title, String author, String genre) {
+        return submit("addBook", () -> bookRepository.insert(title, author, genre));
+    }
+
+    // Title, author and genre only; loans change through checkout and return
+    public CompletableFuture<Boolean> updateBook(int id, String title, String author, String genre) {
+        return submit("updateBook", () -> bookRepository.update(id, title, author, genre));
+    }
+
+    public CompletableFuture<Boolean> deleteBook(int id) {
+        return submit("deleteBook", () -> bookRepository.delete(id));
+    }
+
+    public CompletableFuture<List<Borrower>> listBorrowers() {
+        return submit("listBorrowers", borrowerRepository::findAll);
+    }
+
+    // Borrowers that no longer exist are missing from the map
+    public CompletableFuture<Map<Integer, Borrower>> getBorrowers(Collection<Integer> ids) {
+        return submit("getBorrowers", () -> borrowerRepository.findByIds(ids));
+    }
+
+    // Any case; null if nobody has this email
+    public CompletableFuture<Integer> findBorrowerIdByEmail(String email) {
+        return submit("findBorrowerIdByEmail", () -> borrowerRepository.findIdByEmail(email));
+    }
+
+    // Typeahead: borrowers whose name or email starts with prefix
+    public CompletableFuture<List<Borrower>> searchBorrowers(String prefix, int limit) {
+        return submit("searchBorrowers", () -> borrowerRepository.search(prefix, limit));
+    }
+
+    // Returns the new borrower's ID; fails if the email is already registered
+    public CompletableFuture<Integer> registerBorrower(String name, String email) {
+        return submit("registerBorrower", () -> borrowerRepository.insert(name, email));
+    }
+
+    public CompletableFuture<List<LoanHistoryEntry>> loanHistory(int borrowerId, int beforeRecordId, int limit) {
+        return submit("loanHistory", () -> borrowRecordRepository.findLoanHistory(borrowerId, beforeRecordId, limit));
+    }
+
+    public CompletableFuture<CirculationResult> checkout(int borrowerId, int bookId) {
+        return submit("checkout", () -> circulationService.checkout(borrowerId, bookId));
+    }
+
+    public CompletableFuture<CirculationResult> returnBook(int bookId, int borrowerId) {
+        return submit("returnBook", () -> circulationService.returnBook(bookId, borrowerId));
+    }
+
+    // A stack of up to CirculationService.MAX_BATCH_SIZE books in one transaction, one outcome per book
+    public CompletableFuture<Map<Integer, CirculationResult>> checkoutBatch(int borrowerId, List<Integer> bookIds) {
+        return submit("checkoutBatch", () -> circulationService.checkoutBatch(borrowerId, bookIds));
+    }
+
+    public CompletableFuture<Map<Integer, CirculationResult>> returnBatch(List<Integer> bookIds) {
+        return submit("returnBatch", () -> circulationService.returnBatch(bookIds));
+    }
+
+    // Open loans past their due date, most overdue first
+    public CompletableFuture<List<OverdueLoan>> overdueLoans(int limit) {
+        return submit("overdueLoans", () -> borrowRecordRepository.findOverdue(LocalDate.now(), limit));
+    }
+
+    public CompletableFuture<Integer> countOverdueLoans() {
+        return submit("countOverdueLoans", () -> borrowRecordRepository.countOverdue(LocalDate.now()));
+    }
+
+    public CompletableFuture<List<LoanNotice>> pendingNotices(int limit) {
+        return submit("pendingNotices", () -> loanNoticeRepository.findPending(limit));
+    }
+
+    public CompletableFuture<Integer> countPendingNotices() {
+        return submit("countPendingNotices", loanNoticeRepository::countPending);
+    }
+
+    public CompletableFuture<Integer> markNoticesSent(Collection<Integer> ids) {
+        return submit("markNoticesSent", () -> loanNoticeRepository.markSent(ids, LocalDate.now()));
+    }
+
+    // Run an overdue scan now instead of waiting for the scheduler
+    public CompletableFuture<OverdueScheduler.Result> scanOverdue() {
+        return submit("scanOverdue", () -> overdueScheduler.scan(LocalDate.now()));
+    }
+
+    public CompletableFuture<HoldResult> placeHold(int borrowerId, int bookId) {
+        return submit("placeHold", () -> circulationService.placeHold(borrowerId, bookId));
+    }
+
+    public CompletableFuture<HoldResult> cancelHold(int borrowerId, int bookId) {
+        return submit("cancelHold", () -> circulationService.cancelHold(borrowerId, bookId));
+    }
+
+    public CompletableFuture<List<Hold>> holdsForBorrower(int borrowerId) {
+        return submit("holdsForBorrower", () -> holdRepository.findByBorrower(borrowerId));
+    }
+
+    public CompletableFuture<List<Hold>> holdsForBook(int bookId) {
+        return submit("holdsForBook", () -> holdRepository.findByBook(bookId));
+    }
+
+    // The top `top` books and borrowers, every genre, and the last `days` days
+    public CompletableFuture<CirculationStats> circulationStats(int top, int days) {
+        return submit("circulationStats", () -> statisticsRepository.dashboard(top, days, LocalDate.now()));
+    }
+
+    // Start the background overdue scan; see OverdueScheduler for the interval
+    public void startOverdueScheduler() {
+        overdueScheduler.start();
+    }
+
+    // Start pushing committed changes to subscribers; see ChangeDispatcher
+    public void startChangeDispatcher() throws SQLException {
+        changeDispatcher.start();
+    }
+
+    // Open windows subscribe here to apply changes row by row
+    public ChangeDispatcher getChangeDispatcher() {
+        return changeDispatcher;
+    }
+
+    public OverdueScheduler getOverdueScheduler() {
+        return overdueScheduler;
+    }
+
+    public BookCache getBookCache() {
+        return bookCache;
+    }
+
+    // Answers in memory; safe to call on the Event Dispatch Thread
+    public AvailabilityIndex getAvailability() {
+        return availability;
+    }
+
+    // Build the availability index in the background; until it is loaded
+    // callers fall back to the flags read with each book
+    public CompletableFuture<Void> loadAvailability() {
+        return submit("loadAvailability", () -> {
+            availability.reload();
+            return null;
+        });
+    }
+
+    // Imports run one at a time; the importer's author cache is not thread safe
+    public CompletableFuture<CatalogImporter.Result> importCatalog(Path file, CatalogImporter.Progress progress) {
+        return submit("importCatalog", () -> {
+            synchronized (catalogImporter) {
+                return catalogImporter.importFile(file, progress);
+            }
+        });
+    }
+
+    public CompletableFuture<Map<LibraryExporter.Table, Long>> exportTables(LibraryExporter.Format format, Path directory,
+                                                                           LibraryExporter.Progress progress) {
+        return submit("exportTables", () -> exporter.exportAll(format, directory, progress));
+    }
+
+    public CompletableFuture<Void> backupDatabase(Path target) {
+        return submit("backupDatabase", () -> {
+            exporter.backup(target);
+            return null;
+        });
+    }
+
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Run work on a new virtual thread, timed under action. Cancelling the
+    // returned future interrupts that thread.
+    <T> CompletableFuture<T> submit(String action, Callable<T> work) {
+        OperationMetrics actionMetrics = metrics.action(action);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                result.complete(work.call());
+                actionMetrics.record(System.nanoTime() - start, false);
+            } catch (Throwable e) {
+                actionMetrics.record(System.nanoTime() - start, true);
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        changeDispatcher.close();
+        overdueScheduler.close();
+        executor.shutdownNow();
+    }
+}
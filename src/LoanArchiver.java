@@ -0,0 +1,91 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+// Moves loans returned more than library.archive.afterDays ago (default 365;
+// 0 or less turns archiving off) from borrow_records to
+// borrow_records_archive. Checkouts, returns and overdue scans then only
+// ever touch the small hot table and its indexes, while loan history reads
+// both tables (see BorrowRecordRepository).
+//
+// The hot table is walked in windows of record IDs, each moved in its own
+// short write transaction (copy, then delete), so desks wait at most for
+// one window and an interrupted run loses nothing. Old loans cluster at
+// low IDs, so once they are gone each run reads little beyond the open and
+// recent loans. borrow_records uses AUTOINCREMENT (schema migration 15),
+// so a new loan never gets an ID that is already in the archive.
+public class LoanArchiver {
+    public static final String ARCHIVE_AFTER_DAYS_PROPERTY = "library.archive.afterDays";
+
+    private static final int DEFAULT_ARCHIVE_AFTER_DAYS = 365;
+    private static final int WINDOW_SIZE = 5000;
+
+    private static final String SELECT_RANGE = "SELECT MIN(id), MAX(id) FROM borrow_records";
+    private static final String COPY =
+            "INSERT INTO borrow_records_archive (id, book_id, borrower_id, borrow_date, return_date, due_date)"
+                    + " SELECT id, book_id, borrower_id, borrow_date, return_date, due_date FROM borrow_records"
+                    + " WHERE id >= ? AND id < ? AND return_date < ?";
+    private static final String DELETE =
+            "DELETE FROM borrow_records WHERE id >= ? AND id < ? AND return_date < ?";
+
+    private final DatabaseUtil db;
+    private final int afterDays;
+    // The cutoff only moves once a day; loans returned since are newer than it
+    private volatile LocalDate lastRun;
+
+    public LoanArchiver(DatabaseUtil db) {
+        this(db, Integer.getInteger(ARCHIVE_AFTER_DAYS_PROPERTY, DEFAULT_ARCHIVE_AFTER_DAYS));
+    }
+
+    public LoanArchiver(DatabaseUtil db, int afterDays) {
+        this.db = db;
+        this.afterDays = afterDays;
+    }
+
+    // Archive every loan returned before today minus afterDays. Returns the
+    // number moved; a second run on the same day has nothing to move.
+    public int archive(LocalDate today) throws SQLException {
+        if (afterDays <= 0 || today.equals(lastRun)) {
+            return 0;
+        }
+        long cutoff = today.minusDays(afterDays).toEpochDay();
+        long[] range = db.read("archive.range", c -> {
+            try (ResultSet rs = c.prepare(SELECT_RANGE).executeQuery()) {
+                return rs.next() ? new long[]{rs.getLong(1), rs.getLong(2)} : new long[]{0, 0};
+            }
+        });
+        int moved = 0;
+        for (long from = range[0]; from <= range[1]; from += WINDOW_SIZE) {
+            DatabaseUtil.checkInterrupted();
+            long start = from;
+            long end = Math.min(from + WINDOW_SIZE, range[1] + 1);
+            moved += db.transaction("archive.move", c -> move(c, start, end, cutoff));
+        }
+        lastRun = today;
+        return moved;
+    }
+
+    private static int move(PooledConnection c, long from, long to, long cutoff) throws SQLException {
+        PreparedStatement copy = c.prepare(COPY);
+        copy.setLong(1, from);
+        copy.setLong(2, to);
+        copy.setLong(3, cutoff);
+        int copied = copy.executeUpdate();
+        if (copied == 0) {
+            return 0;
+        }
+        PreparedStatement delete = c.prepare(DELETE);
+        delete.setLong(1, from);
+        delete.setLong(2, to);
+        delete.setLong(3, cutoff);
+        int deleted = delete.executeUpdate();
+        if (deleted != copied) {
+            throw new SQLException("Archived " + copied + " loans but removed " + deleted + " from borrow_records");
+        }
+        return deleted;
+    }
+}
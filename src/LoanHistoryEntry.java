@@ -0,0 +1,53 @@
+import java.time.LocalDate;
+
+// One row of a borrower's loan history: the borrow record joined with the
+// title and author of the borrowed book
+public class LoanHistoryEntry {
+    private final int recordId;
+    private final int bookId;
+    private final String title;
+    private final String author;
+    private final LocalDate borrowDate;
+    private final LocalDate returnDate;
+    private final LocalDate dueDate;
+
+    public LoanHistoryEntry(int recordId, int bookId, String title, String author, LocalDate borrowDate,
+                            LocalDate returnDate, LocalDate dueDate) {
+        this.recordId = recordId;
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.borrowDate = borrowDate;
+        this.returnDate = returnDate;
+        this.dueDate = dueDate;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public LocalDate getBorrowDate() {
+        return borrowDate;
+    }
+
+    public LocalDate getReturnDate() {
+        return returnDate;
+    }
+
+    // Null for loans returned before due dates were recorded
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+}
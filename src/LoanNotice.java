@@ -0,0 +1,56 @@
+import java.time.LocalDate;
+
+// A queued message to a borrower about one loan: a reminder that it is due
+// soon, or a notice that it is overdue
+public class LoanNotice {
+    public enum Kind {
+        DUE_SOON,
+        OVERDUE
+    }
+
+    private final int id;
+    private final int recordId;
+    private final int borrowerId;
+    private final int bookId;
+    private final Kind kind;
+    private final LocalDate dueDate;
+    private final LocalDate createdDate;
+
+    public LoanNotice(int id, int recordId, int borrowerId, int bookId, Kind kind, LocalDate dueDate, LocalDate createdDate) {
+        this.id = id;
+        this.recordId = recordId;
+        this.borrowerId = borrowerId;
+        this.bookId = bookId;
+        this.kind = kind;
+        this.dueDate = dueDate;
+        this.createdDate = createdDate;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public int getBorrowerId() {
+        return borrowerId;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    public LocalDate getCreatedDate() {
+        return createdDate;
+    }
+}
@@ -0,0 +1,93 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// The loan_notices queue. OverdueScheduler adds notices; whatever delivers
+// them (a mailer, or staff working from the report) takes the oldest unsent
+// ones and marks them sent. Unsent notices are found through a partial
+// index, so the queue stays cheap to read however many have been sent.
+public class LoanNoticeRepository {
+    private static final String SELECT_PENDING =
+            "SELECT id, record_id, borrower_id, book_id, kind, due_date, created_date FROM loan_notices"
+                    + " WHERE sent_date IS NULL ORDER BY id LIMIT ?";
+    private static final String COUNT_PENDING = "SELECT COUNT(*) FROM loan_notices WHERE sent_date IS NULL";
+    private static final String MARK_SENT = "UPDATE loan_notices SET sent_date = ? WHERE id = ? AND sent_date IS NULL";
+    private static final String ENQUEUE =
+            "INSERT INTO loan_notices (record_id, borrower_id, book_id, kind, due_date, created_date)"
+                    + " VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (record_id, kind) DO NOTHING";
+
+    private final DatabaseUtil db;
+
+    public LoanNoticeRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // Oldest unsent notices first
+    public List<LoanNotice> findPending(int limit) throws SQLException {
+        return db.read("notices.findPending", c -> {
+            List<LoanNotice> notices = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_PENDING);
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    notices.add(new LoanNotice(
+                            rs.getInt("id"),
+                            rs.getInt("record_id"),
+                            rs.getInt("borrower_id"),
+                            rs.getInt("book_id"),
+                            LoanNotice.Kind.valueOf(rs.getString("kind")),
+                            LocalDate.ofEpochDay(rs.getLong("due_date")),
+                            LocalDate.ofEpochDay(rs.getLong("created_date"))
+                    ));
+                }
+            }
+            return notices;
+        });
+    }
+
+    public int countPending() throws SQLException {
+        return db.read("notices.countPending", c -> {
+            try (ResultSet rs = c.prepare(COUNT_PENDING).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        });
+    }
+
+    // Returns how many of the notices were still unsent
+    public int markSent(Collection<Integer> ids, LocalDate sentDate) throws SQLException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return db.transaction("notices.markSent", c -> {
+            PreparedStatement ps = c.prepare(MARK_SENT);
+            int updated = 0;
+            for (int id : ids) {
+                ps.setLong(1, sentDate.toEpochDay());
+                ps.setInt(2, id);
+                updated += ps.executeUpdate();
+            }
+            return updated;
+        });
+    }
+
+    // Queue a notice unless this loan already has one of the same kind;
+    // returns 1 if a notice was added
+    int enqueue(PooledConnection c, int recordId, int borrowerId, int bookId, LoanNotice.Kind kind,
+                long dueDay, LocalDate today) throws SQLException {
+        PreparedStatement ps = c.prepare(ENQUEUE);
+        ps.setInt(1, recordId);
+        ps.setInt(2, borrowerId);
+        ps.setInt(3, bookId);
+        ps.setString(4, kind.name());
+        ps.setLong(5, dueDay);
+        ps.setLong(6, today.toEpochDay());
+        return ps.executeUpdate();
+    }
+}
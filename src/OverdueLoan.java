@@ -0,0 +1,64 @@
+import java.time.LocalDate;
+
+// One row of the overdue report: an open loan past its due date, with the
+// book and borrower details needed to chase it up
+public class OverdueLoan {
+    private final int recordId;
+    private final int bookId;
+    private final String title;
+    private final int borrowerId;
+    private final String borrowerName;
+    private final String borrowerEmail;
+    private final LocalDate borrowDate;
+    private final LocalDate dueDate;
+    private final int daysOverdue;
+
+    public OverdueLoan(int recordId, int bookId, String title, int borrowerId, String borrowerName,
+                       String borrowerEmail, LocalDate borrowDate, LocalDate dueDate, int daysOverdue) {
+        this.recordId = recordId;
+        this.bookId = bookId;
+        this.title = title;
+        this.borrowerId = borrowerId;
+        this.borrowerName = borrowerName;
+        this.borrowerEmail = borrowerEmail;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+        this.daysOverdue = daysOverdue;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getBorrowerId() {
+        return borrowerId;
+    }
+
+    public String getBorrowerName() {
+        return borrowerName;
+    }
+
+    public String getBorrowerEmail() {
+        return borrowerEmail;
+    }
+
+    public LocalDate getBorrowDate() {
+        return borrowDate;
+    }
+
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    public int getDaysOverdue() {
+        return daysOverdue;
+    }
+}
@@ -0,0 +1,219 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Finds loans that are about to fall due or are already overdue and queues
+// one notice of each kind per loan in loan_notices. Each kind has a cursor
+// in loan_scan_cursors: the (due date, record ID) of the last loan it
+// handled. A scan walks the partial index of open loans forward from there,
+// so it reads only loans whose due date has come into range since the last
+// run, however long the loan history grows. Every batch inserts its notices
+// and moves the cursor in one short write transaction, so desks are never
+// held up for long and an interrupted scan resumes without repeating itself.
+//
+// A loan whose due date is moved back behind its cursor is not picked up
+// again; loans are only ever created with, or extended to, later dates.
+//
+// Each scan first expires holds whose set-aside copies were not collected in
+// time, so the copies move on to the next borrower in the queue, moves
+// long-returned loans to the archive (see LoanArchiver) and trims the change
+// log to its newest library.changes.keep entries (default 100,000).
+public class OverdueScheduler implements AutoCloseable {
+    public static final String INTERVAL_PROPERTY = "library.overdue.intervalMinutes";
+    public static final String REMINDER_DAYS_PROPERTY = "library.overdue.reminderDays";
+    public static final String CHANGES_KEPT_PROPERTY = "library.changes.keep";
+
+    private static final int DEFAULT_INTERVAL_MINUTES = 60;
+    private static final int DEFAULT_REMINDER_DAYS = 3;
+    private static final long DEFAULT_CHANGES_KEPT = 100_000;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String SELECT_CURSOR = "SELECT due_date, record_id FROM loan_scan_cursors WHERE kind = ?";
+    private static final String SAVE_CURSOR =
+            "INSERT INTO loan_scan_cursors (kind, due_date, record_id) VALUES (?, ?, ?)"
+                    + " ON CONFLICT (kind) DO UPDATE SET due_date = excluded.due_date, record_id = excluded.record_id";
+    // The row-value comparison resumes just after the cursor within the index
+    private static final String SELECT_DUE =
+            "SELECT id, borrower_id, book_id, due_date FROM borrow_records"
+                    + " WHERE return_date IS NULL AND (due_date, id) > (?, ?) AND due_date BETWEEN ? AND ?"
+                    + " ORDER BY due_date, id LIMIT ?";
+
+    // What one scan queued
+    public static class Result {
+        private final int dueSoon;
+        private final int overdue;
+        private final int expiredHolds;
+        private final int archivedLoans;
+        private final long millis;
+
+        Result(int dueSoon, int overdue, int expiredHolds, int archivedLoans, long millis) {
+            this.dueSoon = dueSoon;
+            this.overdue = overdue;
+            this.expiredHolds = expiredHolds;
+            this.archivedLoans = archivedLoans;
+            this.millis = millis;
+        }
+
+        public int getDueSoon() {
+            return dueSoon;
+        }
+
+        public int getOverdue() {
+            return overdue;
+        }
+
+        public int getExpiredHolds() {
+            return expiredHolds;
+        }
+
+        public int getArchivedLoans() {
+            return archivedLoans;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "Queued " + dueSoon + " due-soon and " + overdue + " overdue notice(s), expired "
+                    + expiredHolds + " hold(s) and archived " + archivedLoans + " loan(s) in " + millis + " ms";
+        }
+    }
+
+    private final DatabaseUtil db;
+    private final LoanNoticeRepository notices;
+    private final CirculationService circulation;
+    private final LoanArchiver archiver;
+    private final ChangeLogRepository changeLog;
+    private final long changesKept = Long.getLong(CHANGES_KEPT_PROPERTY, DEFAULT_CHANGES_KEPT);
+    private final int reminderDays;
+    private final Object scanLock = new Object();
+    private ScheduledExecutorService timer;
+    private volatile Result lastResult;
+
+    public OverdueScheduler(DatabaseUtil db, CirculationService circulation) {
+        this(db, circulation, Integer.getInteger(REMINDER_DAYS_PROPERTY, DEFAULT_REMINDER_DAYS));
+    }
+
+    public OverdueScheduler(DatabaseUtil db, CirculationService circulation, int reminderDays) {
+        this.db = db;
+        this.notices = new LoanNoticeRepository(db);
+        this.circulation = circulation;
+        this.archiver = new LoanArchiver(db);
+        this.changeLog = new ChangeLogRepository(db);
+        this.reminderDays = reminderDays;
+    }
+
+    // Scan now and then every library.overdue.intervalMinutes (default 60) on
+    // a background thread. Hourly runs cost little because each one only
+    // reads what has come due since the last, and they pick up the new day
+    // soon after midnight.
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        long interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MINUTES);
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("overdue-scan").daemon().factory());
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                scan(LocalDate.now());
+            } catch (SQLException | RuntimeException e) {
+                // Try again at the next interval; the cursors are where the last batch left them
+                e.printStackTrace();
+            }
+        }, 0, interval, TimeUnit.MINUTES);
+    }
+
+    // Result of the most recent scan, or null before the first one finishes
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    // Expire uncollected holds, archive old loans and trim the change log,
+    // then queue due-soon notices for loans due within reminderDays of today
+    // and overdue notices for loans due before today. A manual scan and the timer take turns, so
+    // they never advance the same cursor at once.
+    public Result scan(LocalDate today) throws SQLException {
+        synchronized (scanLock) {
+            long start = System.nanoTime();
+            long todayDay = today.toEpochDay();
+            int expiredHolds = circulation.expireHolds(today);
+            int archivedLoans = archiver.archive(today);
+            changeLog.prune(changesKept);
+            int dueSoon = scan(LoanNotice.Kind.DUE_SOON, todayDay, todayDay + reminderDays, today);
+            int overdue = scan(LoanNotice.Kind.OVERDUE, Long.MIN_VALUE, todayDay - 1, today);
+            Result result = new Result(dueSoon, overdue, expiredHolds, archivedLoans, (System.nanoTime() - start) / 1_000_000);
+            lastResult = result;
+            return result;
+        }
+    }
+
+    private int scan(LoanNotice.Kind kind, long fromDay, long toDay, LocalDate today) throws SQLException {
+        int queued = 0;
+        while (true) {
+            DatabaseUtil.checkInterrupted();
+            int[] batch = db.transaction("overdue.scan", c -> scanBatch(c, kind, fromDay, toDay, today));
+            queued += batch[1];
+            if (batch[0] < BATCH_SIZE) {
+                return queued;
+            }
+        }
+    }
+
+    // One batch: returns {loans read, notices queued}
+    private int[] scanBatch(PooledConnection c, LoanNotice.Kind kind, long fromDay, long toDay, LocalDate today)
+            throws SQLException {
+        long cursorDay = Long.MIN_VALUE;
+        long cursorId = 0;
+        PreparedStatement select = c.prepare(SELECT_CURSOR);
+        select.setString(1, kind.name());
+        try (ResultSet rs = select.executeQuery()) {
+            if (rs.next()) {
+                cursorDay = rs.getLong(1);
+                cursorId = rs.getLong(2);
+            }
+        }
+
+        PreparedStatement due = c.prepare(SELECT_DUE);
+        due.setLong(1, cursorDay);
+        due.setLong(2, cursorId);
+        due.setLong(3, fromDay);
+        due.setLong(4, toDay);
+        due.setInt(5, BATCH_SIZE);
+        int read = 0;
+        int queued = 0;
+        try (ResultSet rs = due.executeQuery()) {
+            while (rs.next()) {
+                read++;
+                cursorId = rs.getInt("id");
+                cursorDay = rs.getLong("due_date");
+                queued += notices.enqueue(c, (int) cursorId, rs.getInt("borrower_id"), rs.getInt("book_id"),
+                        kind, cursorDay, today);
+            }
+        }
+        if (read > 0) {
+            PreparedStatement save = c.prepare(SAVE_CURSOR);
+            save.setString(1, kind.name());
+            save.setLong(2, cursorDay);
+            save.setLong(3, cursorId);
+            save.executeUpdate();
+        }
+        return new int[]{read, queued};
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
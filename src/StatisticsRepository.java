@@ -0,0 +1,206 @@
+import com.example.library.DatabaseUtil;
+import com.example.library.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Running circulation totals: loans per book, per borrower and per genre
+// (all time, and out now) and checkouts and returns per day. The counters
+// are adjusted inside the same transactions that write the loans, so they
+// always agree with borrow_records and its archive. The dashboard reads the
+// top of each ranking off an index and the last few days by key, so its cost
+// does not grow with the loan history.
+//
+// Genre totals follow a book's current genre: moving a book to another
+// genre moves its totals with it. Deleting a book takes its loans out of
+// every total except the daily counts, which record what happened each day.
+public class StatisticsRepository {
+    private static final String ADD_BOOK =
+            "INSERT INTO book_loan_stats (book_id, loan_count, active) VALUES (?, ?, ?) ON CONFLICT (book_id)"
+                    + " DO UPDATE SET loan_count = loan_count + excluded.loan_count, active = active + excluded.active";
+    private static final String ADD_BORROWER =
+            "INSERT INTO borrower_loan_stats (borrower_id, loan_count, active) VALUES (?, ?, ?) ON CONFLICT (borrower_id)"
+                    + " DO UPDATE SET loan_count = loan_count + excluded.loan_count, active = active + excluded.active";
+    private static final String ADD_GENRE =
+            "INSERT INTO genre_loan_stats (genre, loan_count, active) SELECT IFNULL(genre, ''), ?, ? FROM books"
+                    + " WHERE id = ? ON CONFLICT (genre)"
+                    + " DO UPDATE SET loan_count = loan_count + excluded.loan_count, active = active + excluded.active";
+    private static final String ADD_DAY =
+            "INSERT INTO daily_circulation (day, checkouts, returns) VALUES (?, ?, ?) ON CONFLICT (day)"
+                    + " DO UPDATE SET checkouts = checkouts + excluded.checkouts, returns = returns + excluded.returns";
+    // A book's whole totals, into or out of the genre it has now
+    private static final String BOOK_INTO_GENRE =
+            "INSERT INTO genre_loan_stats (genre, loan_count, active)"
+                    + " SELECT IFNULL(b.genre, ''), s.loan_count, s.active FROM book_loan_stats s, books b"
+                    + " WHERE s.book_id = ? AND b.id = s.book_id ON CONFLICT (genre)"
+                    + " DO UPDATE SET loan_count = loan_count + excluded.loan_count, active = active + excluded.active";
+    private static final String BOOK_OUT_OF_GENRE =
+            "UPDATE genre_loan_stats SET loan_count = genre_loan_stats.loan_count - s.loan_count,"
+                    + " active = genre_loan_stats.active - s.active FROM book_loan_stats s, books b"
+                    + " WHERE s.book_id = ? AND b.id = s.book_id AND genre_loan_stats.genre = IFNULL(b.genre, '')";
+    private static final String REMOVE_BOOK_FROM_BORROWERS =
+            "UPDATE borrower_loan_stats SET loan_count = borrower_loan_stats.loan_count - r.loan_count,"
+                    + " active = borrower_loan_stats.active - r.active"
+                    + " FROM (SELECT borrower_id, COUNT(*) AS loan_count, SUM(return_date IS NULL) AS active FROM ("
+                    + "SELECT borrower_id, return_date FROM borrow_records WHERE book_id = ?1"
+                    + " UNION ALL SELECT borrower_id, return_date FROM borrow_records_archive WHERE book_id = ?1)"
+                    + " GROUP BY borrower_id) r"
+                    + " WHERE borrower_loan_stats.borrower_id = r.borrower_id";
+    private static final String DELETE_BOOK = "DELETE FROM book_loan_stats WHERE book_id = ?";
+
+    private static final String SELECT_TOTALS =
+            "SELECT IFNULL(SUM(loan_count), 0), IFNULL(SUM(active), 0) FROM genre_loan_stats";
+    private static final String SELECT_TOP_BOOKS =
+            "SELECT s.book_id, b.title, b.author, s.loan_count, s.active"
+                    + " FROM book_loan_stats s CROSS JOIN books b ON b.id = s.book_id"
+                    + " ORDER BY s.loan_count DESC, s.book_id LIMIT ?";
+    private static final String SELECT_TOP_BORROWERS =
+            "SELECT s.borrower_id, p.name, p.email, s.loan_count, s.active"
+                    + " FROM borrower_loan_stats s CROSS JOIN borrowers p ON p.id = s.borrower_id"
+                    + " ORDER BY s.loan_count DESC, s.borrower_id LIMIT ?";
+    private static final String SELECT_GENRES =
+            "SELECT 0, genre, NULL, loan_count, active FROM genre_loan_stats"
+                    + " WHERE loan_count > 0 ORDER BY active DESC, loan_count DESC, genre";
+    private static final String SELECT_DAYS =
+            "SELECT day, checkouts, returns FROM daily_circulation WHERE day > ? ORDER BY day";
+
+    private final DatabaseUtil db;
+
+    public StatisticsRepository(DatabaseUtil db) {
+        this.db = db;
+    }
+
+    // The top entries of each ranking, every genre, and the last `days` days up to today
+    public CirculationStats dashboard(int top, int days, LocalDate today) throws SQLException {
+        return db.read("stats.dashboard", c -> {
+            long totalLoans = 0;
+            long activeLoans = 0;
+            try (ResultSet rs = c.prepare(SELECT_TOTALS).executeQuery()) {
+                if (rs.next()) {
+                    totalLoans = rs.getLong(1);
+                    activeLoans = rs.getLong(2);
+                }
+            }
+            List<CirculationStats.Day> daily = new ArrayList<>();
+            PreparedStatement ps = c.prepare(SELECT_DAYS);
+            ps.setLong(1, today.toEpochDay() - days);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    daily.add(new CirculationStats.Day(LocalDate.ofEpochDay(rs.getLong("day")),
+                            rs.getInt("checkouts"), rs.getInt("returns")));
+                }
+            }
+            return new CirculationStats(totalLoans, activeLoans, ranking(c, SELECT_TOP_BOOKS, top),
+                    ranking(c, SELECT_TOP_BORROWERS, top), ranking(c, SELECT_GENRES, -1), daily);
+        });
+    }
+
+    // Called by CirculationService in the checkout transaction, after the loan is written
+    void recordCheckout(PooledConnection c, int bookId, int borrowerId, LocalDate day) throws SQLException {
+        add(c, Map.of(bookId, borrowerId), day, 1, 1, 0);
+    }
+
+    // Called by CirculationService in the return transaction
+    void recordReturn(PooledConnection c, int bookId, int borrowerId, LocalDate day) throws SQLException {
+        add(c, Map.of(bookId, borrowerId), day, 0, -1, 1);
+    }
+
+    // The batch forms, for several books in one transaction
+    void recordCheckouts(PooledConnection c, List<Integer> bookIds, int borrowerId, LocalDate day) throws SQLException {
+        Map<Integer, Integer> loans = new LinkedHashMap<>();
+        for (int bookId : bookIds) {
+            loans.put(bookId, borrowerId);
+        }
+        add(c, loans, day, 1, 1, 0);
+    }
+
+    // loans maps book ID to borrower ID
+    void recordReturns(PooledConnection c, Map<Integer, Integer> loans, LocalDate day) throws SQLException {
+        add(c, loans, day, 0, -1, 1);
+    }
+
+    // Called by BookRepository around a book update, which may change its genre
+    void bookLeavingGenre(PooledConnection c, int bookId) throws SQLException {
+        execute(c, BOOK_OUT_OF_GENRE, bookId);
+    }
+
+    void bookJoiningGenre(PooledConnection c, int bookId) throws SQLException {
+        execute(c, BOOK_INTO_GENRE, bookId);
+    }
+
+    // Called by BookRepository before a book and its loans are deleted
+    void bookDeleted(PooledConnection c, int bookId) throws SQLException {
+        execute(c, BOOK_OUT_OF_GENRE, bookId);
+        execute(c, REMOVE_BOOK_FROM_BORROWERS, bookId);
+        execute(c, DELETE_BOOK, bookId);
+    }
+
+    // Adjust the totals for one loan event per book (loans maps book ID to
+    // borrower ID); each borrower and the day are updated once for the lot
+    private static void add(PooledConnection c, Map<Integer, Integer> loans, LocalDate day,
+                            int loanDelta, int activeDelta, int returnDelta) throws SQLException {
+        if (loans.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> perBorrower = new LinkedHashMap<>();
+        PreparedStatement books = c.prepare(ADD_BOOK);
+        PreparedStatement genres = c.prepare(ADD_GENRE);
+        for (Map.Entry<Integer, Integer> loan : loans.entrySet()) {
+            books.setInt(1, loan.getKey());
+            books.setInt(2, loanDelta);
+            books.setInt(3, activeDelta);
+            books.addBatch();
+            genres.setInt(1, loanDelta);
+            genres.setInt(2, activeDelta);
+            genres.setInt(3, loan.getKey());
+            genres.addBatch();
+            perBorrower.merge(loan.getValue(), 1, Integer::sum);
+        }
+        books.executeBatch();
+        genres.executeBatch();
+
+        PreparedStatement ps = c.prepare(ADD_BORROWER);
+        for (Map.Entry<Integer, Integer> borrower : perBorrower.entrySet()) {
+            ps.setInt(1, borrower.getKey());
+            ps.setInt(2, loanDelta * borrower.getValue());
+            ps.setInt(3, activeDelta * borrower.getValue());
+            ps.addBatch();
+        }
+        ps.executeBatch();
+
+        ps = c.prepare(ADD_DAY);
+        ps.setLong(1, day.toEpochDay());
+        ps.setInt(2, loanDelta * loans.size());
+        ps.setInt(3, returnDelta * loans.size());
+        ps.executeUpdate();
+    }
+
+    private static void execute(PooledConnection c, String sql, int id) throws SQLException {
+        PreparedStatement ps = c.prepare(sql);
+        ps.setInt(1, id);
+        ps.executeUpdate();
+    }
+
+    // limit < 0 reads the whole (small) table
+    private static List<CirculationStats.Ranked> ranking(PooledConnection c, String sql, int limit)
+            throws SQLException {
+        List<CirculationStats.Ranked> rows = new ArrayList<>();
+        PreparedStatement ps = c.prepare(sql);
+        if (limit >= 0) {
+            ps.setInt(1, limit);
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new CirculationStats.Ranked(rs.getInt(1), rs.getString(2), rs.getString(3),
+                        rs.getInt(4), rs.getInt(5)));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,150 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Hands the result of a background database call back to the Swing Event
+// Dispatch Thread. If the call is still running after a short delay a small
+// progress window is shown, with a Cancel button for reads and scans. Writes
+// get no Cancel button: the transaction may commit after the interrupt, and
+// the desk has to be told whether the change happened. debounce holds a search
+// back until the user pauses typing.
+public final class UiTasks {
+    private static final int PROGRESS_DELAY_MILLIS = 300;
+
+    private UiTasks() {
+    }
+
+    // Show progressMessage while the future runs, then call onSuccess on the
+    // EDT, or report "errorPrefix: message" if it failed. Nothing is called
+    // when the user cancels.
+    public static <T> void run(Component owner, String progressMessage, String errorPrefix,
+                               CompletableFuture<T> future, Consumer<T> onSuccess) {
+        run(owner, progressMessage, null, errorPrefix, future, onSuccess);
+    }
+
+    // As above, but the progress window also shows the text returned by
+    // status, polled a few times a second. status may be called on the EDT
+    // while the task runs, so it must be cheap and thread safe.
+    public static <T> void run(Component owner, String progressMessage, Supplier<String> status, String errorPrefix,
+                               CompletableFuture<T> future, Consumer<T> onSuccess) {
+        run(owner, progressMessage, status, errorPrefix, future, onSuccess, true);
+    }
+
+    // As run, for a call that changes the database: the progress window has
+    // no Cancel button, so onSuccess or the error is always reported
+    public static <T> void runWrite(Component owner, String progressMessage, String errorPrefix,
+                                    CompletableFuture<T> future, Consumer<T> onSuccess) {
+        run(owner, progressMessage, null, errorPrefix, future, onSuccess, false);
+    }
+
+    // runWrite with a status line, as above
+    public static <T> void runWrite(Component owner, String progressMessage, Supplier<String> status,
+                                    String errorPrefix, CompletableFuture<T> future, Consumer<T> onSuccess) {
+        run(owner, progressMessage, status, errorPrefix, future, onSuccess, false);
+    }
+
+    private static <T> void run(Component owner, String progressMessage, Supplier<String> status, String errorPrefix,
+                                CompletableFuture<T> future, Consumer<T> onSuccess, boolean cancellable) {
+        JDialog[] progress = new JDialog[1];
+        JLabel statusLabel = new JLabel(" ");
+        Timer timer = new Timer(PROGRESS_DELAY_MILLIS, e -> {
+            if (future.isDone()) {
+                return;
+            }
+            if (progress[0] == null) {
+                progress[0] = createProgressDialog(owner, progressMessage, status != null ? statusLabel : null,
+                        cancellable ? future : null);
+                progress[0].setVisible(true);
+            }
+            if (status != null) {
+                String text = status.get();
+                statusLabel.setText(text == null || text.isEmpty() ? " " : text);
+            }
+        });
+        timer.setRepeats(status != null);
+        timer.start();
+
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            timer.stop();
+            if (progress[0] != null) {
+                progress[0].dispose();
+            }
+            if (error == null) {
+                onSuccess.accept(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                return;
+            }
+            cause.printStackTrace();
+            JOptionPane.showMessageDialog(owner, errorPrefix + ": " + cause.getMessage());
+        }));
+    }
+
+    // Call action on the EDT once the text has stopped changing for delayMillis.
+    // The returned timer must be stopped when the window closes.
+    public static Timer debounce(JTextComponent field, int delayMillis, Runnable action) {
+        Timer timer = new Timer(delayMillis, e -> action.run());
+        timer.setRepeats(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+        });
+        return timer;
+    }
+
+    // Without a future to cancel there is no Cancel button
+    private static JDialog createProgressDialog(Component owner, String message, JLabel statusLabel,
+                                                CompletableFuture<?> future) {
+        Window window = owner instanceof Window ? (Window) owner
+                : owner != null ? SwingUtilities.getWindowAncestor(owner) : null;
+        JDialog dialog = new JDialog(window, "Please wait", Dialog.ModalityType.MODELESS);
+        JProgressBar bar = new JProgressBar();
+        bar.setIndeterminate(true);
+        JButton cancelButton = null;
+        if (future != null) {
+            cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> {
+                future.cancel(true);
+                dialog.dispose();
+            });
+        }
+
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(new JLabel(message), BorderLayout.NORTH);
+        panel.add(bar, BorderLayout.CENTER);
+        JPanel south = new JPanel(new BorderLayout(10, 10));
+        if (statusLabel != null) {
+            south.add(statusLabel, BorderLayout.NORTH);
+        }
+        if (cancelButton != null) {
+            south.add(cancelButton, BorderLayout.SOUTH);
+        }
+        panel.add(south, BorderLayout.SOUTH);
+        dialog.add(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+        return dialog;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.library;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Instrumentation for one DatabaseUtil. Every read/write/transaction call is
+// timed under its operation name; services time whole desk actions the same
+// way, so the two views show both which actions dominate load and which
+// queries they spend it on. Calls slower than library.slowQueryMillis
+// (default 100) are logged with the SQL they ran.
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+    public static final String SLOW_QUERY_MILLIS_PROPERTY = "library.slowQueryMillis";
+    public static final String OBJECT_NAME = "com.example.library:type=DatabaseMetrics";
+
+    private static final Logger SLOW_QUERY_LOG = Logger.getLogger("com.example.library.slowquery");
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+    private static final int SLOW_QUERY_HISTORY = 100;
+
+    // A named value sampled when metrics are read, e.g. a cache size
+    public record Gauge(String name, String help, DoubleSupplier value) {
+    }
+
+    private final DatabaseUtil db;
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OperationMetrics> actions = new ConcurrentHashMap<>();
+    private final LatencyHistogram readerWait = new LatencyHistogram();
+    private final LatencyHistogram writerWait = new LatencyHistogram();
+    private final LongAdder readerTimeouts = new LongAdder();
+    private final LongAdder writerTimeouts = new LongAdder();
+    private final LongAdder slowQueryCount = new LongAdder();
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+    private volatile long slowQueryNanos;
+
+    DatabaseMetrics(DatabaseUtil db) {
+        this.db = db;
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.getLong(SLOW_QUERY_MILLIS_PROPERTY, DEFAULT_SLOW_QUERY_MILLIS));
+    }
+
+    public OperationMetrics operation(String name) {
+        return operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    // Metrics for a user-level action (one UI or API request), which may run
+    // several data-access operations
+    public OperationMetrics action(String name) {
+        return actions.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    public void addGauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    public List<Gauge> gauges() {
+        return List.copyOf(gauges);
+    }
+
+    // Live operation metrics by name, for exporters that want the full histogram
+    public Map<String, OperationMetrics> operationMetrics() {
+        return sorted(operations);
+    }
+
+    public Map<String, OperationMetrics> actionMetrics() {
+        return sorted(actions);
+    }
+
+    public LatencyHistogram readerWait() {
+        return readerWait;
+    }
+
+    public LatencyHistogram writerWait() {
+        return writerWait;
+    }
+
+    public long readerTimeouts() {
+        return readerTimeouts.sum();
+    }
+
+    public long writerTimeouts() {
+        return writerTimeouts.sum();
+    }
+
+    public long slowQueryCount() {
+        return slowQueryCount.sum();
+    }
+
+    void recordLeaseWait(boolean reader, long nanos, boolean timedOut) {
+        (reader ? readerWait : writerWait).record(nanos);
+        if (timedOut) {
+            (reader ? readerTimeouts : writerTimeouts).increment();
+        }
+    }
+
+    // Called by DatabaseUtil when an operation finishes; connection is null
+    // if no connection could be leased
+    void record(String operation, long nanos, boolean failed, PooledConnection connection) {
+        operation(operation).record(nanos, failed);
+        if (nanos < slowQueryNanos) {
+            return;
+        }
+        slowQueryCount.increment();
+        SlowQuery slow = new SlowQuery(operation, System.currentTimeMillis(), nanos / 1_000_000.0,
+                connection == null ? List.of() : connection.describeTrace());
+        synchronized (slowQueries) {
+            if (slowQueries.size() == SLOW_QUERY_HISTORY) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(slow);
+        }
+        SLOW_QUERY_LOG.log(Level.WARNING, "Slow query: {0}", slow);
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        return snapshot(operations);
+    }
+
+    @Override
+    public List<OperationStats> getActions() {
+        return snapshot(actions);
+    }
+
+    @Override
+    public PoolStats getPool() {
+        return db.poolStats();
+    }
+
+    @Override
+    public Map<String, Double> getGauges() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Gauge gauge : gauges) {
+            values.put(gauge.name(), gauge.value().getAsDouble());
+        }
+        return values;
+    }
+
+    // Most recent first
+    @Override
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            List<SlowQuery> recent = new ArrayList<>(slowQueries);
+            Collections.reverse(recent);
+            return recent;
+        }
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryNanos);
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    @Override
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+        actions.values().forEach(OperationMetrics::reset);
+        readerWait.reset();
+        writerWait.reset();
+        readerTimeouts.reset();
+        writerTimeouts.reset();
+        slowQueryCount.reset();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    // Register with the platform MBean server; a second pool in the same JVM
+    // is told apart by its database path
+    public ObjectName registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            name = new ObjectName(OBJECT_NAME + ",database=" + ObjectName.quote(db.getDatabasePath()));
+        }
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    private static List<OperationStats> snapshot(Map<String, OperationMetrics> metrics) {
+        List<OperationStats> stats = new ArrayList<>();
+        for (OperationMetrics m : metrics.values()) {
+            stats.add(m.snapshot());
+        }
+        // Heaviest first: total time is what a desk actually waits on
+        stats.sort(Comparator.comparingDouble(OperationStats::getTotalMillis).reversed());
+        return stats;
+    }
+
+    private static Map<String, OperationMetrics> sorted(Map<String, OperationMetrics> metrics) {
+        return new TreeMap<>(metrics);
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.library;
+
+import java.util.List;
+import java.util.Map;
+
+// JMX view of DatabaseMetrics, registered as com.example.library:type=DatabaseMetrics
+public interface DatabaseMetricsMXBean {
+    List<OperationStats> getOperations();
+
+    List<OperationStats> getActions();
+
+    PoolStats getPool();
+
+    Map<String, Double> getGauges();
+
+    List<SlowQuery> getSlowQueries();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long millis);
+
+    void reset();
+}
@@ -1,16 +1,348 @@
 package com.example.library;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
-public class DatabaseUtil {
-    private static final String DATABASE_URL = "jdbc:sqlite:C:\\Users\\mixa2\\IdeaProjects\\Project\\src\\database"; // Replace with your database path
-    private static final String DATABASE_USER = ""; // For SQLite, this is usually empty
-    private static final String DATABASE_PASSWORD = ""; // For SQLite, this is usually empty
+// Connection pool for the SQLite database. The file is opened in WAL mode so
+// that readers never block the writer: one dedicated connection handles all
+// writes, and a fixed set of read-only connections serves queries. Every
+// read/write/transaction call and every lease is recorded in getMetrics().
+public class DatabaseUtil implements AutoCloseable {
+    public static final String DEFAULT_DATABASE_PATH = "src/database/library.db";
+    public static final String DATABASE_PATH_PROPERTY = "library.db";
+    public static final String BRANCHES_PROPERTY = "library.branches";
+    public static final String DEFAULT_BRANCH = "main";
 
-    // Method to get a connection to the database
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30_000;
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+    private static final String[] PRAGMAS = {
+            "PRAGMA synchronous = NORMAL",     // WAL is crash-safe with NORMAL and avoids an fsync per commit
+            "PRAGMA cache_size = -32000",      // 32 MB page cache per connection
+            "PRAGMA mmap_size = 268435456",    // map up to 256 MB of the file
+            "PRAGMA temp_store = MEMORY",
+            "PRAGMA busy_timeout = 5000"
+    };
+
+    private final String databasePath;
+    private final PooledConnection writer;
+    private final Semaphore writerLock = new Semaphore(1, true);
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private final DatabaseMetrics metrics = new DatabaseMetrics(this);
+    private volatile boolean closed;
+
+    public DatabaseUtil(String databasePath, int readerCount) throws SQLException {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be at least 1");
+        }
+        this.databasePath = databasePath;
+        this.readers = new ArrayBlockingQueue<>(readerCount);
+        try {
+            // The writer is opened first so the database is switched to WAL
+            // before any read-only connection attaches to it.
+            this.writer = new PooledConnection(this, openConnection(false), false);
+            for (int i = 0; i < readerCount; i++) {
+                PooledConnection reader = new PooledConnection(this, openConnection(true), true);
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    public DatabaseUtil(String databasePath) throws SQLException {
+        this(databasePath, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Database path from the first command-line argument, the library.db
+    // system property, or the copy shipped under src/database
+    public static String resolvePath(String[] args) {
+        if (args != null && args.length > 0 && !args[0].isBlank()) {
+            return args[0];
+        }
+        return System.getProperty(DATABASE_PATH_PROPERTY, DEFAULT_DATABASE_PATH);
+    }
+
+    // Database file per branch, in the order given by library.branches
+    // (name=path,name=path,...). Without it there is one branch, DEFAULT_BRANCH,
+    // on the file chosen by resolvePath.
+    public static Map<String, String> resolveBranches(String[] args) {
+        String spec = System.getProperty(BRANCHES_PROPERTY, "").trim();
+        Map<String, String> branches = new LinkedHashMap<>();
+        if (spec.isEmpty()) {
+            branches.put(DEFAULT_BRANCH, resolvePath(args));
+            return branches;
+        }
+        for (String entry : spec.split(",")) {
+            int eq = entry.indexOf('=');
+            String name = eq < 0 ? "" : entry.substring(0, eq).trim();
+            String path = eq < 0 ? "" : entry.substring(eq + 1).trim();
+            if (name.isEmpty() || path.isEmpty()) {
+                throw new IllegalArgumentException(BRANCHES_PROPERTY + " entries must be name=path, got: " + entry.trim());
+            }
+            if (branches.putIfAbsent(name, path) != null) {
+                throw new IllegalArgumentException("Branch " + name + " is listed twice in " + BRANCHES_PROPERTY);
+            }
+        }
+        return branches;
+    }
+
+    public String getDatabasePath() {
+        return databasePath;
+    }
+
+    public int getReaderCount() {
+        return allReaders.size();
+    }
+
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Lease a read-only connection; close it to give it back
+    public PooledConnection reader() throws SQLException {
+        checkOpen();
+        long start = System.nanoTime();
+        boolean timedOut = false;
+        try {
+            PooledConnection reader = readers.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (reader == null) {
+                timedOut = true;
+                throw new SQLException("Timed out waiting for a read connection");
+            }
+            reader.lease();
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        } finally {
+            metrics.recordLeaseWait(true, System.nanoTime() - start, timedOut);
+        }
+    }
+
+    // Lease the single writer connection; close it to give it back
+    public PooledConnection writer() throws SQLException {
+        checkOpen();
+        long start = System.nanoTime();
+        boolean timedOut = false;
+        try {
+            if (!writerLock.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                timedOut = true;
+                throw new SQLException("Timed out waiting for the write connection");
+            }
+            writer.lease();
+            return writer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the write connection", e);
+        } finally {
+            metrics.recordLeaseWait(false, System.nanoTime() - start, timedOut);
+        }
+    }
+
+    // Run a query on a pooled read-only connection, timed as operation
+    public <T> T read(String operation, SqlFunction<T> work) throws SQLException {
+        return run(operation, true, false, work);
+    }
+
+    public <T> T read(SqlFunction<T> work) throws SQLException {
+        return read("read", work);
+    }
+
+    // Run a single auto-committed statement (or several independent ones) on the writer
+    public <T> T write(String operation, SqlFunction<T> work) throws SQLException {
+        return run(operation, false, false, work);
+    }
+
+    public <T> T write(SqlFunction<T> work) throws SQLException {
+        return write("write", work);
+    }
+
+    // Run work on the writer inside one transaction, rolling back on failure.
+    // Actions registered with PooledConnection.afterCommit run after the
+    // commit, while the writer is still held.
+    public <T> T transaction(String operation, SqlFunction<T> work) throws SQLException {
+        return run(operation, false, true, work);
+    }
+
+    public <T> T transaction(SqlFunction<T> work) throws SQLException {
+        return transaction("transaction", work);
+    }
+
+    // Time covers the lease wait as well as the work, since that is what the caller sees
+    private <T> T run(String operation, boolean readOnly, boolean inTransaction, SqlFunction<T> work)
+            throws SQLException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        PooledConnection pooled = null;
+        try {
+            pooled = readOnly ? reader() : writer();
+            T result = inTransaction ? inTransaction(pooled, work) : work.apply(pooled);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed, pooled);
+            if (pooled != null) {
+                pooled.close();
+            }
+        }
+    }
+
+    private static <T> T inTransaction(PooledConnection pooled, SqlFunction<T> work) throws SQLException {
+        Connection connection = pooled.getConnection();
+        connection.setAutoCommit(false);
+        try {
+            T result = work.apply(pooled);
+            connection.commit();
+            pooled.runAfterCommit();
+            return result;
+        } catch (Throwable e) {
+            // Errors too: the finally below would otherwise commit the half-done work
+            pooled.discardAfterCommit();
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackEx) {
+                e.addSuppressed(rollbackEx);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    PoolStats poolStats() {
+        int cached = 0;
+        long hits = 0;
+        long misses = 0;
+        List<PooledConnection> connections = new ArrayList<>(allReaders);
+        connections.add(writer);
+        for (PooledConnection connection : connections) {
+            StatementCache cache = connection.statementCache();
+            cached += cache.size();
+            hits += cache.hits();
+            misses += cache.misses();
+        }
+        LatencyHistogram readerWait = metrics.readerWait();
+        LatencyHistogram writerWait = metrics.writerWait();
+        return new PoolStats(allReaders.size(), readers.size(), writerLock.availablePermits() == 0,
+                readerWait.getCount(), writerWait.getCount(),
+                readerWait.percentile(99) / 1_000_000.0, writerWait.percentile(99) / 1_000_000.0,
+                metrics.readerTimeouts(), metrics.writerTimeouts(), cached, hits, misses);
+    }
+
+    // Write a consistent, compacted copy of the database to target with
+    // VACUUM INTO. It only needs a read transaction, so in WAL mode desks keep
+    // writing while it runs. A separate connection is used because pooled
+    // readers are opened read-only and cannot create the output file. The copy
+    // is written next to target and renamed over it, so an existing backup is
+    // replaced only once the new one is complete.
+    public void backupTo(Path target) throws SQLException, IOException {
+        checkOpen();
+        Path absolute = target.toAbsolutePath();
+        Path partial = absolute.resolveSibling(absolute.getFileName() + ".partial");
+        Files.deleteIfExists(partial);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
+             PreparedStatement vacuum = connection.prepareStatement("VACUUM INTO ?")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = 5000");
+            }
+            vacuum.setString(1, partial.toString());
+            vacuum.execute();
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    // True if the statement failed because another connection holds the lock
+    public static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xff;
+        return code == SQLITE_BUSY || code == SQLITE_LOCKED;
+    }
+
+    // Long scans call this between rows so a cancelled (interrupted) task stops early
+    public static void checkInterrupted() throws SQLException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new SQLException("Query cancelled");
+        }
+    }
+
+    void release(PooledConnection connection) {
+        if (connection.isReadOnly()) {
+            readers.offer(connection);
+        } else {
+            writerLock.release();
+        }
+    }
+
+    private Connection openConnection(boolean readOnly) throws SQLException {
+        Properties properties = new Properties();
+        if (readOnly) {
+            properties.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+        } else {
+            // BEGIN IMMEDIATE takes the write lock up front instead of failing on upgrade
+            properties.setProperty("transaction_mode", "IMMEDIATE");
+        }
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath, properties);
+        try (Statement stmt = connection.createStatement()) {
+            if (!readOnly) {
+                stmt.execute("PRAGMA journal_mode = WAL");
+            }
+            for (String pragma : PRAGMAS) {
+                stmt.execute(pragma);
+            }
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = 1");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool for " + databasePath + " is closed");
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        List<PooledConnection> connections = new ArrayList<>(allReaders);
+        if (writer != null) {
+            connections.add(writer);
+        }
+        for (PooledConnection connection : connections) {
+            try {
+                connection.closePhysical();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
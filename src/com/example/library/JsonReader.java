@@ -0,0 +1,213 @@
+package com.example.library;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streaming reader for a sequence of JSON objects. Accepts either one
+// top-level array of objects or newline-delimited JSON (one object per line)
+// and returns one object at a time, so only the current record is in memory.
+// Values come back as String, Long, Double, Boolean, null, List or Map.
+public class JsonReader implements AutoCloseable {
+    private final PushbackReader reader;
+    private boolean started;
+    private boolean inArray;
+    private boolean finished;
+
+    public JsonReader(Reader reader) {
+        this.reader = new PushbackReader(reader, 1);
+    }
+
+    // Next object, or null when the input is exhausted
+    public Map<String, Object> readObject() throws IOException {
+        if (finished) {
+            return null;
+        }
+        int ch = skipWhitespace();
+        if (!started) {
+            started = true;
+            if (ch == '[') {
+                inArray = true;
+                ch = skipWhitespace();
+                if (ch == ']') {
+                    finished = true;
+                    return null;
+                }
+            }
+        } else if (inArray) {
+            if (ch == ']') {
+                finished = true;
+                return null;
+            }
+            if (ch != ',') {
+                throw new IOException("Expected ',' or ']' between array elements");
+            }
+            ch = skipWhitespace();
+        }
+        if (ch == -1) {
+            finished = true;
+            return null;
+        }
+        if (ch != '{') {
+            throw new IOException("Expected a JSON object but found '" + (char) ch + "'");
+        }
+        return readObjectBody();
+    }
+
+    private Object readValue(int ch) throws IOException {
+        switch (ch) {
+            case '{':
+                return readObjectBody();
+            case '[':
+                return readArrayBody();
+            case '"':
+                return readString();
+            case 't':
+                expect("rue");
+                return Boolean.TRUE;
+            case 'f':
+                expect("alse");
+                return Boolean.FALSE;
+            case 'n':
+                expect("ull");
+                return null;
+            default:
+                if (ch == '-' || (ch >= '0' && ch <= '9')) {
+                    return readNumber(ch);
+                }
+                throw new IOException("Unexpected character '" + (char) ch + "'");
+        }
+    }
+
+    private Map<String, Object> readObjectBody() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        int ch = skipWhitespace();
+        if (ch == '}') {
+            return object;
+        }
+        while (true) {
+            if (ch != '"') {
+                throw new IOException("Expected a quoted field name");
+            }
+            String key = readString();
+            if (skipWhitespace() != ':') {
+                throw new IOException("Expected ':' after field name " + key);
+            }
+            object.put(key, readValue(skipWhitespace()));
+            ch = skipWhitespace();
+            if (ch == '}') {
+                return object;
+            }
+            if (ch != ',') {
+                throw new IOException("Expected ',' or '}' in object");
+            }
+            ch = skipWhitespace();
+        }
+    }
+
+    private List<Object> readArrayBody() throws IOException {
+        List<Object> array = new ArrayList<>();
+        int ch = skipWhitespace();
+        if (ch == ']') {
+            return array;
+        }
+        while (true) {
+            array.add(readValue(ch));
+            ch = skipWhitespace();
+            if (ch == ']') {
+                return array;
+            }
+            if (ch != ',') {
+                throw new IOException("Expected ',' or ']' in array");
+            }
+            ch = skipWhitespace();
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            int ch = reader.read();
+            if (ch == -1) {
+                throw new IOException("Unterminated string");
+            }
+            if (ch == '"') {
+                return text.toString();
+            }
+            if (ch == '\\') {
+                int escaped = reader.read();
+                switch (escaped) {
+                    case 'n' -> text.append('\n');
+                    case 't' -> text.append('\t');
+                    case 'r' -> text.append('\r');
+                    case 'b' -> text.append('\b');
+                    case 'f' -> text.append('\f');
+                    case 'u' -> {
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            int digit = reader.read();
+                            if (digit == -1) {
+                                throw new IOException("Unterminated unicode escape");
+                            }
+                            hex[i] = (char) digit;
+                        }
+                        text.append((char) Integer.parseInt(new String(hex), 16));
+                    }
+                    case -1 -> throw new IOException("Unterminated string");
+                    default -> text.append((char) escaped);
+                }
+            } else {
+                text.append((char) ch);
+            }
+        }
+    }
+
+    private Object readNumber(int first) throws IOException {
+        StringBuilder number = new StringBuilder().append((char) first);
+        boolean decimal = false;
+        while (true) {
+            int ch = reader.read();
+            if ((ch >= '0' && ch <= '9') || ch == '-' || ch == '+') {
+                number.append((char) ch);
+            } else if (ch == '.' || ch == 'e' || ch == 'E') {
+                decimal = true;
+                number.append((char) ch);
+            } else {
+                if (ch != -1) {
+                    reader.unread(ch);
+                }
+                break;
+            }
+        }
+        try {
+            return decimal ? (Object) Double.parseDouble(number.toString()) : (Object) Long.parseLong(number.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number " + number, e);
+        }
+    }
+
+    private void expect(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (reader.read() != rest.charAt(i)) {
+                throw new IOException("Invalid literal");
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int ch;
+        do {
+            ch = reader.read();
+        } while (ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t');
+        return ch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
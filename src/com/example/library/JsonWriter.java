@@ -0,0 +1,140 @@
+package com.example.library;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+// Streaming JSON writer, the counterpart of JsonReader. Values are written
+// as they are produced, so arbitrarily long arrays or newline-delimited
+// streams of objects need no buffering. Commas are inserted automatically.
+public class JsonWriter implements AutoCloseable {
+    private final Writer writer;
+    // One entry per open object or array: true until its first member is written
+    private final Deque<Boolean> first = new ArrayDeque<>();
+    private boolean afterName;
+
+    public JsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        separator();
+        writer.write('{');
+        first.push(true);
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        first.pop();
+        writer.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        separator();
+        writer.write('[');
+        first.push(true);
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        first.pop();
+        writer.write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        writeString(name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    // Strings, numbers, booleans, null, and nested Maps and Lists of those
+    public JsonWriter value(Object value) throws IOException {
+        if (value instanceof Map<?, ?> map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                name(String.valueOf(entry.getKey())).value(entry.getValue());
+            }
+            return endObject();
+        }
+        if (value instanceof List<?> list) {
+            beginArray();
+            for (Object element : list) {
+                value(element);
+            }
+            return endArray();
+        }
+        separator();
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+            writer.write(value.toString());
+        } else if (value instanceof Number number) {
+            double d = number.doubleValue();
+            writer.write(Double.isFinite(d) ? number.toString() : "null");
+        } else {
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    // End a top-level value with a newline, as newline-delimited JSON expects
+    public JsonWriter newline() throws IOException {
+        writer.write('\n');
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!first.isEmpty()) {
+            if (first.peek()) {
+                first.pop();
+                first.push(false);
+            } else {
+                writer.write(',');
+            }
+        }
+    }
+
+    // Characters that need no escaping are written in runs rather than one at a time
+    private void writeString(String text) throws IOException {
+        writer.write('"');
+        int run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch >= 0x20 && ch != '"' && ch != '\\') {
+                continue;
+            }
+            writer.write(text, run, i - run);
+            run = i + 1;
+            switch (ch) {
+                case '"' -> writer.write("\\\"");
+                case '\\' -> writer.write("\\\\");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\t' -> writer.write("\\t");
+                default -> writer.write(String.format("\\u%04x", (int) ch));
+            }
+        }
+        writer.write(text, run, text.length() - run);
+        writer.write('"');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
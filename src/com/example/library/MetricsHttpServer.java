@@ -0,0 +1,172 @@
+package com.example.library;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+// Serves DatabaseMetrics on the loopback interface in the Prometheus text
+// format: GET /metrics for the counters, GET /slow-queries for the recent
+// slow-query log. Started from main when library.metrics.port is set.
+public class MetricsHttpServer implements AutoCloseable {
+    public static final String PORT_PROPERTY = "library.metrics.port";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final HttpServer server;
+    private final DatabaseMetrics metrics;
+
+    public MetricsHttpServer(DatabaseMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", format(metrics)));
+        server.createContext("/slow-queries", exchange -> respond(exchange, "text/plain", slowQueries()));
+        server.start();
+    }
+
+    // Start on the port named by library.metrics.port, or return null if it is unset
+    public static MetricsHttpServer fromSystemProperties(DatabaseMetrics metrics) throws IOException {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        return port == null ? null : new MetricsHttpServer(metrics, port);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Render every metric in the Prometheus text exposition format
+    public static String format(DatabaseMetrics metrics) {
+        StringBuilder out = new StringBuilder(8192);
+        summary(out, "library_db_operation_seconds", "Data-access call latency, including the connection wait",
+                "operation", metrics.operationMetrics());
+        errors(out, "library_db_operation_errors_total", "Data-access calls that threw",
+                "operation", metrics.operationMetrics());
+        summary(out, "library_action_seconds", "Desk action latency, end to end",
+                "action", metrics.actionMetrics());
+        errors(out, "library_action_errors_total", "Desk actions that failed",
+                "action", metrics.actionMetrics());
+
+        PoolStats pool = metrics.getPool();
+        header(out, "library_db_pool_wait_seconds", "Time spent waiting to lease a connection", "summary");
+        waitSummary(out, "reader", metrics.readerWait());
+        waitSummary(out, "writer", metrics.writerWait());
+        header(out, "library_db_pool_timeouts_total", "Connection leases that timed out", "counter");
+        sample(out, "library_db_pool_timeouts_total{connection=\"reader\"}", pool.getReaderTimeouts());
+        sample(out, "library_db_pool_timeouts_total{connection=\"writer\"}", pool.getWriterTimeouts());
+        gauge(out, "library_db_pool_readers", "Read-only connections in the pool", pool.getReaders());
+        gauge(out, "library_db_pool_idle_readers", "Read-only connections not leased", pool.getIdleReaders());
+        gauge(out, "library_db_pool_writer_busy", "1 while the writer connection is leased",
+                pool.isWriterBusy() ? 1 : 0);
+        gauge(out, "library_db_statement_cache_statements", "Prepared statements cached across all connections",
+                pool.getCachedStatements());
+        counter(out, "library_db_statement_cache_hits_total", "Statements served from the cache",
+                pool.getStatementCacheHits());
+        counter(out, "library_db_statement_cache_misses_total", "Statements prepared on first use",
+                pool.getStatementCacheMisses());
+        counter(out, "library_db_slow_queries_total", "Data-access calls over the slow-query threshold",
+                metrics.slowQueryCount());
+
+        for (DatabaseMetrics.Gauge gauge : metrics.gauges()) {
+            String type = gauge.name().endsWith("_total") ? "counter" : "gauge";
+            header(out, gauge.name(), gauge.help(), type);
+            sample(out, gauge.name(), gauge.value().getAsDouble());
+        }
+        return out.toString();
+    }
+
+    private String slowQueries() {
+        StringBuilder out = new StringBuilder();
+        out.append("# threshold ").append(metrics.getSlowQueryThresholdMillis()).append(" ms\n");
+        for (SlowQuery slow : metrics.getSlowQueries()) {
+            out.append(slow).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String help, String label,
+                                Map<String, OperationMetrics> metrics) {
+        header(out, name, help, "summary");
+        for (OperationMetrics m : metrics.values()) {
+            writeSummary(out, name, label + "=\"" + escape(m.getName()) + "\"", m.getLatency());
+        }
+    }
+
+    private static void errors(StringBuilder out, String name, String help, String label,
+                               Map<String, OperationMetrics> metrics) {
+        header(out, name, help, "counter");
+        for (OperationMetrics m : metrics.values()) {
+            sample(out, name + "{" + label + "=\"" + escape(m.getName()) + "\"}", m.getErrors());
+        }
+    }
+
+    private static void waitSummary(StringBuilder out, String connection, LatencyHistogram histogram) {
+        writeSummary(out, "library_db_pool_wait_seconds", "connection=\"" + connection + "\"", histogram);
+    }
+
+    private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sample(out, name + "{" + labels + ",quantile=\"" + quantile + "\"}",
+                    histogram.percentile(quantile * 100) / NANOS_PER_SECOND);
+        }
+        sample(out, name + "_sum{" + labels + "}", histogram.getSum() / NANOS_PER_SECOND);
+        sample(out, name + "_count{" + labels + "}", histogram.getCount());
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        sample(out, name, value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "counter");
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String series, double value) {
+        out.append(series).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.library;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// One versioned schema change. Migrations run in order inside a transaction
+// on the writer connection, and their version is recorded in PRAGMA user_version.
+public abstract class Migration {
+    private final int version;
+    private final String description;
+
+    protected Migration(int version, String description) {
+        this.version = version;
+        this.description = description;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public abstract void apply(Connection connection) throws SQLException;
+
+    // A migration made only of plain SQL statements
+    public static Migration of(int version, String description, String... statements) {
+        return new Migration(version, description) {
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                try (Statement stmt = connection.createStatement()) {
+                    for (String sql : statements) {
+                        stmt.executeUpdate(sql);
+                    }
+                }
+            }
+        };
+    }
+}
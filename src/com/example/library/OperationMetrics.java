@@ -0,0 +1,48 @@
+package com.example.library;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Live counters for one named operation: a latency histogram plus an error
+// count. Safe to record from any thread.
+public class OperationMetrics {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public OperationStats snapshot() {
+        return new OperationStats(name, latency.getCount(), errors.sum(),
+                latency.getSum() / NANOS_PER_MILLI, latency.getMean() / NANOS_PER_MILLI,
+                latency.percentile(50) / NANOS_PER_MILLI, latency.percentile(95) / NANOS_PER_MILLI,
+                latency.percentile(99) / NANOS_PER_MILLI, latency.getMax() / NANOS_PER_MILLI);
+    }
+
+    void reset() {
+        latency.reset();
+        errors.reset();
+    }
+}
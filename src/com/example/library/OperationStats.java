@@ -0,0 +1,74 @@
+package com.example.library;
+
+import java.beans.ConstructorProperties;
+
+// Point-in-time view of one operation's counters, in milliseconds. Exposed
+// over JMX as composite data.
+public class OperationStats {
+    private final String name;
+    private final long count;
+    private final long errors;
+    private final double totalMillis;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p95Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    @ConstructorProperties({"name", "count", "errors", "totalMillis", "meanMillis",
+            "p50Millis", "p95Millis", "p99Millis", "maxMillis"})
+    public OperationStats(String name, long count, long errors, double totalMillis, double meanMillis,
+                          double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+        this.name = name;
+        this.count = count;
+        this.errors = errors;
+        this.totalMillis = totalMillis;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p95Millis = p95Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP95Millis() {
+        return p95Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, %d errors, mean %.2f ms, p99 %.2f ms, total %.0f ms",
+                name, count, errors, meanMillis, p99Millis, totalMillis);
+    }
+}
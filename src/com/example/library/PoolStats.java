@@ -0,0 +1,89 @@
+package com.example.library;
+
+import java.beans.ConstructorProperties;
+
+// Snapshot of the connection pool and its prepared-statement caches. Wait
+// times cover the time spent blocked in reader() or writer().
+public class PoolStats {
+    private final int readers;
+    private final int idleReaders;
+    private final boolean writerBusy;
+    private final long readerLeases;
+    private final long writerLeases;
+    private final double readerWaitP99Millis;
+    private final double writerWaitP99Millis;
+    private final long readerTimeouts;
+    private final long writerTimeouts;
+    private final int cachedStatements;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+
+    @ConstructorProperties({"readers", "idleReaders", "writerBusy", "readerLeases", "writerLeases",
+            "readerWaitP99Millis", "writerWaitP99Millis", "readerTimeouts", "writerTimeouts",
+            "cachedStatements", "statementCacheHits", "statementCacheMisses"})
+    public PoolStats(int readers, int idleReaders, boolean writerBusy, long readerLeases, long writerLeases,
+                     double readerWaitP99Millis, double writerWaitP99Millis, long readerTimeouts,
+                     long writerTimeouts, int cachedStatements, long statementCacheHits,
+                     long statementCacheMisses) {
+        this.readers = readers;
+        this.idleReaders = idleReaders;
+        this.writerBusy = writerBusy;
+        this.readerLeases = readerLeases;
+        this.writerLeases = writerLeases;
+        this.readerWaitP99Millis = readerWaitP99Millis;
+        this.writerWaitP99Millis = writerWaitP99Millis;
+        this.readerTimeouts = readerTimeouts;
+        this.writerTimeouts = writerTimeouts;
+        this.cachedStatements = cachedStatements;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+    }
+
+    public int getReaders() {
+        return readers;
+    }
+
+    public int getIdleReaders() {
+        return idleReaders;
+    }
+
+    public boolean isWriterBusy() {
+        return writerBusy;
+    }
+
+    public long getReaderLeases() {
+        return readerLeases;
+    }
+
+    public long getWriterLeases() {
+        return writerLeases;
+    }
+
+    public double getReaderWaitP99Millis() {
+        return readerWaitP99Millis;
+    }
+
+    public double getWriterWaitP99Millis() {
+        return writerWaitP99Millis;
+    }
+
+    public long getReaderTimeouts() {
+        return readerTimeouts;
+    }
+
+    public long getWriterTimeouts() {
+        return writerTimeouts;
+    }
+
+    public int getCachedStatements() {
+        return cachedStatements;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+}
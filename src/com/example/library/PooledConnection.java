@@ -0,0 +1,123 @@
+package com.example.library;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A connection owned by DatabaseUtil. Callers lease it with reader() or
+// writer() and must close() it to hand it back; the underlying JDBC
+// connection and its prepared statements stay open for reuse.
+public class PooledConnection implements AutoCloseable {
+    private static final int TRACE_LIMIT = 16;
+
+    private final Connection connection;
+    private final StatementCache statements;
+    private final boolean readOnly;
+    private final DatabaseUtil pool;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    // Set while leased; only the first close() of a lease hands it back
+    private final AtomicBoolean leased = new AtomicBoolean();
+    // SQL prepared during the current lease and how often, for slow-query reports
+    private final Map<String, Integer> trace = new LinkedHashMap<>();
+
+    PooledConnection(DatabaseUtil pool, Connection connection, boolean readOnly) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statements = new StatementCache(connection);
+        this.readOnly = readOnly;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // Cached prepared statement for this SQL on this connection
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.prepare(sql);
+        if (trace.size() < TRACE_LIMIT || trace.containsKey(sql)) {
+            trace.merge(sql, 1, Integer::sum);
+        }
+        return ps;
+    }
+
+    public int cachedStatementCount() {
+        return statements.size();
+    }
+
+    StatementCache statementCache() {
+        return statements;
+    }
+
+    // Statements prepared since the lease began, with run and bind counts
+    List<String> describeTrace() {
+        List<String> lines = new ArrayList<>(trace.size());
+        for (Map.Entry<String, Integer> entry : trace.entrySet()) {
+            String sql = entry.getKey().replaceAll("\\s+", " ").trim();
+            lines.add(sql + "  [" + entry.getValue() + "x, "
+                    + statements.parameterCount(entry.getKey()) + " binds]");
+        }
+        return lines;
+    }
+
+    // Run action once the current transaction commits; it is dropped if the
+    // transaction rolls back. Actions run in commit order, before the writer
+    // is handed to anyone else, so in-memory state updated from them sees
+    // changes in the same order as the database. Outside a transaction the
+    // statement has already committed and action runs immediately.
+    public void afterCommit(Runnable action) throws SQLException {
+        if (connection.getAutoCommit()) {
+            action.run();
+        } else {
+            afterCommit.add(action);
+        }
+    }
+
+    void runAfterCommit() {
+        List<Runnable> actions = new ArrayList<>(afterCommit);
+        afterCommit.clear();
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                // The transaction is already durable; one failed listener must not hide that
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void discardAfterCommit() {
+        afterCommit.clear();
+    }
+
+    void lease() {
+        leased.set(true);
+    }
+
+    // Return the connection to its pool. Closing it again does nothing, so a
+    // double close cannot put it in the pool twice or free the writer for two.
+    @Override
+    public void close() {
+        if (!leased.compareAndSet(true, false)) {
+            return;
+        }
+        trace.clear();
+        pool.release(this);
+    }
+
+    void closePhysical() throws SQLException {
+        try {
+            statements.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.example.library;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Upgrades a library database in place to the latest schema version.
+// The current version is stored in PRAGMA user_version; every pending
+// migration runs in its own transaction, so a failure leaves the database
+// at the last version that applied cleanly.
+public class SchemaMigrator {
+    private static final Logger LOG = Logger.getLogger("com.example.library.migration");
+
+    // Loan period in days, shared with CirculationService; migration 8 gives
+    // it to the loans already out when due dates are added
+    public static final String LOAN_DAYS_PROPERTY = "library.loanDays";
+    public static final int DEFAULT_LOAN_DAYS = 21;
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            Migration.of(1, "Create base tables",
+                    "CREATE TABLE IF NOT EXISTS authors (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    name TEXT NOT NULL\n"
+                            + ")",
+                    "CREATE TABLE IF NOT EXISTS books (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    title TEXT NOT NULL,\n"
+                            + "    author TEXT NOT NULL,\n"
+                            + "    genre TEXT,\n"
+                            + "    is_borrowed INTEGER DEFAULT 0\n"
+                            + ")",
+                    "CREATE TABLE IF NOT EXISTS borrowers (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    name TEXT NOT NULL,\n"
+                            + "    email TEXT\n"
+                            + ")",
+                    "CREATE TABLE IF NOT EXISTS borrow_records (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    book_id INTEGER NOT NULL,\n"
+                            + "    borrower_id INTEGER NOT NULL,\n"
+                            + "    borrow_date TEXT NOT NULL,\n"
+                            + "    return_date TEXT,\n"
+                            + "    FOREIGN KEY (book_id) REFERENCES books (id),\n"
+                            + "    FOREIGN KEY (borrower_id) REFERENCES borrowers (id)\n"
+                            + ")"),
+            new EpochDayDatesMigration(2),
+            new Migration(3, "Add lookup indexes on email, author and loan columns") {
+                @Override
+                public void apply(Connection connection) throws SQLException {
+                    try (Statement stmt = connection.createStatement()) {
+                        try (ResultSet rs = stmt.executeQuery(
+                                "SELECT COUNT(*) FROM (SELECT email FROM borrowers WHERE email IS NOT NULL"
+                                        + " GROUP BY email HAVING COUNT(*) > 1)")) {
+                            if (rs.next() && rs.getInt(1) > 0) {
+                                throw new SQLException(rs.getInt(1) + " email address(es) are shared by several borrowers;"
+                                        + " fix them before the unique email index can be created");
+                            }
+                        }
+                        stmt.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS idx_borrowers_email ON borrowers (email)");
+                        stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_books_author ON books (author)");
+                        stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_borrow_records_borrower ON borrow_records (borrower_id, return_date)");
+                        stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_borrow_records_book ON borrow_records (book_id, return_date)");
+                        stmt.execute("ANALYZE");
+                    }
+                }
+            },
+            // Rowid order within a borrower, for keyset paging through loan history
+            Migration.of(4, "Index loan history by borrower and record ID",
+                    "CREATE INDEX IF NOT EXISTS idx_borrow_records_history ON borrow_records (borrower_id, id)"),
+            // Server-side sort orders for the paged catalogue table
+            Migration.of(5, "Index book titles and genres for sorted paging",
+                    "CREATE INDEX IF NOT EXISTS idx_books_title ON books (title)",
+                    "CREATE INDEX IF NOT EXISTS idx_books_genre ON books (IFNULL(genre, ''))"),
+            // External-content FTS5 index over the catalogue. Triggers keep it in
+            // step with every insert, update and delete on books, and the default
+            // rank weights title matches above author and genre matches.
+            Migration.of(6, "Add full-text search index for books",
+                    "CREATE VIRTUAL TABLE books_fts USING fts5 (title, author, genre,"
+                            + " content = 'books', content_rowid = 'id',"
+                            + " tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3')",
+                    "CREATE TRIGGER books_fts_insert AFTER INSERT ON books BEGIN\n"
+                            + "    INSERT INTO books_fts (rowid, title, author, genre) VALUES (new.id, new.title, new.author, new.genre);\n"
+                            + "END",
+                    "CREATE TRIGGER books_fts_delete AFTER DELETE ON books BEGIN\n"
+                            + "    INSERT INTO books_fts (books_fts, rowid, title, author, genre) VALUES ('delete', old.id, old.title, old.author, old.genre);\n"
+                            + "END",
+                    "CREATE TRIGGER books_fts_update AFTER UPDATE OF title, author, genre ON books BEGIN\n"
+                            + "    INSERT INTO books_fts (books_fts, rowid, title, author, genre) VALUES ('delete', old.id, old.title, old.author, old.genre);\n"
+                            + "    INSERT INTO books_fts (rowid, title, author, genre) VALUES (new.id, new.title, new.author, new.genre);\n"
+                            + "END",
+                    "INSERT INTO books_fts (books_fts) VALUES ('rebuild')",
+                    "INSERT INTO books_fts (books_fts, rank) VALUES ('rank', 'bm25(10.0, 5.0, 1.0)')"),
+            // books.author stays as the display name; author_id is the key used
+            // for lookups, and book_count is maintained by triggers
+            Migration.of(7, "Link books to the authors table",
+                    "DELETE FROM authors WHERE id NOT IN (SELECT MIN(id) FROM authors GROUP BY name)",
+                    "CREATE UNIQUE INDEX idx_authors_name ON authors (name)",
+                    "ALTER TABLE authors ADD COLUMN book_count INTEGER NOT NULL DEFAULT 0",
+                    "INSERT INTO authors (name) SELECT DISTINCT author FROM books WHERE true ON CONFLICT (name) DO NOTHING",
+                    "ALTER TABLE books ADD COLUMN author_id INTEGER REFERENCES authors (id)",
+                    "UPDATE books SET author_id = (SELECT id FROM authors WHERE name = books.author)",
+                    "CREATE INDEX idx_books_author_id ON books (author_id)",
+                    "UPDATE authors SET book_count = (SELECT COUNT(*) FROM books WHERE author_id = authors.id)",
+                    "CREATE TRIGGER authors_count_insert AFTER INSERT ON books WHEN new.author_id IS NOT NULL BEGIN\n"
+                            + "    UPDATE authors SET book_count = book_count + 1 WHERE id = new.author_id;\n"
+                            + "END",
+                    "CREATE TRIGGER authors_count_delete AFTER DELETE ON books WHEN old.author_id IS NOT NULL BEGIN\n"
+                            + "    UPDATE authors SET book_count = book_count - 1 WHERE id = old.author_id;\n"
+                            + "END",
+                    "CREATE TRIGGER authors_count_update AFTER UPDATE OF author_id ON books"
+                            + " WHEN old.author_id IS NOT new.author_id BEGIN\n"
+                            + "    UPDATE authors SET book_count = book_count - 1 WHERE id = old.author_id;\n"
+                            + "    UPDATE authors SET book_count = book_count + 1 WHERE id = new.author_id;\n"
+                            + "END"),
+            new LoanDueDatesMigration(8),
+            // One queue of holds per book, served in ID order. A hold is WAITING
+            // until a copy comes back, then READY (the copy is set aside and
+            // stays is_borrowed) until it is collected, cancelled or expires.
+            // A borrower has at most one open hold on a book.
+            Migration.of(9, "Add the hold queue",
+                    "CREATE TABLE holds (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    book_id INTEGER NOT NULL REFERENCES books (id),\n"
+                            + "    borrower_id INTEGER NOT NULL REFERENCES borrowers (id),\n"
+                            + "    status TEXT NOT NULL,\n"
+                            + "    placed_date INTEGER NOT NULL,\n"
+                            + "    ready_date INTEGER,\n"
+                            + "    expires_date INTEGER,\n"
+                            + "    closed_date INTEGER\n"
+                            + ")",
+                    "CREATE UNIQUE INDEX idx_holds_open ON holds (book_id, borrower_id) WHERE status IN ('WAITING', 'READY')",
+                    "CREATE INDEX idx_holds_queue ON holds (book_id, status, id) WHERE status IN ('WAITING', 'READY')",
+                    "CREATE INDEX idx_holds_ready ON holds (expires_date, id) WHERE status = 'READY'",
+                    "CREATE INDEX idx_holds_borrower ON holds (borrower_id, id) WHERE status IN ('WAITING', 'READY')"),
+            // Running totals kept by the checkout and return transactions, so
+            // dashboards read a few rows instead of scanning loan history. They
+            // are filled once here from the loans already recorded; genres are
+            // keyed by IFNULL(genre, '') and days by epoch day.
+            Migration.of(10, "Add circulation statistics",
+                    "CREATE TABLE book_loan_stats (\n"
+                            + "    book_id INTEGER PRIMARY KEY,\n"
+                            + "    loan_count INTEGER NOT NULL,\n"
+                            + "    active INTEGER NOT NULL\n"
+                            + ")",
+                    "CREATE INDEX idx_book_loan_stats_rank ON book_loan_stats (loan_count DESC, book_id)",
+                    "CREATE TABLE borrower_loan_stats (\n"
+                            + "    borrower_id INTEGER PRIMARY KEY,\n"
+                            + "    loan_count INTEGER NOT NULL,\n"
+                            + "    active INTEGER NOT NULL\n"
+                            + ")",
+                    "CREATE INDEX idx_borrower_loan_stats_rank ON borrower_loan_stats (loan_count DESC, borrower_id)",
+                    "CREATE TABLE genre_loan_stats (\n"
+                            + "    genre TEXT PRIMARY KEY,\n"
+                            + "    loan_count INTEGER NOT NULL,\n"
+                            + "    active INTEGER NOT NULL\n"
+                            + ")",
+                    "CREATE TABLE daily_circulation (\n"
+                            + "    day INTEGER PRIMARY KEY,\n"
+                            + "    checkouts INTEGER NOT NULL,\n"
+                            + "    returns INTEGER NOT NULL\n"
+                            + ")",
+                    "INSERT INTO book_loan_stats (book_id, loan_count, active)"
+                            + " SELECT book_id, COUNT(*), SUM(return_date IS NULL) FROM borrow_records GROUP BY book_id",
+                    "INSERT INTO borrower_loan_stats (borrower_id, loan_count, active)"
+                            + " SELECT borrower_id, COUNT(*), SUM(return_date IS NULL) FROM borrow_records GROUP BY borrower_id",
+                    "INSERT INTO genre_loan_stats (genre, loan_count, active)"
+                            + " SELECT IFNULL(b.genre, ''), SUM(s.loan_count), SUM(s.active)"
+                            + " FROM book_loan_stats s JOIN books b ON b.id = s.book_id GROUP BY IFNULL(b.genre, '')",
+                    "INSERT INTO daily_circulation (day, checkouts, returns)"
+                            + " SELECT day, SUM(checkouts), SUM(returns) FROM ("
+                            + "SELECT borrow_date AS day, 1 AS checkouts, 0 AS returns FROM borrow_records"
+                            + " UNION ALL SELECT return_date, 0, 1 FROM borrow_records WHERE return_date IS NOT NULL)"
+                            + " GROUP BY day"),
+            // Closed loans past the archive age are moved here from borrow_records,
+            // keeping their IDs, so the hot table holds mostly open and recent loans
+            Migration.of(11, "Add the loan history archive",
+                    "CREATE TABLE borrow_records_archive (\n"
+                            + "    id INTEGER PRIMARY KEY,\n"
+                            + "    book_id INTEGER NOT NULL,\n"
+                            + "    borrower_id INTEGER NOT NULL,\n"
+                            + "    borrow_date INTEGER NOT NULL,\n"
+                            + "    return_date INTEGER NOT NULL,\n"
+                            + "    due_date INTEGER\n"
+                            + ")",
+                    "CREATE INDEX idx_borrow_records_archive_history ON borrow_records_archive (borrower_id, id)",
+                    "CREATE INDEX idx_borrow_records_archive_book ON borrow_records_archive (book_id)"),
+            // Every committed write to books, borrowers and borrow_records, in
+            // commit order, for ChangeDispatcher. Triggers write it in the same
+            // transaction as the change, whichever process or code path makes
+            // it. Loans only leave borrow_records to be archived or with their
+            // book, so those deletes are not logged. AUTOINCREMENT keeps seq
+            // rising even after the log has been trimmed right down.
+            Migration.of(12, "Add the change log",
+                    "CREATE TABLE change_log (\n"
+                            + "    seq INTEGER PRIMARY KEY AUTOINCREMENT,\n"
+                            + "    table_name TEXT NOT NULL,\n"
+                            + "    row_id INTEGER NOT NULL,\n"
+                            + "    op TEXT NOT NULL\n"
+                            + ")",
+                    "CREATE TRIGGER books_log_insert AFTER INSERT ON books BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('books', new.id, 'INSERT');\n"
+                            + "END",
+                    "CREATE TRIGGER books_log_update AFTER UPDATE ON books BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('books', new.id, 'UPDATE');\n"
+                            + "END",
+                    "CREATE TRIGGER books_log_delete AFTER DELETE ON books BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('books', old.id, 'DELETE');\n"
+                            + "END",
+                    "CREATE TRIGGER borrowers_log_insert AFTER INSERT ON borrowers BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrowers', new.id, 'INSERT');\n"
+                            + "END",
+                    "CREATE TRIGGER borrowers_log_update AFTER UPDATE ON borrowers BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrowers', new.id, 'UPDATE');\n"
+                            + "END",
+                    "CREATE TRIGGER borrowers_log_delete AFTER DELETE ON borrowers BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrowers', old.id, 'DELETE');\n"
+                            + "END",
+                    "CREATE TRIGGER borrow_records_log_insert AFTER INSERT ON borrow_records BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrow_records', new.id, 'INSERT');\n"
+                            + "END",
+                    "CREATE TRIGGER borrow_records_log_update AFTER UPDATE ON borrow_records BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrow_records', new.id, 'UPDATE');\n"
+                            + "END"),
+            new NormalizedEmailsMigration(13),
+            // SQLite only uses a partial index when the query repeats its WHERE
+            // clause, so the status IN ('WAITING', 'READY') indexes never served
+            // the lookups for one status. These are keyed by book for each status
+            // the circulation transactions look for; they replace the queue index.
+            Migration.of(14, "Index waiting and ready holds by book",
+                    "CREATE INDEX idx_holds_waiting ON holds (book_id, id) WHERE status = 'WAITING'",
+                    "CREATE INDEX idx_holds_ready_book ON holds (book_id) WHERE status = 'READY'",
+                    "DROP INDEX idx_holds_queue"),
+            // Loan IDs must stay unique across borrow_records and its archive.
+            // Without AUTOINCREMENT, SQLite hands out MAX(id) + 1 of the hot table,
+            // which can be an archived ID once the newest loans are gone (deleted
+            // with their book). The table is rebuilt with AUTOINCREMENT, and the
+            // sequence starts above every archived ID.
+            Migration.of(15, "Never reuse loan IDs",
+                    "CREATE TABLE borrow_records_new (\n"
+                            + "    id INTEGER PRIMARY KEY AUTOINCREMENT,\n"
+                            + "    book_id INTEGER NOT NULL,\n"
+                            + "    borrower_id INTEGER NOT NULL,\n"
+                            + "    borrow_date INTEGER NOT NULL,\n"
+                            + "    return_date INTEGER,\n"
+                            + "    due_date INTEGER,\n"
+                            + "    FOREIGN KEY (book_id) REFERENCES books (id),\n"
+                            + "    FOREIGN KEY (borrower_id) REFERENCES borrowers (id)\n"
+                            + ")",
+                    "INSERT INTO borrow_records_new (id, book_id, borrower_id, borrow_date, return_date, due_date)"
+                            + " SELECT id, book_id, borrower_id, borrow_date, return_date, due_date FROM borrow_records",
+                    "DROP TABLE borrow_records",
+                    "ALTER TABLE borrow_records_new RENAME TO borrow_records",
+                    "INSERT INTO sqlite_sequence (name, seq) SELECT 'borrow_records', 0"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = 'borrow_records')",
+                    "UPDATE sqlite_sequence SET seq = MAX(seq, (SELECT IFNULL(MAX(id), 0) FROM borrow_records_archive))"
+                            + " WHERE name = 'borrow_records'",
+                    "CREATE INDEX idx_borrow_records_borrower ON borrow_records (borrower_id, return_date)",
+                    "CREATE INDEX idx_borrow_records_book ON borrow_records (book_id, return_date)",
+                    "CREATE INDEX idx_borrow_records_history ON borrow_records (borrower_id, id)",
+                    "CREATE INDEX idx_borrow_records_due ON borrow_records (due_date, id) WHERE return_date IS NULL",
+                    "CREATE TRIGGER borrow_records_log_insert AFTER INSERT ON borrow_records BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrow_records', new.id, 'INSERT');\n"
+                            + "END",
+                    "CREATE TRIGGER borrow_records_log_update AFTER UPDATE ON borrow_records BEGIN\n"
+                            + "    INSERT INTO change_log (table_name, row_id, op) VALUES ('borrow_records', new.id, 'UPDATE');\n"
+                            + "END")
+    );
+
+    private SchemaMigrator() {
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    // Bring the database up to the latest version; returns how many migrations ran
+    public static int migrate(DatabaseUtil db) throws SQLException {
+        return migrate(db, latestVersion());
+    }
+
+    // Bring the database up to (at most) the given version
+    public static int migrate(DatabaseUtil db, int targetVersion) throws SQLException {
+        int applied = 0;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > targetVersion) {
+                break;
+            }
+            boolean ran = db.transaction("schema.migrate", c -> {
+                Connection connection = c.getConnection();
+                if (currentVersion(connection) >= migration.getVersion()) {
+                    return false;
+                }
+                migration.apply(connection);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA user_version = " + migration.getVersion());
+                }
+                return true;
+            });
+            if (ran) {
+                applied++;
+                LOG.log(Level.INFO, "Applied schema migration {0}: {1}",
+                        new Object[]{migration.getVersion(), migration.getDescription()});
+            }
+        }
+        return applied;
+    }
+
+    public static int currentVersion(DatabaseUtil db) throws SQLException {
+        return db.read("schema.version", c -> currentVersion(c.getConnection()));
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Adds loan due dates and the overdue notice queue. Only open loans are
+    // indexed, ordered by due date, so overdue scans never touch returned
+    // history. Loans already out are given the loan period configured by
+    // library.loanDays when the migration runs (the one CirculationService
+    // uses for new loans); returned loans keep a NULL due date. loan_notices
+    // is the outgoing notification queue, at most one notice of each kind per
+    // loan, and loan_scan_cursors records how far each scan has got.
+    private static class LoanDueDatesMigration extends Migration {
+        private static final List<String> STATEMENTS = List.of(
+                "CREATE INDEX idx_borrow_records_due ON borrow_records (due_date, id) WHERE return_date IS NULL",
+                "CREATE TABLE loan_notices (\n"
+                        + "    id INTEGER PRIMARY KEY,\n"
+                        + "    record_id INTEGER NOT NULL REFERENCES borrow_records (id),\n"
+                        + "    borrower_id INTEGER NOT NULL,\n"
+                        + "    book_id INTEGER NOT NULL,\n"
+                        + "    kind TEXT NOT NULL,\n"
+                        + "    due_date INTEGER NOT NULL,\n"
+                        + "    created_date INTEGER NOT NULL,\n"
+                        + "    sent_date INTEGER,\n"
+                        + "    UNIQUE (record_id, kind)\n"
+                        + ")",
+                "CREATE INDEX idx_loan_notices_pending ON loan_notices (id) WHERE sent_date IS NULL",
+                "CREATE TABLE loan_scan_cursors (\n"
+                        + "    kind TEXT PRIMARY KEY,\n"
+                        + "    due_date INTEGER NOT NULL,\n"
+                        + "    record_id INTEGER NOT NULL\n"
+                        + ")");
+
+        LoanDueDatesMigration(int version) {
+            super(version, "Add loan due dates and the overdue notice queue");
+        }
+
+        @Override
+        public void apply(Connection connection) throws SQLException {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE borrow_records ADD COLUMN due_date INTEGER");
+            }
+            try (PreparedStatement backfill = connection.prepareStatement(
+                    "UPDATE borrow_records SET due_date = borrow_date + ? WHERE return_date IS NULL")) {
+                backfill.setInt(1, Integer.getInteger(LOAN_DAYS_PROPERTY, DEFAULT_LOAN_DAYS));
+                backfill.executeUpdate();
+            }
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : STATEMENTS) {
+                    stmt.executeUpdate(sql);
+                }
+            }
+        }
+    }
+
+    // Rewrites borrower emails trimmed and lower-cased (the rule in
+    // Borrower.normalizeEmail, with blanks stored as NULL), so the existing
+    // unique index also refuses the same address in another case, and adds a
+    // case-insensitive name index for prefix searches. Addresses that only
+    // differ in case or spacing have to be merged by hand first.
+    private static class NormalizedEmailsMigration extends Migration {
+        NormalizedEmailsMigration(int version) {
+            super(version, "Normalize borrower emails and index borrower names");
+        }
+
+        @Override
+        public void apply(Connection connection) throws SQLException {
+            Map<String, Integer> owners = new HashMap<>();
+            List<Object[]> changed = new ArrayList<>();
+            int shared = 0;
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, email FROM borrowers WHERE email IS NOT NULL")) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    String email = rs.getString("email");
+                    String normalized = email.trim().isEmpty() ? null : email.trim().toLowerCase(Locale.ROOT);
+                    if (normalized != null && owners.putIfAbsent(normalized, id) != null) {
+                        shared++;
+                    }
+                    if (!email.equals(normalized)) {
+                        changed.add(new Object[]{id, normalized});
+                    }
+                }
+            }
+            if (shared > 0) {
+                throw new SQLException(shared + " borrower(s) share an email address with another borrower apart from"
+                        + " case or spacing; merge them before emails can be normalized");
+            }
+
+            try (PreparedStatement update = connection.prepareStatement("UPDATE borrowers SET email = ? WHERE id = ?")) {
+                int pending = 0;
+                for (Object[] row : changed) {
+                    update.setString(1, (String) row[1]);
+                    update.setInt(2, (Integer) row[0]);
+                    update.addBatch();
+                    if (++pending == 1000) {
+                        update.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    update.executeBatch();
+                }
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_borrowers_name ON borrowers (name COLLATE NOCASE, id)");
+            }
+        }
+    }
+
+    // Rebuilds borrow_records with INTEGER epoch-day date columns. Old rows
+    // hold either java.sql.Date milliseconds (what the UI used to write) or
+    // ISO yyyy-MM-dd text; milliseconds are converted in the system time zone,
+    // the same way the UI used to read them back.
+    private static class EpochDayDatesMigration extends Migration {
+        EpochDayDatesMigration(int version) {
+            super(version, "Store borrow and return dates as epoch days");
+        }
+
+        @Override
+        public void apply(Connection connection) throws SQLException {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE borrow_records_new (\n"
+                        + "    id INTEGER PRIMARY KEY,\n"
+                        + "    book_id INTEGER NOT NULL,\n"
+                        + "    borrower_id INTEGER NOT NULL,\n"
+                        + "    borrow_date INTEGER NOT NULL,\n"
+                        + "    return_date INTEGER,\n"
+                        + "    FOREIGN KEY (book_id) REFERENCES books (id),\n"
+                        + "    FOREIGN KEY (borrower_id) REFERENCES borrowers (id)\n"
+                        + ")");
+
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT id, book_id, borrower_id, borrow_date, return_date FROM borrow_records");
+                     PreparedStatement insert = connection.prepareStatement(
+                             "INSERT INTO borrow_records_new (id, book_id, borrower_id, borrow_date, return_date) VALUES (?, ?, ?, ?, ?)")) {
+                    int pending = 0;
+                    while (rs.next()) {
+                        insert.setInt(1, rs.getInt("id"));
+                        insert.setInt(2, rs.getInt("book_id"));
+                        insert.setInt(3, rs.getInt("borrower_id"));
+                        insert.setLong(4, toEpochDay(rs.getString("borrow_date")));
+                        String returnDate = rs.getString("return_date");
+                        if (returnDate == null) {
+                            insert.setNull(5, java.sql.Types.INTEGER);
+                        } else {
+                            insert.setLong(5, toEpochDay(returnDate));
+                        }
+                        insert.addBatch();
+                        if (++pending == 1000) {
+                            insert.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    if (pending > 0) {
+                        insert.executeBatch();
+                    }
+                }
+
+                stmt.executeUpdate("DROP TABLE borrow_records");
+                stmt.executeUpdate("ALTER TABLE borrow_records_new RENAME TO borrow_records");
+            }
+        }
+
+        static long toEpochDay(String value) throws SQLException {
+            String text = value.trim();
+            try {
+                if (text.chars().allMatch(Character::isDigit)) {
+                    return Instant.ofEpochMilli(Long.parseLong(text))
+                            .atZone(ZoneId.systemDefault())
+                            .toLocalDate()
+                            .toEpochDay();
+                }
+                return LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text).toEpochDay();
+            } catch (RuntimeException e) {
+                throw new SQLException("Unrecognised date in borrow_records: " + value, e);
+            }
+        }
+    }
+}
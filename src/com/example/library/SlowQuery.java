@@ -0,0 +1,49 @@
+package com.example.library;
+
+import java.beans.ConstructorProperties;
+import java.time.Instant;
+import java.util.List;
+
+// One data-access call that took longer than the slow-query threshold, with
+// the statements it ran and how many parameters each bound
+public class SlowQuery {
+    private final String operation;
+    private final long timestamp;
+    private final double durationMillis;
+    private final List<String> statements;
+
+    @ConstructorProperties({"operation", "timestamp", "durationMillis", "statements"})
+    public SlowQuery(String operation, long timestamp, double durationMillis, List<String> statements) {
+        this.operation = operation;
+        this.timestamp = timestamp;
+        this.durationMillis = durationMillis;
+        this.statements = List.copyOf(statements);
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    // Epoch milliseconds at which the call finished
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getDurationMillis() {
+        return durationMillis;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("%s %s took %.1f ms",
+                Instant.ofEpochMilli(timestamp), operation, durationMillis));
+        for (String statement : statements) {
+            sb.append("\n    ").append(statement);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.library;
+
+import java.sql.SQLException;
+
+// A unit of database work run against a leased pooled connection
+@FunctionalInterface
+public interface SqlFunction<T> {
+    T apply(PooledConnection connection) throws SQLException;
+}
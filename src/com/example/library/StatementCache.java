@@ -0,0 +1,85 @@
+package com.example.library;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps one PreparedStatement per SQL string for the life of a connection,
+// so repeated queries skip the SQLite parse/plan step. Not thread-safe:
+// a cache must only be used by the thread that owns its connection. The
+// hit/miss counters may be read from any thread.
+public class StatementCache implements AutoCloseable {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final Map<String, Integer> parameterCounts = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int size;
+
+    public StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    // Return the cached statement for this SQL, preparing it on first use
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null || ps.isClosed()) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+            parameterCounts.put(sql, ps.getParameterMetaData().getParameterCount());
+            size = statements.size();
+            misses.increment();
+        } else {
+            ps.clearParameters();
+            hits.increment();
+        }
+        return ps;
+    }
+
+    // Number of ? placeholders in a statement this cache has prepared, or -1
+    public int parameterCount(String sql) {
+        return parameterCounts.getOrDefault(sql, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Close every cached statement; the connection itself stays open
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        statements.clear();
+        parameterCounts.clear();
+        size = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}